@@ -0,0 +1,493 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.db.AppointmentQuery;
+import scheduler.db.CaregiverAssignmentStrategy;
+import scheduler.db.InMemoryStorage;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.metrics.LatencyHistogram;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives the real Scheduler commands from many concurrent clients, each with its own Session, and then
+// checks that the data still adds up. Patient clients sign up, log in, search, reserve, cancel and list
+// their appointments; caregiver clients upload availability, search and list theirs. Each client is a
+// virtual thread where the JVM has them.
+//
+// Afterwards it reports throughput and latency percentiles per command, and these invariant violations:
+//     oversold doses     more reservations than doses, or a dose count that does not add up
+//     double-booked      a caregiver with two appointments on a day, or booked while still available
+//     lost availability  a slot that was offered, is not booked, and is no longer available
+//     lost appointment   a reservation that was confirmed but is not stored, or the other way round
+//
+// Settings, as system properties:
+//     load.clients (2000), load.caregiverClients (200), load.caregivers (500), load.days (30),
+//     load.uploadDays (30, days after load.days that caregiver clients upload one at a time),
+//     load.doses (20000), load.warmupSeconds (5), load.seconds (30),
+//     load.patientMix (signup=2,login=5,search=35,reserve=30,cancel=20,show=8),
+//     load.caregiverMix (upload=40,search=40,show=20),
+//     load.storage (memory, wrapped in the layers StorageManager puts around SQL Server storage and switched
+//     by the same variables; sqlserver uses the deployment the Server/DBName/... variables point at),
+//     load.assignment (caregiver assignment strategy for memory storage), load.out (load-results.json)
+// Exits with status 1 if any invariant was violated.
+public class LoadGenerator {
+
+    private static final String PASSWORD = "password";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2031, 1, 1);
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+
+    private enum Op {
+        SIGNUP("create_patient"), LOGIN("login_patient"), SEARCH("search_caregiver_schedule"),
+        RESERVE("reserve"), CANCEL("cancel"), SHOW("show_appointments"), UPLOAD("upload_availability");
+
+        private final String command;
+
+        Op(String command) {
+            this.command = command;
+        }
+    }
+
+    private final int clients = Integer.getInteger("load.clients", 2000);
+    private final int caregiverClients = Integer.getInteger("load.caregiverClients", 200);
+    private final int caregivers = Math.max(caregiverClients, Integer.getInteger("load.caregivers", 500));
+    private final int days = Integer.getInteger("load.days", 30);
+    private final int uploadDays = Integer.getInteger("load.uploadDays", 30);
+    private final int doses = Integer.getInteger("load.doses", 20_000);
+    private final int warmupSeconds = Integer.getInteger("load.warmupSeconds", 5);
+    private final int seconds = Integer.getInteger("load.seconds", 30);
+    private final Map<Op, Integer> patientMix =
+            parseMix(System.getProperty("load.patientMix", "signup=2,login=5,search=35,reserve=30,cancel=20,show=8"));
+    private final Map<Op, Integer> caregiverMix =
+            parseMix(System.getProperty("load.caregiverMix", "upload=40,search=40,show=20"));
+    private final String storageName = System.getProperty("load.storage", "memory");
+    private final Path out = Paths.get(System.getProperty("load.out", "load-results.json"));
+    // names are unique to the run so a shared database can be loaded again
+    private final String prefix = "load" + Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36) + "_";
+    private final String vaccine = prefix + "vax";
+
+    private Storage storage;
+
+    // per command, measured after the warmup only
+    private final Map<Op, LatencyHistogram> latencies = new EnumMap<>(Op.class);
+    private final Map<Op, LongAdder> failures = new EnumMap<>(Op.class);
+
+    // what the clients were told, over the whole run
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    // caregiver|date of every slot ever offered
+    private final Set<String> offered = ConcurrentHashMap.newKeySet();
+    // confirmed appointments not cancelled since, by id, and by the slot they hold
+    private final Map<Integer, String> bookings = new ConcurrentHashMap<>();
+    private final Map<String, Integer> bookedSlots = new ConcurrentHashMap<>();
+    private final AtomicInteger signups = new AtomicInteger();
+    private final List<String> violations = new ArrayList<>();
+    private int violationCount = 0;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        boolean clean = generator.run();
+        StorageManager.shutdown();
+        System.exit(clean ? 0 : 1);
+    }
+
+    private LoadGenerator() {
+        for (Op op : Op.values()) {
+            latencies.put(op, new LatencyHistogram());
+            failures.put(op, new LongAdder());
+        }
+    }
+
+    private boolean run() throws Exception {
+        if (storageName.equalsIgnoreCase("memory")) {
+            // behind the same caches, journal, metrics and waitlist matcher as SQL Server storage
+            storage = StorageManager.wrap(new InMemoryStorage(
+                    CaregiverAssignmentStrategy.fromName(System.getProperty("load.assignment", "least-booked"))));
+            StorageManager.setStorage(storage);
+        } else {
+            storage = StorageManager.getStorage();
+        }
+        System.out.println("Seeding " + (clients - caregiverClients) + " patients, " + caregivers + " caregivers, " +
+                           days + " days and " + doses + " doses in " + storageName + " storage");
+        seed();
+
+        System.out.println("Running " + clients + " clients (" + caregiverClients + " caregivers) for " +
+                           warmupSeconds + "s warmup + " + seconds + "s");
+        long warmupEnd = System.nanoTime() + warmupSeconds * 1_000_000_000L;
+        long end = warmupEnd + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(clients);
+        ExecutorService executor = Util.newVirtualThreadExecutor();
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            executor.execute(() -> {
+                try {
+                    new Client(index).run(warmupEnd, end);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        executor.shutdown();
+
+        check();
+        report();
+        writeResults();
+        System.out.println("Results written to " + out.toAbsolutePath());
+        return violationCount == 0;
+    }
+
+    private void seed() throws SQLException {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        for (int i = 0; i < clients - caregiverClients; i++) {
+            storage.addPatient(new Patient.PatientBuilder(patientName(i), salt, hash).build());
+        }
+        for (int i = 0; i < caregivers; i++) {
+            storage.addCaregiver(new Caregiver.CaregiverBuilder(caregiverName(i), salt, hash).build());
+        }
+        List<Availability> availabilities = new ArrayList<>(caregivers);
+        for (int day = 0; day < days; day++) {
+            availabilities.clear();
+            for (int i = 0; i < caregivers; i++) {
+                availabilities.add(new Availability.AvailabilityBuilder(date(day), caregiverName(i)).build());
+                offered.add(slot(caregiverName(i), date(day)));
+            }
+            storage.addAvailabilities(availabilities);
+        }
+        storage.addVaccine(vaccine, doses);
+    }
+
+    // One simulated user: a session whose output is captured so outcomes can be read back
+    private class Client {
+        private final boolean caregiver;
+        private final SplittableRandom random;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final Session session = new Session(new PrintStream(buffer, false, StandardCharsets.UTF_8), false);
+        private final Op[] ops;
+        private final int[] weights;
+        private final int totalWeight;
+        private String username;
+        // this patient's appointments that have not been cancelled
+        private final List<Integer> appointments = new ArrayList<>();
+        // next day past load.days this caregiver uploads
+        private int nextUploadDay = 0;
+
+        private Client(int index) {
+            this.caregiver = index < caregiverClients;
+            this.random = new SplittableRandom(index);
+            this.username = caregiver ? caregiverName(index) : patientName(index - caregiverClients);
+            Map<Op, Integer> mix = caregiver ? caregiverMix : patientMix;
+            this.ops = mix.keySet().toArray(new Op[0]);
+            this.weights = new int[ops.length];
+            int total = 0;
+            for (int i = 0; i < ops.length; i++) {
+                total += mix.get(ops[i]);
+                weights[i] = total;
+            }
+            this.totalWeight = total;
+        }
+
+        private void run(long warmupEnd, long end) {
+            execute((caregiver ? "login_caregiver " : "login_patient ") + username + " " + PASSWORD);
+            if (!session.isLoggedIn()) {
+                throw new IllegalStateException("Unable to log in as " + username);
+            }
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                Op op = pick();
+                if (op == Op.CANCEL && appointments.isEmpty()) {
+                    op = Op.RESERVE;
+                } else if (op == Op.UPLOAD && nextUploadDay >= uploadDays) {
+                    op = Op.SEARCH;
+                }
+                long start = System.nanoTime();
+                boolean ok = perform(op);
+                if (now >= warmupEnd) {
+                    latencies.get(op).record(System.nanoTime() - start);
+                    if (!ok) {
+                        failures.get(op).increment();
+                    }
+                }
+            }
+        }
+
+        private Op pick() {
+            int r = random.nextInt(totalWeight);
+            for (int i = 0; i < ops.length; i++) {
+                if (r < weights[i]) {
+                    return ops[i];
+                }
+            }
+            return ops[ops.length - 1];
+        }
+
+        // Run the command for op and account for its outcome; returns whether it succeeded
+        private boolean perform(Op op) {
+            switch (op) {
+                case SIGNUP:
+                    String name = prefix + "signup" + signups.incrementAndGet();
+                    if (!execute("create_patient " + name + " " + PASSWORD)) {
+                        return false;
+                    }
+                    execute("logout");
+                    username = name;
+                    appointments.clear();
+                    return execute("login_patient " + name + " " + PASSWORD);
+                case LOGIN:
+                    execute("logout");
+                    return execute("login_patient " + username + " " + PASSWORD);
+                case SEARCH:
+                    return execute("search_caregiver_schedule " + date(random.nextInt(days + uploadDays)));
+                case RESERVE:
+                    return reserve();
+                case CANCEL:
+                    return cancel();
+                case SHOW:
+                    return execute("show_appointments --limit 20");
+                case UPLOAD:
+                    return upload();
+                default:
+                    throw new IllegalStateException(op.toString());
+            }
+        }
+
+        private boolean reserve() {
+            Date date = date(random.nextInt(days + uploadDays));
+            if (!execute("reserve " + date + " " + vaccine)) {
+                return false;
+            }
+            String output = buffer.toString(StandardCharsets.UTF_8);
+            int idStart = output.indexOf("Appointment ID: ") + "Appointment ID: ".length();
+            int id = Integer.parseInt(output.substring(idStart, output.indexOf(',', idStart)));
+            int nameStart = output.indexOf("Caregiver username: ") + "Caregiver username: ".length();
+            String caregiverName = output.substring(nameStart).trim();
+            reserved.increment();
+            appointments.add(id);
+            String slot = slot(caregiverName, date);
+            bookings.put(id, slot);
+            Integer other = bookedSlots.putIfAbsent(slot, id);
+            if (other != null) {
+                violation("double-booked: appointments " + other + " and " + id + " both hold " + slot);
+            }
+            return true;
+        }
+
+        private boolean cancel() {
+            int id = appointments.remove(random.nextInt(appointments.size()));
+            String slot = bookings.get(id);
+            // free the slot before the scheduler does, so whoever books it next is not taken for a double booking
+            bookedSlots.remove(slot, id);
+            if (!execute("cancel " + id)) {
+                bookedSlots.putIfAbsent(slot, id);
+                appointments.add(id);
+                return false;
+            }
+            bookings.remove(id);
+            cancelled.increment();
+            return true;
+        }
+
+        private boolean upload() {
+            Date date = date(days + nextUploadDay++);
+            // offered before it exists, so a concurrent check never finds an unexplained slot
+            offered.add(slot(username, date));
+            return execute("upload_availability " + date);
+        }
+
+        private boolean execute(String command) {
+            buffer.reset();
+            Scheduler.execute(session, command);
+            return !session.hasFailed();
+        }
+    }
+
+    // Compare what the clients were told with what the storage now holds
+    private void check() throws SQLException {
+        Vaccine stock = storage.getVaccine(vaccine);
+        long net = reserved.sum() - cancelled.sum();
+        if (net > doses) {
+            violation("oversold doses: " + net + " appointments hold a dose but only " + doses + " were stocked");
+        }
+        if (stock == null || stock.getAvailableDoses() != doses - net) {
+            violation("oversold doses: " + (stock == null ? "vaccine missing" : stock.getAvailableDoses() +
+                      " doses left") + ", expected " + (doses - net));
+        }
+
+        Map<Integer, String> stored = new HashMap<>();
+        List<String> booked = new ArrayList<>();
+        for (int i = 0; i < caregivers; i++) {
+            String caregiverName = caregiverName(i);
+            booked.clear();
+            storage.forEachAppointment(new AppointmentQuery.AppointmentQueryBuilder(caregiverName, true).build(),
+                    appointment -> {
+                        stored.put(appointment.getAppointmentId(), slot(caregiverName, appointment.getDate()));
+                        booked.add(slot(caregiverName, appointment.getDate()));
+                    });
+            TreeSet<String> seen = new TreeSet<>();
+            for (String slot : booked) {
+                if (!seen.add(slot)) {
+                    violation("double-booked: " + slot + " has more than one appointment");
+                }
+            }
+        }
+        for (Map.Entry<Integer, String> booking : bookings.entrySet()) {
+            if (!booking.getValue().equals(stored.get(booking.getKey()))) {
+                violation("lost appointment: " + booking.getKey() + " for " + booking.getValue() +
+                          " was confirmed but is stored as " + stored.get(booking.getKey()));
+            }
+        }
+        for (Map.Entry<Integer, String> appointment : stored.entrySet()) {
+            if (!bookings.containsKey(appointment.getKey())) {
+                violation("lost appointment: " + appointment.getKey() + " for " + appointment.getValue() +
+                          " is stored but was cancelled or never confirmed");
+            }
+        }
+
+        Set<String> bookedNow = new TreeSet<>(stored.values());
+        for (int day = 0; day < days + uploadDays; day++) {
+            Date date = date(day);
+            Set<String> available = new TreeSet<>();
+            for (String caregiverName : storage.getAvailableCaregivers(date)) {
+                available.add(slot(caregiverName, date));
+            }
+            for (int i = 0; i < caregivers; i++) {
+                String slot = slot(caregiverName(i), date);
+                boolean isAvailable = available.contains(slot);
+                boolean isBooked = bookedNow.contains(slot);
+                if (isAvailable && isBooked) {
+                    violation("double-booked: " + slot + " is booked and still available");
+                } else if (!isAvailable && !isBooked && offered.contains(slot)) {
+                    violation("lost availability: " + slot + " was offered, is not booked and is not available");
+                } else if ((isAvailable || isBooked) && !offered.contains(slot)) {
+                    violation("lost availability: " + slot + " was never offered but is " +
+                              (isBooked ? "booked" : "available"));
+                }
+            }
+        }
+    }
+
+    private synchronized void violation(String description) {
+        violationCount++;
+        if (violations.size() < MAX_REPORTED_VIOLATIONS) {
+            violations.add(description);
+        }
+    }
+
+    private void report() {
+        System.out.println(String.format(Locale.ROOT, "%-26s %10s %8s %10s %10s %10s %10s %10s", "", "count",
+                                         "failed", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long total = 0;
+        for (Op op : Op.values()) {
+            LatencyHistogram h = latencies.get(op);
+            total += h.getCount();
+            if (h.getCount() > 0) {
+                System.out.println(String.format(Locale.ROOT, "%-26s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f",
+                                                 op.command, h.getCount(), failures.get(op).sum(),
+                                                 h.getCount() / (double) seconds, millis(h, 0.50), millis(h, 0.99),
+                                                 millis(h, 0.999), h.getMaxNanos() / 1_000_000.0));
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "Total %.1f commands/s, %.1f reservations/s", total /
+                                         (double) seconds, latencies.get(Op.RESERVE).getCount() / (double) seconds));
+        System.out.println("Reservations confirmed " + reserved.sum() + ", cancelled " + cancelled.sum() +
+                           ", signups " + signups.get());
+        if (violationCount == 0) {
+            System.out.println("No invariant violations");
+        } else {
+            System.out.println(violationCount + " invariant violations, the first " + violations.size() + ":");
+            for (String violation : violations) {
+                System.out.println("  " + violation);
+            }
+        }
+    }
+
+    private void writeResults() throws IOException {
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("{\n  \"clients\": " + clients + ",\n  \"caregiverClients\": " + caregiverClients +
+                         ",\n  \"storage\": \"" + storageName + "\",\n  \"seconds\": " + seconds +
+                         ",\n  \"violations\": " + violationCount + ",\n  \"commands\": [\n");
+            List<String> lines = new ArrayList<>();
+            for (Op op : Op.values()) {
+                LatencyHistogram h = latencies.get(op);
+                if (h.getCount() > 0) {
+                    lines.add(String.format(Locale.ROOT, "    {\"command\": \"%s\", \"count\": %d, \"failed\": %d, " +
+                                            "\"opsPerSecond\": %.1f, \"p50Millis\": %.3f, \"p99Millis\": %.3f, " +
+                                            "\"p999Millis\": %.3f, \"maxMillis\": %.3f}",
+                                            op.command, h.getCount(), failures.get(op).sum(),
+                                            h.getCount() / (double) seconds, millis(h, 0.50), millis(h, 0.99),
+                                            millis(h, 0.999), h.getMaxNanos() / 1_000_000.0));
+                }
+            }
+            writer.write(String.join(",\n", lines));
+            writer.write("\n  ]\n}\n");
+        }
+    }
+
+    private static double millis(LatencyHistogram h, double q) {
+        return h.getPercentileNanos(q) / 1_000_000.0;
+    }
+
+    private static Map<Op, Integer> parseMix(String mix) {
+        Map<Op, Integer> weights = new EnumMap<>(Op.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                weights.put(Op.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Empty command mix: " + mix);
+        }
+        return weights;
+    }
+
+    private String patientName(int i) {
+        return prefix + "patient" + i;
+    }
+
+    private String caregiverName(int i) {
+        return prefix + "caregiver" + i;
+    }
+
+    private static String slot(String caregiver, Date date) {
+        return caregiver.toLowerCase(Locale.ROOT) + "|" + date;
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(FIRST_DAY.plusDays(day));
+    }
+}
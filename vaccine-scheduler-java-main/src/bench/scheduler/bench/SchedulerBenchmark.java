@@ -0,0 +1,210 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.db.AssignmentContention;
+import scheduler.db.CaregiverAssignmentStrategy;
+import scheduler.db.InMemoryStorage;
+import scheduler.db.StorageManager;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks for the scheduler's hot paths, run through Scheduler.execute against an InMemoryStorage seeded
+// with realistic data sizes, so results measure the scheduling code rather than the network.
+//
+//     mvn -Pbench package exec:exec -Dbench.args="SchedulerBenchmark -t 4 -p assignment=round-robin"
+//
+// writes the results as JSON to target/jmh-result.json (see the bench profile in pom.xml).
+//
+// Each thread is a logged-in patient session whose output is captured. At the end of a trial the collisions of
+// reservers over the same caregiver are printed, so assignment strategies can be compared.
+// SqlStorageBenchmark covers the SQL paths, against an embedded database.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    private static final String PASSWORD = "password";
+    private static final String VACCINE = "benchvax";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    @Param("100000")
+    private int patients;
+
+    @Param("5000")
+    private int caregivers;
+
+    @Param("365")
+    private int days;
+
+    @Param("least-booked")
+    private String assignment;
+
+    private long claimsBefore;
+    private long conflictsBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        InMemoryStorage storage = new InMemoryStorage(CaregiverAssignmentStrategy.fromName(assignment));
+        StorageManager.setStorage(storage);
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        for (int i = 0; i < patients; i++) {
+            storage.addPatient(new Patient.PatientBuilder(patientName(i), salt, hash).build());
+        }
+        for (int i = 0; i < caregivers; i++) {
+            storage.addCaregiver(new Caregiver.CaregiverBuilder(caregiverName(i), salt, hash).build());
+        }
+        List<Availability> availabilities = new ArrayList<>(caregivers);
+        for (int day = 0; day < days; day++) {
+            availabilities.clear();
+            for (int i = 0; i < caregivers; i++) {
+                availabilities.add(new Availability.AvailabilityBuilder(date(day), caregiverName(i)).build());
+            }
+            storage.addAvailabilities(availabilities);
+        }
+        storage.addVaccine(VACCINE, Integer.MAX_VALUE / 2);
+        claimsBefore = AssignmentContention.getClaims();
+        conflictsBefore = AssignmentContention.getConflicts();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println("Assignment " + assignment + ": " +
+                           (AssignmentContention.getConflicts() - conflictsBefore) + " conflicts in " +
+                           (AssignmentContention.getClaims() - claimsBefore) + " claims, warmup included");
+    }
+
+    // Per-thread state: a logged-in patient session whose output is captured
+    @State(Scope.Thread)
+    public static class Caller {
+        // used by the subclasses below as well
+        SplittableRandom random;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final Session session = new Session(new PrintStream(buffer, false, StandardCharsets.UTF_8), false);
+        private final byte[] salt = Util.generateSalt();
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams thread) {
+            random = new SplittableRandom(thread.getThreadIndex());
+            String patient = patientName(thread.getThreadIndex());
+            Scheduler.execute(session, "login_patient " + patient + " " + PASSWORD);
+            if (!session.isLoggedIn()) {
+                throw new IllegalStateException("Unable to log in as " + patient);
+            }
+        }
+
+        void execute(String command) {
+            buffer.reset();
+            Scheduler.execute(session, command);
+        }
+
+        // appointment id printed by the last reserve, or -1
+        int lastAppointmentId() {
+            String output = buffer.toString(StandardCharsets.UTF_8);
+            int start = output.indexOf("Appointment ID: ");
+            if (start < 0) {
+                return -1;
+            }
+            start += "Appointment ID: ".length();
+            return Integer.parseInt(output.substring(start, output.indexOf(',', start)));
+        }
+    }
+
+    // A caller that gives each reserved slot back after the measured call, so the data set keeps its size
+    @State(Scope.Thread)
+    public static class Reserver extends Caller {
+        @TearDown(Level.Invocation)
+        public void cancel() {
+            int id = lastAppointmentId();
+            if (id > 0) {
+                execute("cancel " + id);
+            }
+        }
+    }
+
+    // A caller with an appointment reserved before each measured call
+    @State(Scope.Thread)
+    public static class Canceller extends Caller {
+        private int appointmentId;
+
+        @Setup(Level.Invocation)
+        public void reserve(SchedulerBenchmark benchmark) {
+            execute("reserve " + date(random.nextInt(benchmark.days)) + " " + VACCINE);
+            appointmentId = lastAppointmentId();
+        }
+    }
+
+    @Benchmark
+    public void reserve(Reserver caller) {
+        caller.execute("reserve " + date(caller.random.nextInt(days)) + " " + VACCINE);
+    }
+
+    @Benchmark
+    public void cancel(Canceller caller) {
+        caller.execute("cancel " + caller.appointmentId);
+    }
+
+    @Benchmark
+    public void searchCaregiverSchedule(Caller caller) {
+        caller.execute("search_caregiver_schedule " + date(caller.random.nextInt(days)));
+    }
+
+    // the lookup and password check behind login_patient
+    @Benchmark
+    public Patient loginPatient(Caller caller) throws SQLException {
+        return new Patient.PatientGetter(patientName(caller.random.nextInt(patients)), PASSWORD).get();
+    }
+
+    @Benchmark
+    public Caregiver loginCaregiver(Caller caller) throws SQLException {
+        return new Caregiver.CaregiverGetter(caregiverName(caller.random.nextInt(caregivers)), PASSWORD).get();
+    }
+
+    @Benchmark
+    public byte[] generateHash(Caller caller) {
+        return Util.generateHash(PASSWORD, caller.salt);
+    }
+
+    private static String patientName(int i) {
+        return "patient" + i;
+    }
+
+    private static String caregiverName(int i) {
+        return "caregiver" + i;
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(FIRST_DAY.plusDays(day));
+    }
+}
@@ -0,0 +1,232 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+import scheduler.db.AppointmentQuery;
+import scheduler.db.CaregiverAssignmentStrategy;
+import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.db.ReservationResult;
+import scheduler.db.SqlServerStorage;
+import scheduler.db.SqlStatement;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks for the SQL paths: SqlServerStorage, the per-connection StatementCache and the ConnectionPool,
+// run against an in-memory H2 database in MSSQLServer mode, where the statements H2 cannot parse are prepared
+// in their H2 form (see SqlStatement). H2 runs in process, so the results show the cost of the client side
+// and of the statements, not of the network or of SQL Server's locking.
+//
+//     mvn -Pbench package exec:exec -Dbench.args="SqlStorageBenchmark -t 4 -p caregivers=1000"
+//
+// writes the results as JSON to target/jmh-result.json (see the bench profile in pom.xml). The default data set
+// is 100,000 patients and 5,000 caregivers free on each of 365 days; seeding it takes a while.
+//
+// SchedulerBenchmark measures the same commands end to end against InMemoryStorage.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlStorageBenchmark {
+
+    private static final String URL = "jdbc:h2:mem:scheduler-bench;MODE=MSSQLServer;DATABASE_TO_UPPER=FALSE;" +
+                                      "CASE_INSENSITIVE_IDENTIFIERS=TRUE;IGNORECASE=TRUE;LOCK_TIMEOUT=10000;" +
+                                      "DB_CLOSE_DELAY=-1";
+    private static final String VACCINE = "benchvax";
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+    // patients with a history of appointments, for the show_appointments pages
+    private static final int PATIENTS_WITH_HISTORY = 64;
+    private static final int HISTORY_LENGTH = 50;
+
+    // the tables of create.sql and the migrations, in H2's dialect
+    private static final String[] SCHEMA = {
+        "CREATE TABLE Caregivers (Username varchar(255), Salt BINARY(16), Hash BINARY(16), PRIMARY KEY (Username))",
+        "CREATE TABLE Availabilities (Time date, Username varchar(255) REFERENCES Caregivers, " +
+        "PRIMARY KEY (Time, Username))",
+        "CREATE TABLE Vaccines (Name varchar(255), Doses int, PRIMARY KEY (Name))",
+        "CREATE TABLE Patients (Username varchar(255), Salt BINARY(16), Hash BINARY(16), PRIMARY KEY (Username))",
+        "CREATE TABLE Appointments (a_id int IDENTITY(1,1), date DATE, " +
+        "p_user varchar(255) REFERENCES Patients(Username), c_user varchar(255) REFERENCES Caregivers(Username), " +
+        "v_name varchar(255) REFERENCES Vaccines(Name), PRIMARY KEY (a_id))",
+        "CREATE INDEX IX_Appointments_p_user_a_id ON Appointments (p_user, a_id)",
+        "CREATE INDEX IX_Appointments_c_user_a_id ON Appointments (c_user, a_id)",
+        "CREATE TABLE Waitlist (w_id int IDENTITY(1,1), p_user varchar(255) REFERENCES Patients(Username), " +
+        "v_name varchar(255) REFERENCES Vaccines(Name), start_date DATE, end_date DATE, PRIMARY KEY (w_id), " +
+        "CONSTRAINT UQ_Waitlist_p_user_v_name UNIQUE (p_user, v_name))"
+    };
+
+    @Param("100000")
+    private int patients;
+
+    @Param("5000")
+    private int caregivers;
+
+    @Param("365")
+    private int days;
+
+    @Param("10")
+    private int poolSize;
+
+    @Param("least-booked")
+    private String assignment;
+
+    private SqlServerStorage storage;
+    // holds the in-memory database open between leases
+    private Connection keepAlive;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        keepAlive = DriverManager.getConnection(URL, "sa", "");
+        try (Statement statement = keepAlive.createStatement()) {
+            for (String table : SCHEMA) {
+                statement.execute(table);
+            }
+        }
+        ConnectionManager.usePool(new ConnectionPool(URL, "sa", "", 1, poolSize, 300_000, 5000, 32));
+        storage = new SqlServerStorage(CaregiverAssignmentStrategy.fromName(assignment));
+
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash("password", salt);
+        for (int i = 0; i < patients; i++) {
+            storage.addPatient(new Patient.PatientBuilder(patientName(i), salt, hash).build());
+        }
+        for (int i = 0; i < caregivers; i++) {
+            storage.addCaregiver(new Caregiver.CaregiverBuilder(caregiverName(i), salt, hash).build());
+        }
+        List<Availability> availabilities = new ArrayList<>(caregivers);
+        for (int day = 0; day < days; day++) {
+            availabilities.clear();
+            for (int i = 0; i < caregivers; i++) {
+                availabilities.add(new Availability.AvailabilityBuilder(date(day), caregiverName(i)).build());
+            }
+            storage.addAvailabilities(availabilities);
+        }
+        storage.addVaccine(VACCINE, Integer.MAX_VALUE / 2);
+        for (int p = 0; p < Math.min(PATIENTS_WITH_HISTORY, patients); p++) {
+            for (int i = 0; i < HISTORY_LENGTH; i++) {
+                storage.addAppointment(date(i % days), patientName(p), caregiverName(i % caregivers), VACCINE);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        ConnectionManager.shutdown();
+        keepAlive.close();
+    }
+
+    // Per-thread state: the patient the thread books for and its random days
+    @State(Scope.Thread)
+    public static class Caller {
+        private SplittableRandom random;
+        private String patient;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams thread) {
+            random = new SplittableRandom(thread.getThreadIndex());
+            patient = patientName(thread.getThreadIndex() % PATIENTS_WITH_HISTORY);
+        }
+    }
+
+    // reserve, then cancel so the data set keeps its size: two transactions
+    @Benchmark
+    public Appointment reserveAndCancel(Caller caller) throws SQLException {
+        ReservationResult result = storage.reserve(date(caller.random.nextInt(days)), caller.patient, VACCINE);
+        Appointment appointment = result.getAppointment();
+        if (appointment == null) {
+            throw new IllegalStateException("Reservation failed: " + result.getStatus());
+        }
+        return storage.cancelAppointment(appointment.getAppointmentId(), caller.patient, false);
+    }
+
+    // search_caregiver_schedule for one day
+    @Benchmark
+    public void searchCaregiverSchedule(Caller caller, Blackhole blackhole) throws SQLException {
+        Date date = date(caller.random.nextInt(days));
+        blackhole.consume(storage.getAvailableCaregivers(date));
+        blackhole.consume(storage.getVaccines());
+    }
+
+    // search_caregiver_schedule over a week
+    @Benchmark
+    public Object searchCaregiverScheduleRange(Caller caller) throws SQLException {
+        int first = caller.random.nextInt(Math.max(1, days - 6));
+        return storage.getScheduleSummary(date(first), date(first + 6));
+    }
+
+    // the lookup behind login_patient, without the password hash
+    @Benchmark
+    public Patient getPatient(Caller caller) throws SQLException {
+        return storage.getPatient(patientName(caller.random.nextInt(patients)));
+    }
+
+    // one page of show_appointments
+    @Benchmark
+    public void showAppointments(Caller caller, Blackhole blackhole) throws SQLException {
+        storage.forEachAppointment(new AppointmentQuery.AppointmentQueryBuilder(caller.patient, false)
+                                           .limit(20).build(), blackhole::consume);
+    }
+
+    // leasing a pooled connection and handing it back
+    @Benchmark
+    public Connection leaseConnection() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        cm.closeConnection();
+        return con;
+    }
+
+    // a lease plus a statement the connection's cache already holds
+    @Benchmark
+    public PreparedStatement leaseCachedStatement() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createConnection();
+        try {
+            return cm.prepare(SqlStatement.GET_VACCINE);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static String patientName(int i) {
+        return "patient" + i;
+    }
+
+    private static String caregiverName(int i) {
+        return "caregiver" + i;
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(FIRST_DAY.plusDays(day));
+    }
+}
@@ -0,0 +1,46 @@
+-- The tables of create.sql, for databases that do not have them yet
+
+IF OBJECT_ID('Caregivers', 'U') IS NULL
+CREATE TABLE Caregivers (
+    Username varchar(255),
+    Salt BINARY(16),
+    Hash BINARY(16),
+    PRIMARY KEY (Username)
+);
+GO
+
+IF OBJECT_ID('Availabilities', 'U') IS NULL
+CREATE TABLE Availabilities (
+    Time date,
+    Username varchar(255) REFERENCES Caregivers,
+    PRIMARY KEY (Time, Username)
+);
+GO
+
+IF OBJECT_ID('Vaccines', 'U') IS NULL
+CREATE TABLE Vaccines (
+    Name varchar(255),
+    Doses int,
+    PRIMARY KEY (Name)
+);
+GO
+
+IF OBJECT_ID('Patients', 'U') IS NULL
+CREATE TABLE Patients (
+    Username varchar(255),
+    Salt BINARY(16),
+    Hash BINARY(16),
+    PRIMARY KEY (Username)
+);
+GO
+
+IF OBJECT_ID('Appointments', 'U') IS NULL
+CREATE TABLE Appointments (
+    a_id int IDENTITY(1,1),
+    date DATE,
+    p_user varchar(255) REFERENCES Patients(Username),
+    c_user varchar(255) REFERENCES Caregivers(Username),
+    v_name varchar(255) REFERENCES Vaccines(Name)
+    PRIMARY KEY (a_id)
+);
+GO
@@ -0,0 +1,13 @@
+-- show_appointments pages through one user's appointments by a_id (SqlStatement.PATIENT_APPOINTMENTS and
+-- CAREGIVER_APPOINTMENTS). Keying on (user, a_id) turns each page into a range seek, and the included
+-- columns answer the date filter and the select list without going back to the clustered index.
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_p_user_a_id'
+               AND object_id = OBJECT_ID('Appointments'))
+CREATE INDEX IX_Appointments_p_user_a_id ON Appointments (p_user, a_id) INCLUDE (date, c_user, v_name);
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_Appointments_c_user_a_id'
+               AND object_id = OBJECT_ID('Appointments'))
+CREATE INDEX IX_Appointments_c_user_a_id ON Appointments (c_user, a_id) INCLUDE (date, p_user, v_name);
+GO
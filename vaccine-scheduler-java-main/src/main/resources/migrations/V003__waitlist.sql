@@ -0,0 +1,15 @@
+-- Patients waiting for a vaccine on any day of a range (SqlStatement.ADD_WAITLIST_ENTRY). The matcher takes
+-- entries oldest first, so clustering on the identity w_id makes each page of the queue a range scan, and the
+-- unique (p_user, v_name) key keeps a patient from queueing twice for the same vaccine.
+
+IF OBJECT_ID('Waitlist', 'U') IS NULL
+CREATE TABLE Waitlist (
+    w_id int IDENTITY(1,1),
+    p_user varchar(255) REFERENCES Patients(Username),
+    v_name varchar(255) REFERENCES Vaccines(Name),
+    start_date DATE,
+    end_date DATE,
+    PRIMARY KEY (w_id),
+    CONSTRAINT UQ_Waitlist_p_user_v_name UNIQUE (p_user, v_name)
+);
+GO
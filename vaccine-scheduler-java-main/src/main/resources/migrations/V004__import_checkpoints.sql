@@ -0,0 +1,11 @@
+-- How far each bulk import has got (SqlStatement.SET_IMPORT_CHECKPOINT). A batch and its checkpoint commit in one
+-- transaction, so re-running an import after a failure never applies a batch twice. Name is the imported file's
+-- absolute path; 900 bytes is the most SQL Server allows in an index key.
+
+IF OBJECT_ID('ImportCheckpoints', 'U') IS NULL
+CREATE TABLE ImportCheckpoints (
+    Name varchar(900),
+    Line bigint,
+    PRIMARY KEY (Name)
+);
+GO
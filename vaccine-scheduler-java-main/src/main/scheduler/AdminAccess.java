@@ -0,0 +1,70 @@
+package scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+// Who may run the admin commands (import, allocate) and which files they may read.
+// Admins lists the caregivers allowed to, comma-separated; with none listed no one is.
+// Sessions served over the network read files only from inside ImportDir, and cannot run the admin commands
+// at all unless it is set, so a client cannot make the server read arbitrary files.
+public class AdminAccess {
+
+    private static final Set<String> admins = namesFromEnv("Admins");
+    private static final String importDirectory = System.getenv("ImportDir");
+
+    private AdminAccess() {
+    }
+
+    // Whether the session is logged in as a caregiver listed in Admins
+    public static boolean isAdmin(Session session) {
+        String username = session.getCaregiver() == null ? null : session.getCaregiver().getUsername();
+        return username != null && admins.contains(username.toLowerCase(Locale.ROOT));
+    }
+
+    // The readable file the session named, resolved inside ImportDir for remote sessions.
+    // Throws IllegalArgumentException, with a message for the client, if the session may not read it.
+    public static Path importFile(Session session, String name) {
+        Path file;
+        if (session.isRemote()) {
+            if (importDirectory == null || importDirectory.trim().isEmpty()) {
+                throw new IllegalArgumentException("Importing files is not enabled on this server");
+            }
+            try {
+                Path directory = Paths.get(importDirectory.trim()).toRealPath();
+                // real paths, so neither .. nor a symbolic link leads out of the directory
+                file = directory.resolve(name).toRealPath();
+                if (!file.startsWith(directory)) {
+                    throw new IllegalArgumentException("Files can only be imported from the server's import " +
+                                                       "directory");
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to read " + name);
+            }
+        } else {
+            file = Paths.get(name);
+        }
+        if (!Files.isRegularFile(file) || !Files.isReadable(file)) {
+            throw new IllegalArgumentException("Unable to read " + name);
+        }
+        return file;
+    }
+
+    private static Set<String> namesFromEnv(String name) {
+        Set<String> names = new HashSet<>();
+        String value = System.getenv(name);
+        if (value != null) {
+            for (String username : value.split(",")) {
+                username = username.trim();
+                if (!username.isEmpty()) {
+                    names.add(username.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return names;
+    }
+}
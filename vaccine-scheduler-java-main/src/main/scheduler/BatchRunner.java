@@ -0,0 +1,208 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+// Runs a script of commands with no menu or prompts, printing one tab-separated line per command:
+//     <line number>  ok|failed  <milliseconds>  <command>  <output>
+// where tabs, newlines and backslashes in the output are escaped as \t, \n and \\, and a final
+//     # commands=<n> failed=<n> seconds=<s>
+//
+// Blank lines split the script into blocks and every block runs in its own Session, so each starts
+// logged out. Lines starting with # are comments. With a pipeline depth above one, up to that many blocks
+// run at once; a line holding only "sync" waits for every block before it to finish, so what follows can
+// rely on what came before (e.g. logging in as caregivers created further up), reading from the primary
+// while replicas may not have the earlier blocks' writes yet. Results are printed in
+// script order whichever block finishes first. quit ends the script where it stands: the blocks before it
+// still finish, nothing after it is started.
+public class BatchRunner {
+
+    private static final String SYNC = "sync";
+    private static final String QUIT = "quit";
+
+    private final PrintStream out;
+    private final int pipelineDepth;
+    // the last commit of every block finished so far, which blocks started after a sync start from
+    private final ConnectionManager.WriteClock finishedWrites = new ConnectionManager.WriteClock();
+
+    private int commandCount = 0;
+    private int failedCount = 0;
+
+    public BatchRunner(PrintStream out, int pipelineDepth) {
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be positive: " + pipelineDepth);
+        }
+        this.out = out;
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    // Run the script; returns the number of commands that failed
+    public int run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService executor = pipelineDepth > 1 ? Util.newVirtualThreadExecutor() : null;
+        // blocks started but not printed yet, oldest first
+        Deque<CompletableFuture<List<Result>>> running = new ArrayDeque<>();
+        try {
+            List<Line> block = new ArrayList<>();
+            int number = 0;
+            String text;
+            boolean quit = false;
+            while (!quit && (text = in.readLine()) != null) {
+                number++;
+                String trimmed = text.trim();
+                if (trimmed.startsWith("#")) {
+                    continue;
+                }
+                if (trimmed.isEmpty() || trimmed.equals(SYNC)) {
+                    start(block, executor, running);
+                    block = new ArrayList<>();
+                    if (trimmed.equals(SYNC)) {
+                        printUntil(running, 0);
+                    }
+                    continue;
+                }
+                block.add(new Line(number, trimmed));
+                // decided as the line is read, so no later block is started while this one runs
+                quit = isQuit(trimmed);
+            }
+            start(block, executor, running);
+            printUntil(running, 0);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        out.println(String.format("# commands=%d failed=%d seconds=%.3f", commandCount, failedCount,
+                                  (System.nanoTime() - start) / 1_000_000_000.0));
+        out.flush();
+        return failedCount;
+    }
+
+    private void start(List<Line> block, ExecutorService executor,
+                       Deque<CompletableFuture<List<Result>>> running) {
+        if (block.isEmpty()) {
+            return;
+        }
+        if (executor == null) {
+            running.add(CompletableFuture.completedFuture(runBlock(block, finishedWrites)));
+        } else {
+            running.add(CompletableFuture.supplyAsync(() -> runBlock(block, finishedWrites), executor));
+        }
+        // keep at most pipelineDepth blocks in flight
+        printUntil(running, pipelineDepth - 1);
+    }
+
+    // Print finished blocks in order until at most remaining are still outstanding
+    private void printUntil(Deque<CompletableFuture<List<Result>>> running, int remaining) {
+        while (running.size() > remaining) {
+            for (Result result : running.poll().join()) {
+                print(result);
+            }
+        }
+    }
+
+    private void print(Result result) {
+        commandCount++;
+        if (!result.ok) {
+            failedCount++;
+        }
+        out.println(result.line + "\t" + (result.ok ? "ok" : "failed") + "\t" +
+                    String.format("%.3f", result.nanos / 1_000_000.0) + "\t" + escape(result.command) + "\t" +
+                    escape(result.output));
+    }
+
+    private static List<Result> runBlock(List<Line> block, ConnectionManager.WriteClock finishedWrites) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream blockOut = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        Session session = new Session(blockOut, false);
+        session.getWrites().advanceTo(finishedWrites);
+        List<Result> results = new ArrayList<>(block.size());
+        for (Line line : block) {
+            long start = System.nanoTime();
+            boolean keepGoing;
+            try {
+                keepGoing = Scheduler.execute(session, line.text);
+            } catch (RuntimeException e) {
+                // report it against the command and go on with the rest of the script
+                session.fail("Unexpected error: " + e);
+                e.printStackTrace();
+                keepGoing = true;
+            }
+            String output = buffer.toString(StandardCharsets.UTF_8).strip();
+            buffer.reset();
+            results.add(new Result(line.number, line.text, !session.hasFailed(), System.nanoTime() - start,
+                                   output));
+            if (!keepGoing) {
+                break;
+            }
+        }
+        finishedWrites.advanceTo(session.getWrites());
+        return results;
+    }
+
+    private static boolean isQuit(String line) {
+        String[] tokens = CommandRegistry.tokenize(line);
+        return tokens.length > 0 && tokens[0].equals(QUIT);
+    }
+
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static class Line {
+        private final int number;
+        private final String text;
+
+        private Line(int number, String text) {
+            this.number = number;
+            this.text = text;
+        }
+    }
+
+    private static class Result {
+        private final int line;
+        private final String command;
+        private final boolean ok;
+        private final long nanos;
+        private final String output;
+
+        private Result(int line, String command, boolean ok, long nanos, String output) {
+            this.line = line;
+            this.command = command;
+            this.ok = ok;
+            this.nanos = nanos;
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,826 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ScheduleSummary;
+import scheduler.db.Storage;
+import scheduler.model.Appointment;
+import scheduler.model.Vaccine;
+import scheduler.util.FlowNetwork;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Books a mass-vaccination drive in one run: every patient in a demand file is matched against the free caregiver
+// slots and vaccine doses in storage so that as many of them as possible get an appointment, where booking them
+// one by one in file order would let early patients take the slots and doses later ones could only have used.
+//
+// CSV rows, vaccines in order of preference:
+//     <patient>,<YYYY-MM-DD first day>,<YYYY-MM-DD last day>,<vaccine>[,<vaccine>...]
+// Blank lines, lines starting with # and a header row starting with "patient" are ignored; a patient listed
+// twice keeps the first row, and rows whose first day has passed are rejected.
+//
+// The assignment is a maximum flow: source -> vaccine (its doses) -> patient (one) -> day (every day of the
+// patient's window) -> sink (the caregivers free that day). Patients that share neither a vaccine nor a day do not
+// compete, so the graph is cut into such independent parts and each part is solved on its own thread. A vaccine
+// most patients list joins nearly everyone into one part, so a part is first cut into blocks of consecutive days,
+// each solved on its own thread with a share of every vaccine's doses in proportion to the block's patients that
+// list it. Those flows together are a flow of the whole part, which one more max-flow over the part, with every
+// window and all the doses, starts from; that only has to find what moving doses and patients between blocks adds,
+// and the result is still the maximum. Matched patients are then moved to the most preferred vaccine and the
+// earliest day that still has room, which keeps the number matched. Each day's matches get that day's caregivers,
+// and the appointments are booked batchSize per transaction by Storage.bookAppointments; slots or doses taken by
+// someone else meanwhile are reported as lost.
+public class BulkAllocator {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    // how many invalid rows are listed in the summary
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final int SOURCE = 0;
+    private static final int SINK = 1;
+    // patients per day block once windows chain on, see dayBlocks
+    private static final int BLOCK_PATIENTS = 20_000;
+
+    private final Storage storage;
+    private final int batchSize;
+
+    public BulkAllocator(Storage storage, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.storage = storage;
+        this.batchSize = batchSize;
+    }
+
+    public Summary run(Path file) throws IOException, SQLException {
+        Summary summary = new Summary();
+        List<Demand> demand = readDemand(file, summary);
+        if (demand.isEmpty()) {
+            return summary;
+        }
+        long start = System.nanoTime();
+        demand = knownPatients(demand, summary);
+        Supply supply = loadSupply(demand, summary);
+        summary.loadMillis = millisSince(start);
+
+        start = System.nanoTime();
+        List<Match> matches = solve(demand, supply, summary);
+        summary.solveMillis = millisSince(start);
+
+        start = System.nanoTime();
+        book(assignCaregivers(matches, summary), summary);
+        summary.bookMillis = millisSince(start);
+        return summary;
+    }
+
+    private List<Demand> readDemand(Path file, Summary summary) throws IOException {
+        Map<String, Demand> byPatient = new LinkedHashMap<>();
+        long today = LocalDate.now().toEpochDay();
+        long lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = trimmed.split(",", -1);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+                if (fields[0].equals("patient")) {
+                    continue;
+                }
+                try {
+                    Demand row = parseRow(fields, today);
+                    summary.rows++;
+                    if (byPatient.putIfAbsent(row.patient.toLowerCase(Locale.ROOT), row) != null) {
+                        summary.duplicatePatients++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    summary.rejected(lineNumber, e.getMessage());
+                }
+            }
+        }
+        return new ArrayList<>(byPatient.values());
+    }
+
+    private static Demand parseRow(String[] fields, long today) {
+        if (fields.length < 4) {
+            throw new IllegalArgumentException("expected at least 4 fields but found " + fields.length);
+        }
+        if (fields[0].isEmpty()) {
+            throw new IllegalArgumentException("missing patient");
+        }
+        long first = parseDate(fields[1]).toLocalDate().toEpochDay();
+        long last = parseDate(fields[2]).toLocalDate().toEpochDay();
+        if (first > last) {
+            throw new IllegalArgumentException("first day " + fields[1] + " is after last day " + fields[2]);
+        }
+        if (first < today) {
+            throw new IllegalArgumentException("first day " + fields[1] + " has already passed");
+        }
+        List<String> vaccines = new ArrayList<>();
+        for (int i = 3; i < fields.length; i++) {
+            if (fields[i].isEmpty()) {
+                throw new IllegalArgumentException("missing vaccine");
+            }
+            vaccines.add(fields[i]);
+        }
+        return new Demand(fields[0], first, last, vaccines);
+    }
+
+    private static Date parseDate(String value) {
+        try {
+            return Date.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid date " + value);
+        }
+    }
+
+    // Booking an unknown patient would fail its whole batch, so they are checked up front, a batch of names per
+    // round trip, on the primary so that patients created moments ago count
+    private List<Demand> knownPatients(List<Demand> demand, Summary summary) throws SQLException {
+        List<String> usernames = new ArrayList<>(demand.size());
+        for (Demand row : demand) {
+            usernames.add(row.patient);
+        }
+        Set<String> exists;
+        ConnectionManager.PrimaryScope primary = ConnectionManager.readFromPrimary();
+        try {
+            exists = storage.findPatients(usernames);
+        } finally {
+            primary.close();
+        }
+        List<Demand> known = new ArrayList<>();
+        for (Demand row : demand) {
+            if (exists.contains(row.patient)) {
+                known.add(row);
+            } else {
+                summary.unknownPatients++;
+            }
+        }
+        return known;
+    }
+
+    // Caregivers free per day and doses per vaccine over every window, in one call
+    private Supply loadSupply(List<Demand> demand, Summary summary) throws SQLException {
+        Supply supply = new Supply();
+        if (demand.isEmpty()) {
+            return supply;
+        }
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Demand row : demand) {
+            first = Math.min(first, row.first);
+            last = Math.max(last, row.last);
+        }
+        ScheduleSummary schedule = storage.getScheduleSummary(Date.valueOf(LocalDate.ofEpochDay(first)),
+                                                              Date.valueOf(LocalDate.ofEpochDay(last)));
+        for (Map.Entry<Date, Integer> day : schedule.getCaregiverCounts().entrySet()) {
+            supply.days.put(day.getKey().toLocalDate().toEpochDay(), supply.slots.size());
+            supply.epochDays.add(day.getKey().toLocalDate().toEpochDay());
+            supply.slots.add(day.getValue());
+            summary.slots += day.getValue();
+        }
+        for (Vaccine vaccine : schedule.getVaccines()) {
+            if (vaccine.getAvailableDoses() > 0) {
+                supply.vaccines.put(vaccine.getVaccineName(), supply.vaccineNames.size());
+                supply.vaccineNames.add(vaccine.getVaccineName());
+                supply.doses.add(vaccine.getAvailableDoses());
+                summary.dosesOffered.put(vaccine.getVaccineName(), vaccine.getAvailableDoses());
+            }
+        }
+        return supply;
+    }
+
+    private List<Match> solve(List<Demand> demand, Supply supply, Summary summary) throws SQLException {
+        // days are nodes 0..D-1 and vaccines D..D+V-1 of a union-find; each patient joins its days and vaccines
+        int dayCount = supply.slots.size();
+        int[] parent = new int[dayCount + supply.doses.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        List<Eligible> eligible = new ArrayList<>();
+        for (Demand row : demand) {
+            List<Integer> vaccines = new ArrayList<>();
+            for (String name : row.vaccines) {
+                Integer vaccine = supply.vaccines.get(name);
+                if (vaccine != null && !vaccines.contains(vaccine)) {
+                    vaccines.add(vaccine);
+                }
+            }
+            NavigableMap<Long, Integer> window = supply.days.subMap(row.first, true, row.last, true);
+            if (vaccines.isEmpty() || window.isEmpty()) {
+                summary.withoutSupply++;
+                continue;
+            }
+            int[] days = new int[window.size()];
+            int i = 0;
+            for (int day : window.values()) {
+                days[i++] = day;
+            }
+            int root = find(parent, days[0]);
+            for (int day : days) {
+                root = union(parent, root, day);
+            }
+            for (int vaccine : vaccines) {
+                root = union(parent, root, dayCount + vaccine);
+            }
+            eligible.add(new Eligible(row, vaccines, days));
+        }
+        summary.eligible = eligible.size();
+
+        Map<Integer, List<Eligible>> parts = new HashMap<>();
+        for (Eligible patient : eligible) {
+            parts.computeIfAbsent(find(parent, patient.days[0]), k -> new ArrayList<>()).add(patient);
+        }
+        summary.parts = parts.size();
+        List<Callable<List<Match>>> tasks = new ArrayList<>();
+        // largest first, so the longest solve starts right away
+        List<List<Eligible>> ordered = new ArrayList<>(parts.values());
+        ordered.sort(Comparator.comparingInt(part -> -part.size()));
+        for (List<Eligible> part : ordered) {
+            tasks.add(() -> solvePart(part, supply, summary));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors())));
+        List<Match> matches = new ArrayList<>();
+        try {
+            for (List<Match> part : invokeAll(executor, tasks)) {
+                matches.addAll(part);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return matches;
+    }
+
+    private static List<Match> solvePart(List<Eligible> patients, Supply supply, Summary summary)
+            throws SQLException {
+        int[] doses = new int[supply.doses.size()];
+        for (int v = 0; v < doses.length; v++) {
+            doses[v] = supply.doses.get(v);
+        }
+        PartNetwork part = new PartNetwork(patients, null, doses, supply);
+        long flow = 0;
+        List<Block> blocks = dayBlocks(patients);
+        if (blocks.size() > 1) {
+            // start the part's network from the blocks' flows, so the one solve over all of it only has to find
+            // what moving doses and patients between blocks adds
+            for (int[] assignment : solveBlocks(patients, blocks, doses, supply)) {
+                part.push(assignment[0], assignment[1], assignment[2]);
+                flow++;
+            }
+        }
+        flow += part.network.maxFlow(SOURCE, SINK);
+
+        List<Match> matches = new ArrayList<>();
+        FlowNetwork network = part.network;
+        for (int p = 0; p < patients.size(); p++) {
+            Eligible patient = patients.get(p);
+            int vaccine = withFlow(network, part.vaccineEdges[p]);
+            int day = withFlow(network, part.dayEdges[p]);
+            if (vaccine < 0 || day < 0) {
+                continue;
+            }
+            // a more preferred vaccine with doses to spare, or an earlier day with a caregiver to spare
+            for (int i = 0; i < vaccine; i++) {
+                int to = part.doseEdges.get(patient.vaccines.get(i));
+                if (network.getResidual(to) > 0) {
+                    network.shift(part.doseEdges.get(patient.vaccines.get(vaccine)), to);
+                    network.shift(part.vaccineEdges[p][vaccine], part.vaccineEdges[p][i]);
+                    vaccine = i;
+                    break;
+                }
+            }
+            for (int i = 0; i < day; i++) {
+                int to = part.slotEdges.get(patient.days[i]);
+                if (network.getResidual(to) > 0) {
+                    network.shift(part.slotEdges.get(patient.days[day]), to);
+                    network.shift(part.dayEdges[p][day], part.dayEdges[p][i]);
+                    day = i;
+                    break;
+                }
+            }
+            matches.add(new Match(patient.demand, supply.vaccineNames.get(patient.vaccines.get(vaccine)),
+                                  supply.epochDays.get(patient.days[day]), vaccine == 0));
+        }
+        summary.addSolved(flow, network.getEdgeCount(), blocks.size());
+        return matches;
+    }
+
+    // Cut a part into runs of consecutive days, at the gaps between windows and, where windows chain on, every
+    // BLOCK_PATIENTS patients by first day. Patients belong to the block of their first day.
+    private static List<Block> dayBlocks(List<Eligible> patients) {
+        List<Integer> order = new ArrayList<>(patients.size());
+        for (int p = 0; p < patients.size(); p++) {
+            order.add(p);
+        }
+        order.sort(Comparator.comparingInt(p -> patients.get(p).days[0]));
+        List<Block> blocks = new ArrayList<>();
+        Block block = null;
+        for (int p : order) {
+            Eligible patient = patients.get(p);
+            int first = patient.days[0];
+            if (block == null || first > block.last
+                    || (block.patients.size() >= BLOCK_PATIENTS && first > patients.get(block.lastAdded()).days[0])) {
+                if (block != null) {
+                    // a patient whose window runs on into the new block only gets its days up to there
+                    block.last = Math.min(block.last, first - 1);
+                }
+                block = new Block(first);
+                blocks.add(block);
+            }
+            block.patients.add(p);
+            block.last = Math.max(block.last, patient.days[patient.days.length - 1]);
+        }
+        return blocks;
+    }
+
+    // Solve each block on its own thread with a share of every vaccine's doses, in proportion to how many of the
+    // block's patients list it. Returns {patient, vaccine, day} for each patient matched, as positions in the
+    // part's patients and in that patient's vaccines and days.
+    private static List<int[]> solveBlocks(List<Eligible> patients, List<Block> blocks, int[] doses, Supply supply)
+            throws SQLException {
+        long[][] wanted = new long[blocks.size()][doses.length];
+        long[] totals = new long[doses.length];
+        for (int b = 0; b < blocks.size(); b++) {
+            for (int p : blocks.get(b).patients) {
+                for (int vaccine : patients.get(p).vaccines) {
+                    wanted[b][vaccine]++;
+                    totals[vaccine]++;
+                }
+            }
+        }
+        int[][] shares = new int[blocks.size()][doses.length];
+        for (int v = 0; v < doses.length; v++) {
+            if (totals[v] == 0) {
+                continue;
+            }
+            long given = 0;
+            for (int b = 0; b < blocks.size(); b++) {
+                shares[b][v] = (int) (doses[v] * wanted[b][v] / totals[v]);
+                given += shares[b][v];
+            }
+            // what rounding down left over goes to the blocks that want the vaccine, one dose each in turn
+            for (int b = 0; given < doses[v]; b = (b + 1) % blocks.size()) {
+                if (wanted[b][v] > 0) {
+                    shares[b][v]++;
+                    given++;
+                }
+            }
+        }
+        List<Callable<List<int[]>>> tasks = new ArrayList<>();
+        for (int b = 0; b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            int[] share = shares[b];
+            tasks.add(() -> solveBlock(patients, block, share, supply));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors())));
+        List<int[]> assignments = new ArrayList<>();
+        try {
+            for (List<int[]> block : invokeAll(executor, tasks)) {
+                assignments.addAll(block);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return assignments;
+    }
+
+    private static List<int[]> solveBlock(List<Eligible> patients, Block block, int[] doses, Supply supply) {
+        List<Eligible> members = new ArrayList<>(block.patients.size());
+        List<int[]> days = new ArrayList<>(block.patients.size());
+        for (int p : block.patients) {
+            Eligible patient = patients.get(p);
+            members.add(patient);
+            int to = 0;
+            while (to < patient.days.length && patient.days[to] <= block.last) {
+                to++;
+            }
+            days.add(Arrays.copyOf(patient.days, to));
+        }
+        PartNetwork network = new PartNetwork(members, days, doses, supply);
+        network.network.maxFlow(SOURCE, SINK);
+        List<int[]> assignments = new ArrayList<>();
+        for (int i = 0; i < members.size(); i++) {
+            int vaccine = withFlow(network.network, network.vaccineEdges[i]);
+            int day = withFlow(network.network, network.dayEdges[i]);
+            if (vaccine >= 0 && day >= 0) {
+                // each patient keeps the start of its days, so positions carry over to the part
+                assignments.add(new int[] {block.patients.get(i), vaccine, day});
+            }
+        }
+        return assignments;
+    }
+
+    // index of the edge carrying flow, -1 if none does
+    private static int withFlow(FlowNetwork network, int[] edges) {
+        for (int i = 0; i < edges.length; i++) {
+            if (network.getFlow(edges[i]) > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Give each day's matches that day's caregivers, read concurrently for every day with a match
+    private List<Appointment> assignCaregivers(List<Match> matches, Summary summary) throws SQLException {
+        Map<Long, List<Match>> byDay = new TreeMap<>();
+        for (Match match : matches) {
+            byDay.computeIfAbsent(match.day, k -> new ArrayList<>()).add(match);
+            if (match.firstChoice) {
+                summary.firstChoice++;
+            }
+        }
+        List<Long> days = new ArrayList<>(byDay.keySet());
+        List<Callable<List<String>>> reads = new ArrayList<>();
+        for (long day : days) {
+            reads.add(() -> storage.getAvailableCaregivers(Date.valueOf(LocalDate.ofEpochDay(day))));
+        }
+        List<List<String>> caregivers;
+        // as many reads at once as the pool has connections, however many days there are
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(reads.size(), ConnectionManager.getMaxPoolSize())));
+        try {
+            caregivers = invokeAll(executor, reads);
+        } finally {
+            executor.shutdown();
+        }
+        List<Appointment> plans = new ArrayList<>();
+        for (int d = 0; d < days.size(); d++) {
+            Date date = Date.valueOf(LocalDate.ofEpochDay(days.get(d)));
+            List<Match> dayMatches = byDay.get(days.get(d));
+            List<String> free = caregivers.get(d);
+            for (int i = 0; i < dayMatches.size(); i++) {
+                if (i >= free.size()) {
+                    // caregivers withdrew since the counts were read
+                    summary.lost += dayMatches.size() - i;
+                    break;
+                }
+                Match match = dayMatches.get(i);
+                plans.add(new Appointment.AppointmentBuilder(0, date, match.demand.patient, free.get(i),
+                                                             match.vaccine).build());
+            }
+        }
+        return plans;
+    }
+
+    private void book(List<Appointment> plans, Summary summary) throws SQLException {
+        for (int from = 0; from < plans.size(); from += batchSize) {
+            List<Appointment> batch = plans.subList(from, Math.min(plans.size(), from + batchSize));
+            List<Appointment> booked = storage.bookAppointments(batch);
+            summary.batches++;
+            summary.booked += booked.size();
+            summary.lost += batch.size() - booked.size();
+            for (Appointment appointment : booked) {
+                summary.dosesBooked.merge(appointment.getVaccineName(), 1, Integer::sum);
+            }
+        }
+    }
+
+    // Run the tasks and return their results in order, rethrowing the first SQLException
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) throws SQLException {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while allocating", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+        return results;
+    }
+
+    private static int find(int[] parent, int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+        return node;
+    }
+
+    private static int union(int[] parent, int root, int node) {
+        int other = find(parent, node);
+        if (other != root) {
+            parent[other] = root;
+        }
+        return root;
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static class Demand {
+        private final String patient;
+        // epoch days, both included
+        private final long first;
+        private final long last;
+        // in order of preference
+        private final List<String> vaccines;
+
+        private Demand(String patient, long first, long last, List<String> vaccines) {
+            this.patient = patient;
+            this.first = first;
+            this.last = last;
+            this.vaccines = vaccines;
+        }
+    }
+
+    // What storage has to give over the demand's date range
+    private static class Supply {
+        // epoch day -> index into epochDays and slots, for days with a caregiver free
+        private final NavigableMap<Long, Integer> days = new TreeMap<>();
+        private final List<Long> epochDays = new ArrayList<>();
+        private final List<Integer> slots = new ArrayList<>();
+        // vaccine name -> index into doses, for vaccines with doses left
+        private final Map<String, Integer> vaccines = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final List<String> vaccineNames = new ArrayList<>();
+        private final List<Integer> doses = new ArrayList<>();
+    }
+
+    // The flow network of a part, or a block of it: source -> vaccine (its doses) -> patient in -> patient out ->
+    // day (its caregivers) -> sink, with each patient's edges kept in order of preference
+    private static class PartNetwork {
+        private final List<Eligible> patients;
+        private final FlowNetwork network;
+        // vaccine or day index into Supply -> its edge from the source or to the sink
+        private final Map<Integer, Integer> doseEdges = new HashMap<>();
+        private final Map<Integer, Integer> slotEdges = new HashMap<>();
+        private final int[][] vaccineEdges;
+        private final int[] patientEdges;
+        private final int[][] dayEdges;
+
+        // days is each patient's days, or null for all of them
+        private PartNetwork(List<Eligible> patients, List<int[]> days, int[] doses, Supply supply) {
+            this.patients = patients;
+            // local node numbers: source, sink, then vaccines and days as first seen, then each patient's in and out
+            Map<Integer, Integer> vaccineNodes = new HashMap<>();
+            Map<Integer, Integer> dayNodes = new HashMap<>();
+            int edges = 0;
+            for (int p = 0; p < patients.size(); p++) {
+                for (int vaccine : patients.get(p).vaccines) {
+                    vaccineNodes.putIfAbsent(vaccine, 2 + vaccineNodes.size());
+                }
+                edges += patients.get(p).vaccines.size() + daysOf(patients, days, p).length + 1;
+            }
+            int nextNode = 2 + vaccineNodes.size();
+            for (int p = 0; p < patients.size(); p++) {
+                for (int day : daysOf(patients, days, p)) {
+                    if (!dayNodes.containsKey(day)) {
+                        dayNodes.put(day, nextNode++);
+                    }
+                }
+            }
+            int firstPatientNode = nextNode;
+            network = new FlowNetwork(firstPatientNode + 2 * patients.size(),
+                                      edges + vaccineNodes.size() + dayNodes.size());
+            for (Map.Entry<Integer, Integer> vaccine : vaccineNodes.entrySet()) {
+                doseEdges.put(vaccine.getKey(), network.addEdge(SOURCE, vaccine.getValue(), doses[vaccine.getKey()]));
+            }
+            for (Map.Entry<Integer, Integer> day : dayNodes.entrySet()) {
+                slotEdges.put(day.getKey(), network.addEdge(day.getValue(), SINK, supply.slots.get(day.getKey())));
+            }
+            vaccineEdges = new int[patients.size()][];
+            patientEdges = new int[patients.size()];
+            dayEdges = new int[patients.size()][];
+            for (int p = 0; p < patients.size(); p++) {
+                Eligible patient = patients.get(p);
+                int[] patientDays = daysOf(patients, days, p);
+                int in = firstPatientNode + 2 * p;
+                int out = in + 1;
+                vaccineEdges[p] = new int[patient.vaccines.size()];
+                for (int i = 0; i < patient.vaccines.size(); i++) {
+                    vaccineEdges[p][i] = network.addEdge(vaccineNodes.get(patient.vaccines.get(i)), in, 1);
+                }
+                patientEdges[p] = network.addEdge(in, out, 1);
+                // edges are searched newest first, so adding the last day first has the search try early days first
+                dayEdges[p] = new int[patientDays.length];
+                for (int i = patientDays.length - 1; i >= 0; i--) {
+                    dayEdges[p][i] = network.addEdge(out, dayNodes.get(patientDays[i]), 1);
+                }
+            }
+        }
+
+        // Send one unit over the patient's path through the given vaccine and day, as positions in its lists
+        private void push(int p, int vaccine, int day) {
+            Eligible patient = patients.get(p);
+            network.push(doseEdges.get(patient.vaccines.get(vaccine)), 1);
+            network.push(vaccineEdges[p][vaccine], 1);
+            network.push(patientEdges[p], 1);
+            network.push(dayEdges[p][day], 1);
+            network.push(slotEdges.get(patient.days[day]), 1);
+        }
+
+        private static int[] daysOf(List<Eligible> patients, List<int[]> days, int p) {
+            return days == null ? patients.get(p).days : days.get(p);
+        }
+    }
+
+    // Consecutive supply days, as indexes into Supply, and the part's patients whose first day is among them
+    private static class Block {
+        private int last;
+        private final List<Integer> patients = new ArrayList<>();
+
+        private Block(int first) {
+            this.last = first;
+        }
+
+        private int lastAdded() {
+            return patients.get(patients.size() - 1);
+        }
+    }
+
+    // A patient with at least one vaccine and one day on offer, as indexes into Supply, in order of preference
+    private static class Eligible {
+        private final Demand demand;
+        private final List<Integer> vaccines;
+        private final int[] days;
+
+        private Eligible(Demand demand, List<Integer> vaccines, int[] days) {
+            this.demand = demand;
+            this.vaccines = vaccines;
+            this.days = days;
+        }
+    }
+
+    private static class Match {
+        private final Demand demand;
+        private final String vaccine;
+        private final long day;
+        private final boolean firstChoice;
+
+        private Match(Demand demand, String vaccine, long day, boolean firstChoice) {
+            this.demand = demand;
+            this.vaccine = vaccine;
+            this.day = day;
+            this.firstChoice = firstChoice;
+        }
+    }
+
+    public static class Summary {
+        private int rows = 0;
+        private int rejectedRows = 0;
+        private final List<String> errors = new ArrayList<>();
+        private int duplicatePatients = 0;
+        private int unknownPatients = 0;
+        private int withoutSupply = 0;
+        private int eligible = 0;
+        private int parts = 0;
+        private int blocks = 0;
+        private long matched = 0;
+        private long edges = 0;
+        private int firstChoice = 0;
+        private long slots = 0;
+        private final Map<String, Integer> dosesOffered = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final Map<String, Integer> dosesBooked = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private int batches = 0;
+        private int booked = 0;
+        private int lost = 0;
+        private long loadMillis = 0;
+        private long solveMillis = 0;
+        private long bookMillis = 0;
+
+        private void rejected(long lineNumber, String reason) {
+            rejectedRows++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("line " + lineNumber + ": " + reason);
+            }
+        }
+
+        private synchronized void addSolved(long flow, int edgeCount, int dayBlocks) {
+            matched += flow;
+            edges += edgeCount;
+            blocks += dayBlocks;
+        }
+
+        // valid rows, duplicates included
+        public int getRows() {
+            return rows;
+        }
+
+        public int getRejectedRows() {
+            return rejectedRows;
+        }
+
+        // the first few invalid rows, with their line numbers
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public int getDuplicatePatients() {
+            return duplicatePatients;
+        }
+
+        public int getUnknownPatients() {
+            return unknownPatients;
+        }
+
+        // patients none of whose vaccines has doses, or with no caregiver free in their window
+        public int getWithoutSupply() {
+            return withoutSupply;
+        }
+
+        // patients that could have been matched
+        public int getEligible() {
+            return eligible;
+        }
+
+        // independent parts the matching was split into
+        public int getParts() {
+            return parts;
+        }
+
+        // blocks of days the parts were solved in first, one for a part solved whole
+        public int getBlocks() {
+            return blocks;
+        }
+
+        public long getEdges() {
+            return edges;
+        }
+
+        // the maximum number of patients that could be given a slot and a dose
+        public long getMatched() {
+            return matched;
+        }
+
+        // matched patients given the vaccine they listed first
+        public int getFirstChoice() {
+            return firstChoice;
+        }
+
+        // caregiver slots free over the demand's date range
+        public long getSlots() {
+            return slots;
+        }
+
+        // doses left before the run, per vaccine with any
+        public Map<String, Integer> getDosesOffered() {
+            return dosesOffered;
+        }
+
+        public Map<String, Integer> getDosesBooked() {
+            return dosesBooked;
+        }
+
+        public int getBatches() {
+            return batches;
+        }
+
+        public int getBooked() {
+            return booked;
+        }
+
+        // matches whose slot or dose was taken by someone else before they were booked
+        public int getLost() {
+            return lost;
+        }
+
+        public long getLoadMillis() {
+            return loadMillis;
+        }
+
+        public long getSolveMillis() {
+            return solveMillis;
+        }
+
+        public long getBookMillis() {
+            return bookMillis;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package scheduler;
+
+import scheduler.db.Storage;
+import scheduler.model.Availability;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Streams a file of availabilities and dose shipments into storage in fixed-size batches.
+//
+// CSV rows (files not ending in .jsonl):
+//     availability,<YYYY-MM-DD>,<caregiver>
+//     doses,<vaccine>,<number>
+// JSON-lines rows (files ending in .jsonl):
+//     {"type": "availability", "date": "YYYY-MM-DD", "caregiver": "<caregiver>"}
+//     {"type": "doses", "vaccine": "<vaccine>", "doses": <number>}
+// Blank lines and lines starting with # are ignored.
+//
+// Importing is an admin operation for onboarding a region: availability rows may name any caregiver, not
+// only the one logged in, and dose rows add to the shared inventory. See AdminAccess for who may run it.
+//
+// Every batch is committed on its own, together with the number of its last line as the import's checkpoint in
+// storage (see Storage.importBatch), so re-running the same import after a failure resumes where it stopped and
+// never adds a batch's doses twice. Imports are told apart by the file's absolute path.
+public class BulkImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    // how many invalid rows are listed in the summary
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    private final Storage storage;
+    private final int batchSize;
+
+    public BulkImporter(Storage storage, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.storage = storage;
+        this.batchSize = batchSize;
+    }
+
+    public Summary run(Path file) throws IOException, SQLException {
+        String importName = file.toAbsolutePath().normalize().toString();
+        long resumeAfter = storage.getImportCheckpoint(importName);
+        boolean json = file.getFileName().toString().endsWith(".jsonl");
+
+        Summary summary = new Summary(resumeAfter);
+        List<Availability> availabilities = new ArrayList<>();
+        // dose rows for the same vaccine are summed so each vaccine is touched once per batch
+        Map<String, Integer> doses = new HashMap<>();
+        int rowsInBatch = 0;
+        long lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= resumeAfter) {
+                    continue;
+                }
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    Map<String, String> row = json ? parseJsonRow(trimmed) : parseCsvRow(trimmed);
+                    if (row == null) {
+                        // CSV header
+                        continue;
+                    }
+                    addRow(row, availabilities, doses);
+                    rowsInBatch++;
+                } catch (IllegalArgumentException e) {
+                    summary.rejected(lineNumber, e.getMessage());
+                }
+                if (rowsInBatch == batchSize) {
+                    commit(importName, lineNumber, availabilities, doses, summary);
+                    rowsInBatch = 0;
+                }
+            }
+        }
+        commit(importName, lineNumber, availabilities, doses, summary);
+        storage.removeImportCheckpoint(importName);
+        return summary;
+    }
+
+    private void commit(String importName, long lineNumber, List<Availability> availabilities,
+                        Map<String, Integer> doses, Summary summary) throws SQLException {
+        if (availabilities.isEmpty() && doses.isEmpty()) {
+            return;
+        }
+        int inserted = storage.importBatch(importName, lineNumber, availabilities, doses).size();
+        summary.batches++;
+        summary.availabilitiesInserted += inserted;
+        summary.availabilitiesSkipped += availabilities.size() - inserted;
+        for (int count : doses.values()) {
+            summary.dosesAdded += count;
+        }
+        availabilities.clear();
+        doses.clear();
+    }
+
+    private static void addRow(Map<String, String> row, List<Availability> availabilities,
+                               Map<String, Integer> doses) {
+        String type = row.get("type");
+        if ("availability".equals(type)) {
+            Date date = parseDate(required(row, "date"));
+            String caregiver = required(row, "caregiver");
+            availabilities.add(new Availability.AvailabilityBuilder(date, caregiver).build());
+        } else if ("doses".equals(type)) {
+            String vaccine = required(row, "vaccine");
+            int count = parseCount(required(row, "doses"));
+            if (count <= 0) {
+                throw new IllegalArgumentException("dose count must be positive");
+            }
+            try {
+                doses.merge(vaccine, count, Math::addExact);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("doses for " + vaccine + " in this batch exceed " +
+                                                   Integer.MAX_VALUE);
+            }
+        } else {
+            throw new IllegalArgumentException("unknown row type " + type);
+        }
+    }
+
+    private static Date parseDate(String value) {
+        try {
+            return Date.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid date " + value);
+        }
+    }
+
+    private static int parseCount(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid dose count " + value);
+        }
+    }
+
+    private static String required(Map<String, String> row, String field) {
+        String value = row.get(field);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + field);
+        }
+        return value;
+    }
+
+    // returns null for the optional header line
+    private static Map<String, String> parseCsvRow(String line) {
+        String[] fields = line.split(",", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        if (fields[0].equals("type")) {
+            return null;
+        }
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("expected 3 fields but found " + fields.length);
+        }
+        Map<String, String> row = new HashMap<>();
+        row.put("type", fields[0]);
+        if (fields[0].equals("availability")) {
+            row.put("date", fields[1]);
+            row.put("caregiver", fields[2]);
+        } else {
+            row.put("vaccine", fields[1]);
+            row.put("doses", fields[2]);
+        }
+        return row;
+    }
+
+    // Parses one flat JSON object whose values are strings or integers
+    private static Map<String, String> parseJsonRow(String line) {
+        Map<String, String> row = new HashMap<>();
+        int[] pos = {0};
+        expect(line, pos, '{');
+        skipSpaces(line, pos);
+        if (peek(line, pos) == '}') {
+            pos[0]++;
+            return row;
+        }
+        while (true) {
+            skipSpaces(line, pos);
+            String name = readString(line, pos);
+            skipSpaces(line, pos);
+            expect(line, pos, ':');
+            skipSpaces(line, pos);
+            String value;
+            if (peek(line, pos) == '"') {
+                value = readString(line, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < line.length() && "-0123456789".indexOf(line.charAt(pos[0])) >= 0) {
+                    pos[0]++;
+                }
+                if (start == pos[0]) {
+                    throw new IllegalArgumentException("unsupported value for " + name);
+                }
+                value = line.substring(start, pos[0]);
+            }
+            row.put(name, value);
+            skipSpaces(line, pos);
+            char c = peek(line, pos);
+            pos[0]++;
+            if (c == '}') {
+                return row;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("malformed JSON");
+            }
+        }
+    }
+
+    private static String readString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char c = peek(line, pos);
+            pos[0]++;
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                c = peek(line, pos);
+                pos[0]++;
+            }
+            sb.append(c);
+        }
+    }
+
+    private static void expect(String line, int[] pos, char expected) {
+        if (peek(line, pos) != expected) {
+            throw new IllegalArgumentException("malformed JSON, expected " + expected);
+        }
+        pos[0]++;
+    }
+
+    private static char peek(String line, int[] pos) {
+        if (pos[0] >= line.length()) {
+            throw new IllegalArgumentException("malformed JSON, unexpected end of line");
+        }
+        return line.charAt(pos[0]);
+    }
+
+    private static void skipSpaces(String line, int[] pos) {
+        while (pos[0] < line.length() && Character.isWhitespace(line.charAt(pos[0]))) {
+            pos[0]++;
+        }
+    }
+
+    public static class Summary {
+        private final long resumedAfterLine;
+        private int batches = 0;
+        private int availabilitiesInserted = 0;
+        private int availabilitiesSkipped = 0;
+        private long dosesAdded = 0;
+        private int rejectedRows = 0;
+        private final List<String> errors = new ArrayList<>();
+
+        private Summary(long resumedAfterLine) {
+            this.resumedAfterLine = resumedAfterLine;
+        }
+
+        private void rejected(long lineNumber, String reason) {
+            rejectedRows++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("line " + lineNumber + ": " + reason);
+            }
+        }
+
+        public long getResumedAfterLine() {
+            return resumedAfterLine;
+        }
+
+        public int getBatches() {
+            return batches;
+        }
+
+        public int getAvailabilitiesInserted() {
+            return availabilitiesInserted;
+        }
+
+        public int getAvailabilitiesSkipped() {
+            return availabilitiesSkipped;
+        }
+
+        public long getDosesAdded() {
+            return dosesAdded;
+        }
+
+        public int getRejectedRows() {
+            return rejectedRows;
+        }
+
+        // the first few invalid rows, with their line numbers
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package scheduler;
+
+// One console command: its name, the arguments shown for it in the menu and what runs it
+public class Command {
+
+    public interface Handler {
+        // tokens[0] is the command name; handlers check their own arguments and report misuse
+        // through Session.fail
+        void run(Session session, String[] tokens);
+    }
+
+    private final String name;
+    private final String arguments;
+    private final Handler handler;
+
+    public Command(String name, String arguments, Handler handler) {
+        this.name = name;
+        this.arguments = arguments;
+        this.handler = handler;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // e.g. "reserve <date> <vaccine>"
+    public String getUsage() {
+        return arguments.isEmpty() ? name : name + " " + arguments;
+    }
+
+    public void run(Session session, String[] tokens) {
+        handler.run(session, tokens);
+    }
+}
@@ -0,0 +1,35 @@
+package scheduler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The commands the scheduler understands by name, in the order the menu lists them
+public class CommandRegistry {
+
+    private final Map<String, Command> commands = new LinkedHashMap<>();
+
+    public CommandRegistry register(String name, String arguments, Command.Handler handler) {
+        if (commands.putIfAbsent(name, new Command(name, arguments, handler)) != null) {
+            throw new IllegalArgumentException("Command already registered: " + name);
+        }
+        return this;
+    }
+
+    // null if there is no such command
+    public Command get(String name) {
+        return commands.get(name);
+    }
+
+    public Collection<Command> getCommands() {
+        return Collections.unmodifiableCollection(commands.values());
+    }
+
+    // Split a command line into the command name and its arguments; runs of whitespace separate them
+    // and leading or trailing whitespace is ignored
+    public static String[] tokenize(String line) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+}
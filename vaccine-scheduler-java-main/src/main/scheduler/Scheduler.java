@@ -1,124 +1,238 @@
 package scheduler;
 
+import scheduler.db.AppointmentQuery;
+import scheduler.db.AssignmentContention;
+import scheduler.db.CachedInventoryStorage;
+import scheduler.db.CalendarIndexedStorage;
 import scheduler.db.ConnectionManager;
+import scheduler.db.JournalingStorage;
+import scheduler.db.MigrationRunner;
+import scheduler.db.QueryTracer;
+import scheduler.db.ReadReplicas;
+import scheduler.db.ReservationResult;
+import scheduler.db.ScheduleSummary;
+import scheduler.db.Storage;
+import scheduler.db.StorageManager;
+import scheduler.db.UsernameFilterStorage;
+import scheduler.db.WaitlistStorage;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.OperationMetrics;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
-import javax.xml.transform.Result;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.sql.Date;
-import java.util.ArrayList;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final String SHOW_APPOINTMENTS_USAGE = "Please try again! To view appointments, please only type " +
+            "\"show_appointments [--from <date>] [--to <date>] [--limit N] [--after <appointment_id>]\"";
+
+    // longest range search_caregiver_schedule summarises in one go
+    private static final int MAX_SCHEDULE_DAYS = 366;
+    // longest range upload_availability accepts in one go
+    private static final int MAX_UPLOAD_DAYS = 366;
+
+    private static final CommandRegistry COMMANDS = new CommandRegistry()
+            .register("create_patient", "<username> <password>", Scheduler::createPatient)
+            .register("create_caregiver", "<username> <password>", Scheduler::createCaregiver)
+            .register("login_patient", "<username> <password>", Scheduler::loginPatient)
+            .register("login_caregiver", "<username> <password>", Scheduler::loginCaregiver)
+            .register("search_caregiver_schedule", "<date> | <start> <end>", Scheduler::searchCaregiverSchedule)
+            .register("reserve", "<date> <vaccine>", Scheduler::reserve)
+            .register("waitlist", "<date> <vaccine> | <start> <end> <vaccine>", Scheduler::waitlist)
+            .register("upload_availability", "<date> | <start> <end> [weekday-mask]", Scheduler::uploadAvailability)
+            .register("cancel", "<appointment_id>", Scheduler::cancel)
+            .register("add_doses", "<vaccine> <number>", Scheduler::addDoses)
+            .register("import", "<file> [batch-size]  (admins only)", Scheduler::importFile)
+            .register("allocate", "<file> [batch-size]  (admins only)", Scheduler::allocate)
+            .register("show_appointments", "[--from <date>] [--to <date>] [--limit N] [--after <appointment_id>]",
+                      Scheduler::showAppointments)
+            .register("check_calendar", "[--repair]", Scheduler::checkCalendar)
+            .register("stats", "[--reset]", Scheduler::stats)
+            .register("logout", "", Scheduler::logout)
+            .register("quit", "", Scheduler::quit);
 
     public static void main(String[] args) {
-        greetings();
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : SchedulerServer.DEFAULT_PORT;
+            try {
+                new SchedulerServer(port).run();
+            } catch (IOException e) {
+                System.out.println("Unable to start server on port " + port);
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            int failed = runBatch(args);
+            StorageManager.shutdown();
+            ConnectionManager.shutdown();
+            System.exit(failed == 0 ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--check-schema")) {
+            checkSchema();
+            ConnectionManager.shutdown();
+            return;
+        }
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+        runSession(new Session(System.out, true), r);
+        StorageManager.shutdown();
+        ConnectionManager.shutdown();
+    }
+
+    // --batch [<file> | -] [--pipeline N]: run a script from the file, or standard input, see BatchRunner.
+    // Returns the number of commands that failed, or -1 if the script could not be run.
+    private static int runBatch(String[] args) {
+        String file = "-";
+        int pipeline = 1;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--pipeline") && i + 1 < args.length) {
+                try {
+                    pipeline = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    pipeline = 0;
+                }
+                if (pipeline < 1) {
+                    System.out.println("Please enter a positive pipeline depth");
+                    return -1;
+                }
+            } else if (i == 1) {
+                file = args[i];
+            } else {
+                System.out.println("Usage: --batch [<file> | -] [--pipeline N]");
+                return -1;
+            }
+        }
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+        try (BufferedReader r = file.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            return new BatchRunner(out, pipeline).run(r);
+        } catch (IOException e) {
+            System.out.println("Unable to read " + file);
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Report schema migrations that have not run and indexes the hot queries need but the database lacks
+    private static void checkSchema() {
+        try {
+            List<String> problems = new MigrationRunner().check();
+            for (String problem : problems) {
+                System.out.println(problem);
+            }
+            if (problems.isEmpty()) {
+                System.out.println("Schema is up to date");
+            }
+        } catch (SQLException e) {
+            System.out.println("Unable to check the database schema");
+            e.printStackTrace();
+        }
+    }
+
+    // Read and run commands until the client quits or its input ends
+    public static void runSession(Session session, BufferedReader r) {
+        PrintStream out = session.getOut();
+        greetings(out);
         while (true) {
-            System.out.print("> ");
-            String response = "";
+            out.print("> ");
+            out.flush();
+            String response;
             try {
                 response = r.readLine();
             } catch (IOException e) {
-                System.out.println("Please try again!");
-            }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
+                out.println("Please try again!");
                 continue;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-                greetings();
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-                greetings();
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-                greetings();
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-                greetings();
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-                greetings();
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-                greetings();
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-                greetings();
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-                greetings();
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-                greetings();
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-                greetings();
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-                greetings();
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            if (response == null || !execute(session, response)) {
                 return;
-            } else {
-                System.out.println("Invalid operation name! Please check your spelling!");
-                greetings();
             }
         }
     }
 
-    private static void greetings() {
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");
-        System.out.println("> reserve <date> <vaccine>");
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");
-        System.out.println("> logout");
-        System.out.println("> quit");
-        System.out.println();
+    // Run one command line for the session; returns false once the session should end
+    public static boolean execute(Session session, String response) {
+        PrintStream out = session.getOut();
+        // split the user input by spaces
+        String[] tokens = CommandRegistry.tokenize(response);
+        session.startCommand();
+        // check if input exists
+        if (tokens.length == 0) {
+            session.fail("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        Command command = COMMANDS.get(tokens[0]);
+        OperationMetrics metrics = Metrics.command(command == null ? "invalid" : command.getName());
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        long errors = Metrics.errors();
+        if (command == null) {
+            session.fail("Invalid operation name! Please check your spelling!");
+        } else {
+            ConnectionManager.ClockScope clock = ConnectionManager.useClock(session.getWrites());
+            try {
+                command.run(session, tokens);
+            } finally {
+                clock.close();
+            }
+        }
+        metrics.record(start, Metrics.roundTrips() - trips, Metrics.errors() > errors);
+        if (session.isEnded()) {
+            return false;
+        }
+        if (session.showMenu()) {
+            greetings(out);
+        }
+        return true;
     }
 
-    private static void createPatient(String[] tokens) {
+    public static void greetings(PrintStream out) {
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        for (Command command : COMMANDS.getCommands()) {
+            out.println("> " + command.getUsage());
+        }
+        out.println();
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
         if (tokens.length != 3) {
-            System.out.println("Failed to create user. To create a patient account, please only type" +
-                               " \"create_patient <username> <password>\"!");
+            session.fail("Failed to create user. To create a patient account, please only type" +
+                        " \"create_patient <username> <password>\"!");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsPatient(out, username)) {
+            session.fail("Username taken, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
@@ -126,44 +240,36 @@ public class Scheduler {
         try {
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            session.fail("Failed to create user.");
             e.printStackTrace();
         }
     }
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(PrintStream out, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.isBeforeFirst();
+            return StorageManager.getStorage().patientExists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user. To create a caregiver account, please only type \"create_caregiver" +
-                               " <username> <password>\"");
+            session.fail("Failed to create user. To create a caregiver account, please only type \"create_caregiver" +
+                        " <username> <password>\"");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(out, username)) {
+            session.fail("Username taken, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
@@ -173,41 +279,32 @@ public class Scheduler {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            session.fail("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(PrintStream out, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return StorageManager.getStorage().caregiverExists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+    private static void loginPatient(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (session.isLoggedIn()) {
+            session.fail("User already logged in.");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Login failed. To login as a patient, please only type \"login_patient <username>" +
-                               " <password>\"");
+            session.fail("Login failed. To login as a patient, please only type \"login_patient <username>" +
+                        " <password>\"");
             return;
         }
         String username = tokens[1];
@@ -216,29 +313,30 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.fail("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
+            session.fail("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            out.println("Logged in as: " + username);
+            session.loginPatient(patient);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.isLoggedIn()) {
+            session.fail("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed. To login as a caregiver, please only type \"login_caregiver <username>" +
-                               " <password>\"");
+            session.fail("Login failed. To login as a caregiver, please only type \"login_caregiver <username>" +
+                        " <password>\"");
             return;
         }
         String username = tokens[1];
@@ -248,338 +346,689 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.fail("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            session.fail("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            out.println("Logged in as: " + username);
+            session.loginCaregiver(caregiver);
         }
     }
 
     // done?
     // needs time
-    private static void searchCaregiverSchedule(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (!session.isLoggedIn()) {
+            session.fail("Please login first!");
             return;
         }
-        if (tokens.length != 2) {
-            System.out.println("Please try again! Please only type \"search_caregiver_schedule " +
-                               "YYYY-MM-DD\"");
+        if (tokens.length != 2 && tokens.length != 3) {
+            session.fail("Please try again! Please only type \"search_caregiver_schedule " +
+                        "YYYY-MM-DD\" or \"search_caregiver_schedule YYYY-MM-DD YYYY-MM-DD\"");
+            return;
+        }
+        if (tokens.length == 3) {
+            searchScheduleRange(session, tokens[1], tokens[2]);
             return;
         }
         String date = tokens[1];
-        String userAvailable = "SELECT Username FROM Availabilities WHERE Time = ? " +
-                               "ORDER BY Username asc";
-        String vaccineSelected = "SELECT * FROM Vaccines";
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        Storage storage = StorageManager.getStorage();
         try {
-            PreparedStatement users = con.prepareStatement(userAvailable);
-            PreparedStatement vaccines = con.prepareStatement(vaccineSelected);
             Date d = Date.valueOf(date);
-            users.setDate(1, d);
-            ResultSet userSet = users.executeQuery();
-            ResultSet vacSet = vaccines.executeQuery();
-            if (!userSet.next()) {
-                System.out.println("No caregivers available for this date!");
+            List<String> usernames = storage.getAvailableCaregivers(d);
+            List<Vaccine> vaccines = storage.getVaccines();
+            if (usernames.isEmpty()) {
+                out.println("No caregivers available for this date!");
             } else {
-                do {
-                    System.out.println("Caregiver: " + userSet.getString(1) + " ");
-                } while (userSet.next());
+                for (String username : usernames) {
+                    out.println("Caregiver: " + username + " ");
+                }
             }
-            while (vacSet.next()) {
-                System.out.print(vacSet.getString(1) + " ");
-                System.out.println(vacSet.getString(2) + " doses left");
+            for (Vaccine vaccine : vaccines) {
+                out.print(vaccine.getVaccineName() + " ");
+                out.println(vaccine.getAvailableDoses() + " doses left");
             }
         } catch (IllegalArgumentException e1) {
-            System.out.println("Please enter a valid date in format YYYY-MM-DD");
+            session.fail("Please enter a valid date in format YYYY-MM-DD");
         } catch (SQLException e2) {
-            System.out.println("Error occurred while searching schedule");
+            session.fail("Error occurred while searching schedule");
             e2.printStackTrace();
-        } finally {
-            cm.closeConnection();
+        }
+    }
+
+    // search_caregiver_schedule <start> <end>: how many caregivers are free each day, in one storage call;
+    // who they are is shown by searching a single day
+    private static void searchScheduleRange(Session session, String start, String end) {
+        PrintStream out = session.getOut();
+        Date first;
+        Date last;
+        try {
+            first = Date.valueOf(start);
+            last = Date.valueOf(end);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter valid dates in format YYYY-MM-DD, with the start no later than the end");
+            return;
+        }
+        // checked from the day count, before any day is expanded
+        long span = ChronoUnit.DAYS.between(first.toLocalDate(), last.toLocalDate()) + 1;
+        if (span < 1) {
+            session.fail("Please enter valid dates in format YYYY-MM-DD, with the start no later than the end");
+            return;
+        }
+        if (span > MAX_SCHEDULE_DAYS) {
+            session.fail("Please search at most " + MAX_SCHEDULE_DAYS + " days at a time");
+            return;
+        }
+        List<Date> days = Util.expandDates(first, last, Util.ALL_WEEKDAYS);
+        try {
+            ScheduleSummary summary = StorageManager.getStorage().getScheduleSummary(days.get(0),
+                                                                                     days.get(days.size() - 1));
+            for (Date day : days) {
+                int count = summary.getCaregiverCount(day);
+                if (count == 0) {
+                    out.println(day + ": no caregivers available");
+                } else {
+                    out.println(day + ": " + count + (count == 1 ? " caregiver" : " caregivers") + " available");
+                }
+            }
+            for (Vaccine vaccine : summary.getVaccines()) {
+                out.print(vaccine.getVaccineName() + " ");
+                out.println(vaccine.getAvailableDoses() + " doses left");
+            }
+            if (!summary.getCaregiverCounts().isEmpty()) {
+                out.println("Type \"search_caregiver_schedule <date>\" to see the caregivers available on a day");
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred while searching schedule");
+            e.printStackTrace();
         }
     }
 
     // date + vaccine
-    private static void reserve(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void reserve(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (!session.isLoggedIn()) {
+            session.fail("Please login first!");
             return;
         }
-        if (currentCaregiver != null) {
-            System.out.println("Please login as a patient!");
+        if (session.getCaregiver() != null) {
+            session.fail("Please login as a patient!");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Please try again! To reserve an appointment, please only type \"reserve YYYY-MM-DD" +
-                               " <vaccine>\"!");
+            session.fail("Please try again! To reserve an appointment, please only type \"reserve YYYY-MM-DD" +
+                        " <vaccine>\"!");
             return;
         }
         String date = tokens[1];
         String vaccineValid = tokens[2];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
         try {
-            // check if there are vaccines
-            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineValid).get();
-            if (vaccine == null) {
-                System.out.println("Please check your spelling, and enter a valid vaccine!");
-                return;
-            }
-            int doses = vaccine.getAvailableDoses();
-            if (doses < 1) {
-                System.out.println("Not enough available doses!");
-                return;
-            }
-            String availableCaregivers = "SELECT Username FROM Availabilities " +
-                                         "WHERE Time = ? ORDER BY Username";
-            PreparedStatement statement1 = con.prepareStatement(availableCaregivers);
             Date d = Date.valueOf(date);
-            statement1.setDate(1, d);
-            ResultSet availCare = statement1.executeQuery();
-            List<String> usernames = new ArrayList<>();
-            while (availCare.next()) {
-                usernames.add(availCare.getString(1));
-            }
-            if (usernames.size() == 0) {
-                System.out.println("No caregiver is available!");
-                return;
-            }
-            vaccine.decreaseAvailableDoses(1);
-            String makeAppointment = "INSERT INTO Appointments (date, p_user, c_user, v_name) " +
-                                     "VALUES (?, ?, ?, ?)";
-            PreparedStatement statement2 = con.prepareStatement(makeAppointment);
-            statement2.setDate(1, d);
-            statement2.setString(2, currentPatient.getUsername());
-            statement2.setString(3, usernames.get(0));
-            statement2.setString(4, vaccineValid);
-            statement2.executeUpdate();
-            String dropAvailability = "DELETE FROM Availabilities " +
-                                      "WHERE Username = ? AND Time = ?";
-            PreparedStatement statement3 = con.prepareStatement(dropAvailability);
-            statement3.setString(1, usernames.get(0));
-            statement3.setDate(2, d);
-            statement3.execute();
-            String findAptID = "SELECT a_id FROM Appointments " +
-                               "WHERE date = ? AND c_user = ?";
-            PreparedStatement statement4 = con.prepareStatement(findAptID);
-            statement4.setDate(1, d);
-            statement4.setString(2, usernames.get(0));
-            ResultSet resultSet = statement4.executeQuery();
-            while(resultSet.next()) {
-                System.out.println("Appointment ID: " + resultSet.getString(1) + ", " +
-                        "Caregiver username: " + usernames.get(0));
+            ReservationResult result = StorageManager.getStorage().reserve(d, session.getUsername(), vaccineValid);
+            switch (result.getStatus()) {
+                case UNKNOWN_VACCINE:
+                    session.fail("Please check your spelling, and enter a valid vaccine!");
+                    break;
+                case NO_DOSES:
+                    session.fail("Not enough available doses!");
+                    break;
+                case NO_CAREGIVER:
+                    session.fail("No caregiver is available!");
+                    break;
+                default:
+                    Appointment appointment = result.getAppointment();
+                    out.println("Appointment ID: " + appointment.getAppointmentId() + ", " +
+                            "Caregiver username: " + appointment.getCaregiverName());
             }
         } catch (IllegalArgumentException e1) {
-            System.out.println("Please enter a valid date in format YYYY-MM-DD");
+            session.fail("Please enter a valid date in format YYYY-MM-DD");
         } catch (SQLException e2) {
-            System.out.println("Error occurred while reserving appointment");
+            session.fail("Error occurred while reserving appointment");
             e2.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
+    // waitlist <date> <vaccine>
+    // waitlist <start> <end> <vaccine>
+    // the patient is booked on the earliest day in the range with a caregiver free once a dose is too
+    private static void waitlist(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (!session.isLoggedIn()) {
+            session.fail("Please login first!");
+            return;
+        }
+        if (session.getCaregiver() != null) {
+            session.fail("Please login as a patient!");
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            session.fail("Please try again! To join the waitlist, please only type \"waitlist YYYY-MM-DD " +
+                        "<vaccine>\" or \"waitlist YYYY-MM-DD YYYY-MM-DD <vaccine>\"");
+            return;
+        }
+        String vaccineName = tokens[tokens.length - 1];
+        Date start;
+        Date end;
+        try {
+            start = Date.valueOf(tokens[1]);
+            end = tokens.length == 4 ? Date.valueOf(tokens[2]) : start;
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter a valid date in format YYYY-MM-DD");
+            return;
+        }
+        if (end.before(start)) {
+            session.fail("Please enter valid dates in format YYYY-MM-DD, with the start no later than the end");
+            return;
+        }
+        if (end.before(Date.valueOf(LocalDate.now()))) {
+            session.fail("Please enter dates that have not passed yet");
+            return;
+        }
+        Storage storage = StorageManager.getStorage();
+        try {
+            Vaccine vaccine = storage.getVaccine(vaccineName);
+            if (vaccine == null) {
+                session.fail("Please check your spelling, and enter a valid vaccine!");
+                return;
+            }
+            int entryId = storage.addWaitlistEntry(session.getUsername(), vaccine.getVaccineName(), start, end);
+            if (entryId == 0) {
+                session.fail("You are already on the waitlist for " + vaccine.getVaccineName() + "!");
+                return;
+            }
+            out.println("Added to the waitlist for " + vaccine.getVaccineName() + ", entry ID: " + entryId);
+            out.println("You will be booked as soon as a dose and a caregiver are free between " + start +
+                        " and " + end + "; type \"show_appointments\" to check");
+        } catch (SQLException e) {
+            session.fail("Error occurred while joining the waitlist");
+            e.printStackTrace();
+        }
+    }
+
+    private static void uploadAvailability(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
         // upload_availability <date>
+        // upload_availability <start> <end> [weekday-mask]
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again! To upload availability, " +
-                               "please only type \"upload_availability YYYY-MM-DD\"");
+        // check 2: the length for tokens need to be 2 to 4 to include all information (with the operation name)
+        if (tokens.length < 2 || tokens.length > 4) {
+            session.fail("Please try again! To upload availability, " +
+                        "please only type \"upload_availability YYYY-MM-DD\" or " +
+                        "\"upload_availability YYYY-MM-DD YYYY-MM-DD [weekday-mask]\"");
             return;
         }
-        String date = tokens[1];
+        if (tokens.length == 2) {
+            String date = tokens[1];
+            try {
+                Date d = Date.valueOf(date);
+                session.getCaregiver().uploadAvailability(d);
+                out.println("Availability uploaded!");
+            } catch (IllegalArgumentException e) {
+                session.fail("Please enter a valid date in format YYYY-MM-DD");
+            } catch (SQLException e) {
+                session.fail("Error occurred when uploading availability");
+                e.printStackTrace();
+            }
+            return;
+        }
+        // check 3: the weekday mask has one 0/1 flag per day, starting on Monday
+        String mask = tokens.length == 4 ? tokens[3] : Util.ALL_WEEKDAYS;
+        if (!Util.isWeekdayMask(mask)) {
+            session.fail("Please enter a weekday mask of seven 0/1 flags starting on Monday, e.g. 1111100");
+            return;
+        }
+        Date start;
+        Date end;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            start = Date.valueOf(tokens[1]);
+            end = Date.valueOf(tokens[2]);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date in format YYYY-MM-DD");
+            session.fail("Please enter valid dates in format YYYY-MM-DD, with the start no later than the end");
+            return;
+        }
+        // check 4: the span, from the day count so a huge range is never expanded
+        long span = ChronoUnit.DAYS.between(start.toLocalDate(), end.toLocalDate()) + 1;
+        if (span < 1) {
+            session.fail("Please enter valid dates in format YYYY-MM-DD, with the start no later than the end");
+            return;
+        }
+        if (span > MAX_UPLOAD_DAYS) {
+            session.fail("Please upload at most " + MAX_UPLOAD_DAYS + " days at a time");
+            return;
+        }
+        List<Date> dates = Util.expandDates(start, end, mask);
+        try {
+            int inserted = session.getCaregiver().uploadAvailability(dates);
+            out.println("Availability uploaded! Inserted: " + inserted + ", skipped: " + (dates.size() - inserted));
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            session.fail("Error occurred when uploading availability");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void cancel(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (!session.isLoggedIn()) {
+            session.fail("Please login first!");
             return;
         }
         if (tokens.length != 2) {
-            System.out.println("Please try again! To cancel an appointment, " +
-                               "please only type \"cancel <appointment_id>\"");
+            session.fail("Please try again! To cancel an appointment, " +
+                        "please only type \"cancel <appointment_id>\"");
             return;
         }
-        int id = Integer.parseInt(tokens[1]);
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        int id;
         try {
-            String findDate;
-            if (currentCaregiver != null) {
-                findDate = "SELECT date, c_user, v_name FROM Appointments " +
-                           "WHERE a_id = ? AND c_user = ?";
-            } else {
-                findDate = "SELECT date, c_user, v_name FROM Appointments " +
-                           "WHERE a_id = ? AND p_user = ?";
-            }
-            PreparedStatement statement1 = con.prepareStatement(findDate);
-            statement1.setInt(1, id);
-            if (currentCaregiver != null) {
-                statement1.setString(2, currentCaregiver.getUsername());
-            } else {
-                statement1.setString(2, currentPatient.getUsername());
-            }
-            ResultSet resultSet = statement1.executeQuery();
-            if(resultSet.next()) {
-                String dropAppt = "DELETE FROM Appointments " +
-                                  "WHERE a_id = ?";
-                PreparedStatement statement2 = con.prepareStatement(dropAppt);
-                statement2.setInt(1, id);
-                statement2.executeUpdate();
-                String updateAvailability = "INSERT INTO Availabilities(Time, Username) VALUES (?, ?)";
-                Vaccine vaccine = null;
-                vaccine = new Vaccine.VaccineGetter(resultSet.getString(3)).get();
-                vaccine.increaseAvailableDoses(1);
-                PreparedStatement statement3 = con.prepareStatement(updateAvailability);
-                statement3.setDate(1, resultSet.getDate(1));
-                statement3.setString(2, resultSet.getString(2));
-                statement3.executeUpdate();
-                System.out.println("Appointment successfully cancelled!");
+            id = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            session.fail("Please try again! The appointment ID must be a number, " +
+                        "please only type \"cancel <appointment_id>\"");
+            return;
+        }
+        Storage storage = StorageManager.getStorage();
+        try {
+            // ownership, the dose and the caregiver's slot are all settled in one transaction
+            Appointment cancelled = storage.cancelAppointment(id, session.getUsername(),
+                                                              session.getCaregiver() != null);
+            if (cancelled != null) {
+                out.println("Appointment successfully cancelled!");
             } else {
-                System.out.println("Unable to cancel appointment! Please make sure you're logged into the right" +
-                                   " account and double check the appointment ID.");
+                session.fail("Unable to cancel appointment! Please make sure you're logged into the right" +
+                            " account and double check the appointment ID.");
             }
         } catch (SQLException e) {
-            System.out.println("Error occurred while cancelling appointment");
+            session.fail("Error occurred while cancelling appointment");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again! To add doses, please only type \"add_doses <vaccine> <number\"");
+            session.fail("Please try again! To add doses, please only type \"add_doses <vaccine> <number\"");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
+        int doses;
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            doses = 0;
+        }
+        if (doses < 1) {
+            session.fail("Please enter a positive number of doses!");
+            return;
+        }
+        try {
+            Vaccine vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            // check 3: if getter returns null, the vaccine is created by adding its first doses
+            if (vaccine == null) {
+                vaccine = new Vaccine.VaccineBuilder(vaccineName, 0).build();
+            }
+            vaccine.increaseAvailableDoses(doses);
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            session.fail("Error occurred when adding doses");
             e.printStackTrace();
+            return;
+        }
+        out.println("Doses updated!");
+    }
+
+    private static void importFile(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // import <file> [batch-size]
+        // check 1: check if the current logged-in user is an admin caregiver
+        if (session.getCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
+        }
+        if (!AdminAccess.isAdmin(session)) {
+            session.fail("Only admins can import files!");
+            return;
+        }
+        // check 2: the length for tokens need to be 2 or 3 to include all information (with the operation name)
+        if (tokens.length != 2 && tokens.length != 3) {
+            session.fail("Please try again! To import a file, please only type \"import <file> [batch-size]\"");
+            return;
         }
-        // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
-        //          table
-        if (vaccine == null) {
+        int batchSize = BulkImporter.DEFAULT_BATCH_SIZE;
+        if (tokens.length == 3) {
             try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                batchSize = Integer.parseInt(tokens[2]);
+            } catch (NumberFormatException e) {
+                batchSize = 0;
             }
-        } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
-            try {
-                vaccine.increaseAvailableDoses(doses);
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+            if (batchSize < 1) {
+                session.fail("Please enter a positive batch size!");
+                return;
+            }
+        }
+        Path file;
+        try {
+            file = AdminAccess.importFile(session, tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.fail(e.getMessage());
+            return;
+        }
+        try {
+            BulkImporter.Summary summary = new BulkImporter(StorageManager.getStorage(), batchSize).run(file);
+            if (summary.getResumedAfterLine() > 0) {
+                out.println("Resumed after line " + summary.getResumedAfterLine());
             }
+            out.println("Imported in " + summary.getBatches() + " batches. Availabilities inserted: " +
+                        summary.getAvailabilitiesInserted() + ", skipped: " + summary.getAvailabilitiesSkipped() +
+                        ". Doses added: " + summary.getDosesAdded() + ". Invalid rows: " +
+                        summary.getRejectedRows());
+            for (String error : summary.getErrors()) {
+                out.println("  " + error);
+            }
+        } catch (IOException | SQLException e) {
+            session.fail("Error occurred while importing, run the same command again to resume");
+            e.printStackTrace();
         }
-        System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void allocate(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // allocate <file> [batch-size]
+        // check 1: check if the current logged-in user is an admin caregiver
+        if (session.getCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
+        }
+        if (!AdminAccess.isAdmin(session)) {
+            session.fail("Only admins can allocate!");
             return;
         }
-        if (tokens.length != 1) {
-            System.out.println("Please try again! To view appointments, please only type \"show_appointments\"!");
+        // check 2: the length for tokens need to be 2 or 3 to include all information (with the operation name)
+        if (tokens.length != 2 && tokens.length != 3) {
+            session.fail("Please try again! To allocate a demand file, please only type " +
+                         "\"allocate <file> [batch-size]\"");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        if (currentCaregiver != null) {
-            String findAppointments = "SELECT a_id, v_name, date, p_user FROM Appointments " +
-                                      "WHERE c_user = ? ORDER BY a_id";
+        int batchSize = BulkAllocator.DEFAULT_BATCH_SIZE;
+        if (tokens.length == 3) {
             try {
-                PreparedStatement statement = con.prepareStatement(findAppointments);
-                statement.setString(1, currentCaregiver.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                if(!resultSet.next()) {
-                    System.out.println("You do not have any appointments scheduled!");
-                } else {
-                    System.out.println("ApptID  Vaccine  Date  Patient");
-                    do {
-                        System.out.println(resultSet.getInt(1) + " " + resultSet.getString(2) + " "
-                                + resultSet.getString(3) + " " + resultSet.getString(4));
-                    } while (resultSet.next());
-                }
-            } catch (SQLException e) {
-                System.out.println("Error occurred while showing appointments");
-                e.printStackTrace();
-            } finally {
-                cm.closeConnection();
+                batchSize = Integer.parseInt(tokens[2]);
+            } catch (NumberFormatException e) {
+                batchSize = 0;
             }
-        } else {
-            String findAppointments = "SELECT a_id, v_name, date, c_user FROM Appointments " +
-                                      "WHERE p_user = ?";
+            if (batchSize < 1) {
+                session.fail("Please enter a positive batch size!");
+                return;
+            }
+        }
+        Path file;
+        try {
+            file = AdminAccess.importFile(session, tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.fail(e.getMessage());
+            return;
+        }
+        try {
+            BulkAllocator.Summary summary = new BulkAllocator(StorageManager.getStorage(), batchSize).run(file);
+            out.println("Patients: " + summary.getRows() + " rows, " + summary.getDuplicatePatients() +
+                        " duplicates, " + summary.getUnknownPatients() + " unknown, " + summary.getWithoutSupply() +
+                        " with no slot or dose on offer, " + summary.getEligible() + " eligible. Invalid rows: " +
+                        summary.getRejectedRows());
+            for (String error : summary.getErrors()) {
+                out.println("  " + error);
+            }
+            out.println("Matched " + summary.getMatched() + " of " + summary.getEligible() + " eligible (" +
+                        summary.getFirstChoice() + " with their first-choice vaccine) in " + summary.getParts() +
+                        " independent parts, " + summary.getBlocks() + " day blocks, " + summary.getEdges() + " edges, " + summary.getSolveMillis() +
+                        " ms");
+            out.println("Booked " + summary.getBooked() + " in " + summary.getBatches() + " batches, " +
+                        summary.getBookMillis() + " ms; " + summary.getLost() + " lost to concurrent changes");
+            out.println("Caregiver slots: " + summary.getBooked() + " of " + summary.getSlots() + " used (" +
+                        percent(summary.getBooked(), summary.getSlots()) + ")");
+            for (Map.Entry<String, Integer> vaccine : summary.getDosesOffered().entrySet()) {
+                int used = summary.getDosesBooked().getOrDefault(vaccine.getKey(), 0);
+                out.println("  " + vaccine.getKey() + ": " + used + " of " + vaccine.getValue() + " doses used (" +
+                            percent(used, vaccine.getValue()) + ")");
+            }
+        } catch (IOException | SQLException e) {
+            session.fail("Error occurred while allocating, appointments booked so far are kept");
+            e.printStackTrace();
+        }
+    }
+
+    private static String percent(long part, long whole) {
+        return whole == 0 ? "-" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+
+    private static void showAppointments(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // show_appointments [--from <date>] [--to <date>] [--limit N] [--after <appointment_id>]
+        if (!session.isLoggedIn()) {
+            session.fail("Please login first!");
+            return;
+        }
+        boolean byCaregiver = session.getCaregiver() != null;
+        AppointmentQuery.AppointmentQueryBuilder query =
+                new AppointmentQuery.AppointmentQueryBuilder(session.getUsername(), byCaregiver);
+        // check 1: options come in pairs of a flag and its value
+        if (tokens.length % 2 == 0) {
+            session.fail(SHOW_APPOINTMENTS_USAGE);
+            return;
+        }
+        int limit = 0;
+        for (int i = 1; i < tokens.length; i += 2) {
+            String value = tokens[i + 1];
             try {
-                PreparedStatement statement = con.prepareStatement(findAppointments);
-                statement.setString(1, currentPatient.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                if (!resultSet.next()) {
-                    System.out.println("You do not have any appointments scheduled!");
-                } else {
-                    System.out.println("ApptId  Vaccine  Date  Caregiver");
-                    do {
-                        System.out.println(resultSet.getInt(1) + " " + resultSet.getString(2) + " "
-                                + resultSet.getString(3) + " " + resultSet.getString(4));
-                    } while (resultSet.next());
+                switch (tokens[i]) {
+                    case "--from":
+                        query.from(Date.valueOf(value));
+                        break;
+                    case "--to":
+                        query.to(Date.valueOf(value));
+                        break;
+                    case "--limit":
+                        limit = Integer.parseInt(value);
+                        if (limit < 1) {
+                            throw new IllegalArgumentException();
+                        }
+                        query.limit(limit);
+                        break;
+                    case "--after":
+                        query.after(Integer.parseInt(value));
+                        break;
+                    default:
+                        session.fail(SHOW_APPOINTMENTS_USAGE);
+                        return;
                 }
-            } catch (SQLException e) {
-                System.out.println("Error occurred while showing appointments");
-                e.printStackTrace();
-            } finally {
-                cm.closeConnection();
+            } catch (IllegalArgumentException e) {
+                session.fail("Please enter dates in format YYYY-MM-DD, a positive limit and a numeric appointment ID");
+                return;
+            }
+        }
+        // rows go out through a buffer flushed every few rows, so the first ones show up at once
+        // and nothing is held beyond the buffer however many appointments there are
+        AppointmentPrinter printer = new AppointmentPrinter(out, byCaregiver);
+        try {
+            StorageManager.getStorage().forEachAppointment(query.build(), printer);
+        } catch (SQLException e) {
+            printer.flush();
+            session.fail("Error occurred while showing appointments");
+            e.printStackTrace();
+            return;
+        }
+        printer.flush();
+        if (printer.printed == 0) {
+            out.println("You do not have any appointments scheduled!");
+        } else if (printer.printed == limit) {
+            out.println("For more, type \"show_appointments ... --after " + printer.lastId + "\"");
+        }
+    }
+
+    private static class AppointmentPrinter implements Consumer<Appointment> {
+        private static final int FLUSH_EVERY_ROWS = 100;
+
+        private final PrintWriter writer;
+        private final boolean byCaregiver;
+        private int printed = 0;
+        private int lastId = 0;
+
+        private AppointmentPrinter(PrintStream out, boolean byCaregiver) {
+            this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            this.byCaregiver = byCaregiver;
+        }
+
+        @Override
+        public void accept(Appointment appointment) {
+            if (printed == 0) {
+                writer.println(byCaregiver ? "ApptID  Vaccine  Date  Patient" : "ApptId  Vaccine  Date  Caregiver");
             }
+            writer.print(appointment.getAppointmentId());
+            writer.print(' ');
+            writer.print(appointment.getVaccineName());
+            writer.print(' ');
+            writer.print(appointment.getDate());
+            writer.print(' ');
+            writer.println(byCaregiver ? appointment.getPatientName() : appointment.getCaregiverName());
+            lastId = appointment.getAppointmentId();
+            if (++printed % FLUSH_EVERY_ROWS == 0) {
+                writer.flush();
+            }
+        }
+
+        private void flush() {
+            writer.flush();
         }
     }
 
-    private static void logout(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void checkCalendar(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // check_calendar [--repair]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 1 or 2, the second being --repair
+        if (tokens.length > 2 || (tokens.length == 2 && !tokens[1].equals("--repair"))) {
+            session.fail("Please try again! To check the calendar index, please only type \"check_calendar [--repair]\"");
+            return;
+        }
+        CalendarIndexedStorage calendar = StorageManager.find(CalendarIndexedStorage.class);
+        if (calendar == null) {
+            out.println("No calendar index in use, searches read the Availabilities table");
+            return;
+        }
+        try {
+            List<String> differences = calendar.verify(10);
+            if (differences.isEmpty()) {
+                out.println("Calendar index matches the Availabilities table (" +
+                            calendar.getIndex().getCaregiverCount() + " caregivers, " +
+                            calendar.getIndex().getDayCount() + " days, " +
+                            calendar.getIndex().getBitmapBytes() + " bytes)");
+                return;
+            }
+            out.println("Calendar index differs from the Availabilities table:");
+            for (String difference : differences) {
+                out.println("  " + difference);
+            }
+            if (tokens.length == 2) {
+                calendar.reload();
+                out.println("Calendar index rebuilt from the table");
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred while checking the calendar index");
+            e.printStackTrace();
+        }
+    }
+
+    private static void stats(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        // stats [--reset]
+        if (tokens.length > 2 || (tokens.length == 2 && !tokens[1].equals("--reset"))) {
+            session.fail("Please try again! To view statistics, please only type \"stats [--reset]\"");
+            return;
+        }
+        Metrics.report(out);
+        out.println("Components:");
+        if (ConnectionManager.hasPool()) {
+            out.println("  " + ConnectionManager.getPool());
+            ReadReplicas replicas = ConnectionManager.getReplicas();
+            if (replicas != null) {
+                out.println("  " + replicas);
+            }
+            if (QueryTracer.getInstance().isEnabled()) {
+                out.println("  " + QueryTracer.getInstance());
+            }
+        }
+        CachedInventoryStorage inventory = StorageManager.find(CachedInventoryStorage.class);
+        if (inventory != null) {
+            out.println("  " + inventory);
+        }
+        UsernameFilterStorage usernames = StorageManager.find(UsernameFilterStorage.class);
+        if (usernames != null) {
+            out.println("  " + usernames);
+        }
+        CalendarIndexedStorage calendar = StorageManager.find(CalendarIndexedStorage.class);
+        if (calendar != null) {
+            out.println("  CalendarIndex{caregivers=" + calendar.getIndex().getCaregiverCount() +
+                        ", days=" + calendar.getIndex().getDayCount() +
+                        ", bitmapBytes=" + calendar.getIndex().getBitmapBytes() +
+                        ", reloads=" + calendar.getReloadCount() +
+                        ", readBacks=" + calendar.getReadBackCount() + '}');
+        }
+        JournalingStorage journaling = StorageManager.find(JournalingStorage.class);
+        if (journaling != null) {
+            out.println("  " + journaling);
+        }
+        WaitlistStorage waitlist = StorageManager.find(WaitlistStorage.class);
+        if (waitlist != null) {
+            out.println("  " + waitlist);
+        }
+        if (StorageManager.getSnapshotter() != null) {
+            out.println("  " + StorageManager.getSnapshotter());
+        }
+        out.println("  AssignmentContention{reservations=" + AssignmentContention.getReservations() +
+                    ", claims=" + AssignmentContention.getClaims() +
+                    ", conflicts=" + AssignmentContention.getConflicts() +
+                    ", fallbacks=" + AssignmentContention.getFallbacks() +
+                    ", deadlockRetries=" + AssignmentContention.getDeadlockRetries() + '}');
+        PasswordHasher hasher = PasswordHasher.getInstance();
+        out.println(String.format("  PasswordHasher{hashes=%d, hashesPerSecond=%.1f, queued=%d, workers=%d}",
+                                  hasher.getHashCount(), hasher.getHashesPerSecond(),
+                                  hasher.getQueuedVerifications(), hasher.getWorkerCount()));
+        if (tokens.length == 2) {
+            Metrics.reset();
+            out.println("Command and storage statistics reset");
+        }
+    }
+
+    private static void logout(Session session, String[] tokens) {
+        PrintStream out = session.getOut();
+        if (!session.isLoggedIn()) {
+            session.fail("Please login first!");
             return;
         } else if (tokens.length != 1) {
-            System.out.println("Please try again! To log out, please only type \"logout\"!");
+            session.fail("Please try again! To log out, please only type \"logout\"!");
             return;
         }
-        currentCaregiver = null;
-        currentPatient = null;
-        System.out.println("Successfully logged out!");
+        session.logout();
+        out.println("Successfully logged out!");
+    }
+
+    private static void quit(Session session, String[] tokens) {
+        session.getOut().println("Bye!");
+        session.end();
     }
 }
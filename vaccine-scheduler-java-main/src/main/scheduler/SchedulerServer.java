@@ -0,0 +1,141 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.StorageManager;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the scheduler's command set over TCP, one line per command, so a single process can serve
+// many clinic terminals. Every connection gets its own Session and runs on its own virtual thread.
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 5050;
+    // how long close() lets running commands finish before dropping their clients
+    private static final long DRAIN_SECONDS = 30;
+
+    private final int port;
+    private final ExecutorService executor = Util.newVirtualThreadExecutor();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile ServerSocket serverSocket = null;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    // Accept connections until the server is closed
+    public void run() throws IOException {
+        try (ServerSocket socket = new ServerSocket(port)) {
+            serverSocket = socket;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+            System.out.println("Scheduler server listening on port " + socket.getLocalPort());
+            while (!socket.isClosed()) {
+                Socket client;
+                try {
+                    client = socket.accept();
+                } catch (IOException e) {
+                    if (socket.isClosed()) {
+                        break;
+                    }
+                    e.printStackTrace();
+                    continue;
+                }
+                clients.add(client);
+                if (closed.get()) {
+                    // accepted just as close() ran, after it stopped the other sessions
+                    client.close();
+                    clients.remove(client);
+                    break;
+                }
+                try {
+                    executor.execute(() -> serve(client));
+                } catch (RejectedExecutionException e) {
+                    client.close();
+                    clients.remove(client);
+                    break;
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    // Stop accepting, let every session finish the command it is running, then write out and close the storage
+    // chain, so nothing still uses it while it shuts down
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ServerSocket socket = serverSocket;
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // a session reads end of input after its current command and ends
+        for (Socket client : clients) {
+            try {
+                client.shutdownInput();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Dropping " + activeSessions.get() + " sessions still running after " +
+                                   DRAIN_SECONDS + " seconds");
+                for (Socket client : clients) {
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        // already gone
+                    }
+                }
+                executor.shutdownNow();
+                executor.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        StorageManager.shutdown();
+        ConnectionManager.shutdown();
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    private void serve(Socket client) {
+        activeSessions.incrementAndGet();
+        try (Socket c = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(),
+                                                                          StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(c.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            // the menu is shown once on connect rather than after every command
+            Scheduler.runSession(new Session(out, false, true), in);
+        } catch (IOException e) {
+            // the client went away; nothing else to clean up since sessions live only in memory
+        } finally {
+            clients.remove(client);
+            activeSessions.decrementAndGet();
+        }
+    }
+}
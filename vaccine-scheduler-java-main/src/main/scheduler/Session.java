@@ -0,0 +1,111 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+// State of one client of the scheduler: who is logged in and where command output goes.
+// A session is only ever used by one thread at a time.
+public class Session {
+
+    // it is always true that at most one of caregiver and patient is not null
+    private Caregiver caregiver = null;
+    private Patient patient = null;
+    private final PrintStream out;
+    // whether the command menu is printed after every command
+    private final boolean showMenu;
+    // whether the command being run has failed, see fail
+    private boolean failed = false;
+    // whether the client has quit
+    private boolean ended = false;
+    // whether the client is served over the network rather than running the process, see AdminAccess
+    private final boolean remote;
+    // when the session last committed a write, so its reads see it on whichever thread runs its next command
+    private final ConnectionManager.WriteClock writes = new ConnectionManager.WriteClock();
+
+    public Session(PrintStream out, boolean showMenu) {
+        this(out, showMenu, false);
+    }
+
+    public Session(PrintStream out, boolean showMenu, boolean remote) {
+        this.out = out;
+        this.showMenu = showMenu;
+        this.remote = remote;
+    }
+
+    public Caregiver getCaregiver() {
+        return caregiver;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public boolean showMenu() {
+        return showMenu;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    public ConnectionManager.WriteClock getWrites() {
+        return writes;
+    }
+
+    // Print why the current command could not do what was asked, so batch runs report it as failed
+    public void fail(String message) {
+        failed = true;
+        out.println(message);
+    }
+
+    // Called before each command
+    public void startCommand() {
+        failed = false;
+    }
+
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    public void end() {
+        ended = true;
+    }
+
+    public boolean isEnded() {
+        return ended;
+    }
+
+    public boolean isLoggedIn() {
+        return caregiver != null || patient != null;
+    }
+
+    // username of whoever is logged in, or null
+    public String getUsername() {
+        if (caregiver != null) {
+            return caregiver.getUsername();
+        }
+        return patient == null ? null : patient.getUsername();
+    }
+
+    public void loginCaregiver(Caregiver caregiver) {
+        this.caregiver = caregiver;
+        this.patient = null;
+    }
+
+    public void loginPatient(Patient patient) {
+        this.patient = patient;
+        this.caregiver = null;
+    }
+
+    public void logout() {
+        this.caregiver = null;
+        this.patient = null;
+    }
+}
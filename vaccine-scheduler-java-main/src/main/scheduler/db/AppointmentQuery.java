@@ -0,0 +1,107 @@
+package scheduler.db;
+
+import java.sql.Date;
+
+// One page of a patient's or caregiver's appointments: those with an id above afterId, dated from..to
+// (both inclusive), in id order, at most limit of them. The next page starts after the last id returned.
+public class AppointmentQuery {
+    // bounds used when no date range is given
+    public static final Date FIRST_DATE = Date.valueOf("0001-01-01");
+    public static final Date LAST_DATE = Date.valueOf("9999-12-31");
+
+    private final String username;
+    private final boolean byCaregiver;
+    private final Date from;
+    private final Date to;
+    private final int afterId;
+    private final int limit;
+
+    private AppointmentQuery(AppointmentQueryBuilder builder) {
+        this.username = builder.username;
+        this.byCaregiver = builder.byCaregiver;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.afterId = builder.afterId;
+        this.limit = builder.limit;
+    }
+
+    // Getters
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isByCaregiver() {
+        return byCaregiver;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    // Integer.MAX_VALUE if there is no limit
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean includes(Date date) {
+        return !date.before(from) && !date.after(to);
+    }
+
+    @Override
+    public String toString() {
+        return "AppointmentQuery{" +
+                (byCaregiver ? "caregiver='" : "patient='") + username + '\'' +
+                ", from=" + from +
+                ", to=" + to +
+                ", afterId=" + afterId +
+                ", limit=" + limit +
+                '}';
+    }
+
+    public static class AppointmentQueryBuilder {
+        private final String username;
+        private final boolean byCaregiver;
+        private Date from = FIRST_DATE;
+        private Date to = LAST_DATE;
+        private int afterId = 0;
+        private int limit = Integer.MAX_VALUE;
+
+        // the appointments of a caregiver if byCaregiver, otherwise of a patient
+        public AppointmentQueryBuilder(String username, boolean byCaregiver) {
+            this.username = username;
+            this.byCaregiver = byCaregiver;
+        }
+
+        public AppointmentQueryBuilder from(Date from) {
+            this.from = from;
+            return this;
+        }
+
+        public AppointmentQueryBuilder to(Date to) {
+            this.to = to;
+            return this;
+        }
+
+        public AppointmentQueryBuilder after(int afterId) {
+            this.afterId = afterId;
+            return this;
+        }
+
+        public AppointmentQueryBuilder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentQuery build() {
+            return new AppointmentQuery(this);
+        }
+    }
+}
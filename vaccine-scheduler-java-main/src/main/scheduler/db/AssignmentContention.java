@@ -0,0 +1,74 @@
+package scheduler.db;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// How often reservers collide over the same caregiver, shared by every storage in this JVM.
+// Compare the counters across assignment strategies to measure the contention each one causes.
+public final class AssignmentContention {
+
+    private static final LongAdder reservations = new LongAdder();
+    private static final LongAdder claims = new LongAdder();
+    private static final LongAdder conflicts = new LongAdder();
+    private static final LongAdder fallbacks = new LongAdder();
+    private static final LongAdder deadlockRetries = new LongAdder();
+
+    private AssignmentContention() {
+    }
+
+    // a reservation that found a caregiver
+    static void recordReservation() {
+        reservations.increment();
+    }
+
+    // an attempt to claim one particular caregiver
+    static void recordClaim() {
+        claims.increment();
+    }
+
+    // a claimed caregiver that another reserver had already taken or locked
+    static void recordConflict() {
+        conflicts.increment();
+    }
+
+    // a reservation that gave up on the ranked candidates and took the first free caregiver
+    static void recordFallback() {
+        fallbacks.increment();
+    }
+
+    static void recordDeadlockRetry() {
+        deadlockRetries.increment();
+    }
+
+    public static long getReservations() {
+        return reservations.sum();
+    }
+
+    public static long getClaims() {
+        return claims.sum();
+    }
+
+    public static long getConflicts() {
+        return conflicts.sum();
+    }
+
+    public static long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    public static long getDeadlockRetries() {
+        return deadlockRetries.sum();
+    }
+
+    // conflicts per claim attempt
+    public static double getConflictRate() {
+        long c = claims.sum();
+        return c == 0 ? 0.0 : (double) conflicts.sum() / c;
+    }
+
+    public static String summary() {
+        return "AssignmentContention{reservations=" + getReservations() + ", claims=" + getClaims() +
+                ", conflicts=" + getConflicts() + ", fallbacks=" + getFallbacks() +
+                ", deadlockRetries=" + getDeadlockRetries() +
+                String.format(", conflictRate=%.4f", getConflictRate()) + '}';
+    }
+}
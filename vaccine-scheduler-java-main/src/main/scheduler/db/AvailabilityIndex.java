@@ -0,0 +1,235 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Calendar of which caregivers are available on which day, held in memory.
+//
+// Caregiver usernames are interned to int ids in the order they are first seen, so each day is a compact
+// bitmap and a new caregiver never moves the bits already set. A separate view of the ids in username order
+// gives each id its position, which caregivers(date) sorts the day's ids by.
+public class AvailabilityIndex {
+
+    // the write lock is only taken to intern caregivers; day bitmaps are guarded by their own monitor
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // usernames by id
+    private String[] names = new String[16];
+    private int caregiverCount = 0;
+    private final Map<String, Integer> ids = new HashMap<>();
+    // ids in username order, compared the way SQL Server's default collation orders them, and each id's
+    // place in it
+    private int[] byName = new int[16];
+    private int[] positions = new int[16];
+    private final ConcurrentSkipListMap<Date, BitSet> days = new ConcurrentSkipListMap<>();
+
+    // Register every caregiver up front so the username order is sorted once rather than once per caregiver
+    public void addCaregivers(List<String> usernames) {
+        lock.writeLock().lock();
+        try {
+            int before = caregiverCount;
+            for (String username : usernames) {
+                if (!ids.containsKey(key(username))) {
+                    ids.put(key(username), caregiverCount);
+                    ensureCapacity(caregiverCount + 1);
+                    names[caregiverCount++] = username;
+                }
+            }
+            if (caregiverCount - before == 1) {
+                insertByName(before);
+            } else if (caregiverCount > before) {
+                sortByName();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(Date date, String caregiver) {
+        intern(caregiver);
+        lock.readLock().lock();
+        try {
+            int id = ids.get(key(caregiver));
+            BitSet day = days.computeIfAbsent(date, d -> new BitSet());
+            synchronized (day) {
+                day.set(id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void remove(Date date, String caregiver) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(key(caregiver));
+            BitSet day = days.get(date);
+            if (id != null && day != null) {
+                synchronized (day) {
+                    day.clear(id);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(Date date, String caregiver) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(key(caregiver));
+            BitSet day = days.get(date);
+            if (id == null || day == null) {
+                return false;
+            }
+            synchronized (day) {
+                return day.get(id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // caregivers available on the date, ordered by username
+    public List<String> caregivers(Date date) {
+        lock.readLock().lock();
+        try {
+            BitSet day = days.get(date);
+            if (day == null) {
+                return new ArrayList<>();
+            }
+            // position in the high half, id in the low half, so sorting the longs sorts by username
+            long[] sorted;
+            synchronized (day) {
+                sorted = new long[day.cardinality()];
+                int i = 0;
+                for (int id = day.nextSetBit(0); id >= 0; id = day.nextSetBit(id + 1)) {
+                    sorted[i++] = (long) positions[id] << 32 | id;
+                }
+            }
+            Arrays.sort(sorted);
+            List<String> result = new ArrayList<>(sorted.length);
+            for (long entry : sorted) {
+                result.add(names[(int) entry]);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(Date date) {
+        lock.readLock().lock();
+        try {
+            BitSet day = days.get(date);
+            if (day == null) {
+                return 0;
+            }
+            synchronized (day) {
+                return day.cardinality();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // days that have, or once had, an availability
+    public NavigableSet<Date> dates() {
+        return days.keySet();
+    }
+
+    public int getCaregiverCount() {
+        lock.readLock().lock();
+        try {
+            return caregiverCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDayCount() {
+        return days.size();
+    }
+
+    // Approximate heap used by the bitmaps
+    public long getBitmapBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (BitSet day : days.values()) {
+                synchronized (day) {
+                    bytes += day.size() / 8;
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void intern(String caregiver) {
+        lock.readLock().lock();
+        try {
+            if (ids.containsKey(key(caregiver))) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        addCaregivers(List.of(caregiver));
+    }
+
+    // The methods below are called with the write lock held
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > names.length) {
+            int grown = Math.max(capacity, names.length * 2);
+            names = Arrays.copyOf(names, grown);
+            byName = Arrays.copyOf(byName, grown);
+            positions = Arrays.copyOf(positions, grown);
+        }
+    }
+
+    // Place one new id in the username order by binary search
+    private void insertByName(int id) {
+        int low = 0;
+        int high = id;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(names[byName[mid]], names[id]) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        System.arraycopy(byName, low, byName, low + 1, id - low);
+        byName[low] = id;
+        for (int i = low; i <= id; i++) {
+            positions[byName[i]] = i;
+        }
+    }
+
+    private void sortByName() {
+        Integer[] order = new Integer[caregiverCount];
+        for (int i = 0; i < caregiverCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]));
+        for (int i = 0; i < caregiverCount; i++) {
+            byName[i] = order[i];
+            positions[order[i]] = i;
+        }
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
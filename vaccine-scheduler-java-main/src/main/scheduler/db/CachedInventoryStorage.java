@@ -0,0 +1,508 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps every vaccine's dose count in an atomic counter so lookups rarely reach the Vaccines table.
+//
+// The counter is a hint; the table decides. Doses taken by reserve are still taken from the table by the
+// delegate's conditional decrement, which is what guarantees a dose is never handed out twice. A reservation
+// holds one dose of the counter while the table decides, so a burst for the last few doses sends at most that
+// many reservations to the database. A vaccine with no counter is looked up in the table, and a counter at
+// zero is read again from the table before a reservation is turned away. Doses added (add_doses, cancel) are applied to the counter at once and written behind:
+// increments are coalesced per vaccine and flushed in one batch every flushIntervalMillis, on shutdown, and
+// whenever a reservation needs doses that are still in memory. Increments lost in a crash can only make the
+// table undercount, never oversell.
+//
+// Other processes change the table too, so every refreshIntervalMillis, and whenever the table disagrees with
+// a counter, counters are set from the table. Each stock counts the changes in flight and versions the ones
+// that finished; a counter is only set, by compare-and-set, if no change to its stock was in flight or
+// finished while the table was read, so reservations and other vaccines never wait for a refresh.
+public class CachedInventoryStorage extends ForwardingStorage implements AutoCloseable {
+
+    private final Map<String, Stock> stocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedDoses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong rejectedBeforeReserve = new AtomicLong();
+
+    public CachedInventoryStorage(Storage delegate, long flushIntervalMillis, long refreshIntervalMillis)
+            throws SQLException {
+        this(delegate, flushIntervalMillis, refreshIntervalMillis, readDoses(delegate));
+    }
+
+    // Start from dose counts already known, e.g. restored from a snapshot, instead of reading the table
+    public CachedInventoryStorage(Storage delegate, long flushIntervalMillis, long refreshIntervalMillis,
+                                  Map<String, Integer> doses) {
+        super(delegate);
+        for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+            stocks.put(key(vaccine.getKey()), new Stock(vaccine.getKey(), vaccine.getValue()));
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "inventory-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                                       TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMillis, refreshIntervalMillis,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        delegate.addVaccine(vaccineName, doses);
+        stocks.put(key(vaccineName), new Stock(vaccineName, doses));
+    }
+
+    // a vaccine this process has not seen yet may have been added by another
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        Stock stock = stockFor(vaccineName);
+        return stock == null ? null : stock.toVaccine();
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        List<Vaccine> result = new ArrayList<>();
+        for (Stock stock : new ConcurrentSkipListMap<>(stocks).values()) {
+            result.add(stock.toVaccine());
+        }
+        return result;
+    }
+
+    @Override
+    public ScheduleSummary getScheduleSummary(Date start, Date end) throws SQLException {
+        return delegate.getScheduleSummary(start, end).withVaccines(getVaccines());
+    }
+
+    // The table decides which entries get a dose, so doses still in memory are written first
+    @Override
+    public WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException {
+        List<Stock> entered = enterAll();
+        try {
+            flush();
+            WaitlistPass pass = delegate.matchWaitlist(afterEntryId, maxEntries);
+            for (Appointment appointment : pass.getBooked()) {
+                Stock stock = stocks.get(key(appointment.getVaccineName()));
+                if (stock != null) {
+                    stock.available.decrementAndGet();
+                }
+            }
+            return pass;
+        } finally {
+            exitAll(entered);
+        }
+    }
+
+    // Likewise the table decides which plans get a dose
+    @Override
+    public List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException {
+        List<Stock> entered = enterAll();
+        try {
+            flush();
+            List<Appointment> booked = delegate.bookAppointments(planned);
+            for (Appointment appointment : booked) {
+                Stock stock = stocks.get(key(appointment.getVaccineName()));
+                if (stock != null) {
+                    stock.available.decrementAndGet();
+                }
+            }
+            return booked;
+        } finally {
+            exitAll(entered);
+        }
+    }
+
+    // The delegate gives the dose back in the table itself, in the cancel's transaction
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver)
+            throws SQLException {
+        List<Stock> entered = enterAll();
+        try {
+            Appointment cancelled = delegate.cancelAppointment(appointmentId, owner, byCaregiver);
+            if (cancelled != null) {
+                Stock stock = stocks.get(key(cancelled.getVaccineName()));
+                if (stock != null) {
+                    stock.available.incrementAndGet();
+                }
+            }
+            return cancelled;
+        } finally {
+            exitAll(entered);
+        }
+    }
+
+    // Sets the count outright, so anything not yet flushed is written first and then overwritten
+    @Override
+    public void updateVaccineDoses(String vaccineName, int doses) throws SQLException {
+        Stock stock = stocks.computeIfAbsent(key(vaccineName), k -> new Stock(vaccineName, 0));
+        stock.enter();
+        try {
+            synchronized (this) {
+                flushLocked();
+                delegate.updateVaccineDoses(vaccineName, doses);
+                stock.available.set(doses);
+            }
+        } finally {
+            stock.exit();
+        }
+    }
+
+    // Written behind, see flush
+    @Override
+    public void addDoses(Map<String, Integer> doses) throws SQLException {
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("Doses can only be added, got " + entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            Stock stock = stocks.computeIfAbsent(key(entry.getKey()), k -> new Stock(entry.getKey(), 0));
+            stock.enter();
+            stock.pending.addAndGet(entry.getValue());
+            stock.available.addAndGet(entry.getValue());
+            stock.exit();
+        }
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) throws SQLException {
+        List<Stock> entered = new ArrayList<>(doses.size());
+        for (String vaccineName : doses.keySet()) {
+            Stock stock = stocks.computeIfAbsent(key(vaccineName), k -> new Stock(vaccineName, 0));
+            stock.enter();
+            entered.add(stock);
+        }
+        try {
+            List<Availability> inserted = delegate.importBatch(importName, lastLine, availabilities, doses);
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                stocks.get(key(entry.getKey())).available.addAndGet(entry.getValue());
+            }
+            return inserted;
+        } finally {
+            exitAll(entered);
+        }
+    }
+
+    @Override
+    public ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException {
+        Stock stock = stockFor(vaccineName);
+        if (stock == null) {
+            return ReservationResult.failed(ReservationResult.Status.UNKNOWN_VACCINE);
+        }
+        stock.enter();
+        boolean held = stock.take();
+        if (!held) {
+            // another process may have added doses: read the table's count before giving up
+            stock.exit();
+            boolean checked = resync(stock);
+            stock.enter();
+            held = stock.take();
+            if (!held && checked) {
+                stock.exit();
+                rejectedBeforeReserve.incrementAndGet();
+                return ReservationResult.failed(ReservationResult.Status.NO_DOSES);
+            }
+            // without a dose of the counter the table still decides
+        }
+        ReservationResult result = null;
+        try {
+            result = delegate.reserve(date, patient, vaccineName);
+            if (outOfDoses(result) && stock.pending.get() > 0) {
+                // the dose we hold, or the vaccine itself, has not reached the table yet
+                flush();
+                result = delegate.reserve(date, patient, vaccineName);
+            }
+        } finally {
+            if (held && (result == null || result.getStatus() != ReservationResult.Status.RESERVED)) {
+                stock.available.incrementAndGet();
+            }
+            stock.exit();
+        }
+        ReservationResult.Status status = result.getStatus();
+        if ((held && status == ReservationResult.Status.NO_DOSES && stock.pending.get() == 0) ||
+            (!held && status == ReservationResult.Status.RESERVED)) {
+            // the table and the counter disagree: another process took or added doses
+            resync(stock);
+        }
+        return result;
+    }
+
+    // Write every vaccine's unflushed increments in one batch
+    public void flush() throws SQLException {
+        synchronized (this) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() throws SQLException {
+        Map<Stock, Integer> batch = new HashMap<>();
+        Map<String, Integer> doses = new HashMap<>();
+        for (Stock stock : stocks.values()) {
+            int delta = stock.pending.get();
+            if (delta != 0) {
+                batch.put(stock, delta);
+                doses.put(stock.name, delta);
+            }
+        }
+        if (doses.isEmpty()) {
+            return;
+        }
+        List<Stock> entered = new ArrayList<>(batch.keySet());
+        entered.forEach(Stock::enter);
+        try {
+            delegate.addDoses(doses);
+            // increments made while the batch was written stay pending for the next flush
+            for (Map.Entry<Stock, Integer> entry : batch.entrySet()) {
+                entry.getKey().pending.addAndGet(-entry.getValue());
+                flushedDoses.addAndGet(entry.getValue());
+            }
+        } finally {
+            exitAll(entered);
+        }
+        flushes.incrementAndGet();
+    }
+
+    // Set every counter from the table, and pick up vaccines added by other processes
+    public void refresh() throws SQLException {
+        Map<Stock, Mark> marks = new HashMap<>();
+        for (Stock stock : stocks.values()) {
+            marks.put(stock, stock.mark());
+        }
+        Map<String, Integer> stored = readDoses(delegate);
+        for (Map.Entry<String, Integer> vaccine : stored.entrySet()) {
+            Stock stock = stocks.computeIfAbsent(key(vaccine.getKey()),
+                                                 k -> new Stock(vaccine.getKey(), vaccine.getValue()));
+            Mark mark = marks.get(stock);
+            if (mark != null) {
+                stock.setIfUnchanged(mark, vaccine.getValue());
+            }
+        }
+        refreshes.incrementAndGet();
+    }
+
+    // Stop the background flusher and write what is left
+    @Override
+    public void close() throws SQLException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    // Metrics
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public long getFlushedDoses() {
+        return flushedDoses.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public int getPendingDoses() {
+        int pending = 0;
+        for (Stock stock : stocks.values()) {
+            pending += stock.pending.get();
+        }
+        return pending;
+    }
+
+    public long getRejectedBeforeReserve() {
+        return rejectedBeforeReserve.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CachedInventoryStorage{vaccines=" + stocks.size() + ", pendingDoses=" + getPendingDoses() +
+                ", flushes=" + getFlushCount() + ", flushedDoses=" + getFlushedDoses() +
+                ", refreshes=" + getRefreshCount() +
+                ", rejectedBeforeReserve=" + getRejectedBeforeReserve() + '}';
+    }
+
+    // The stock of a vaccine, read from the table if this process has not seen it; null if there is none
+    private Stock stockFor(String vaccineName) throws SQLException {
+        Stock stock = stocks.get(key(vaccineName));
+        if (stock != null) {
+            return stock;
+        }
+        Vaccine stored;
+        ConnectionManager.PrimaryScope primary = ConnectionManager.readFromPrimary();
+        try {
+            stored = delegate.getVaccine(vaccineName);
+        } finally {
+            primary.close();
+        }
+        if (stored == null) {
+            return null;
+        }
+        return stocks.computeIfAbsent(key(vaccineName),
+                                      k -> new Stock(stored.getVaccineName(), stored.getAvailableDoses()));
+    }
+
+    // Set one counter from the table, unless a change to the stock is in flight or lands meanwhile.
+    // Returns false if the table was not read.
+    private boolean resync(Stock stock) throws SQLException {
+        Mark mark = stock.mark();
+        if (mark == null) {
+            return false;
+        }
+        Vaccine stored;
+        ConnectionManager.PrimaryScope primary = ConnectionManager.readFromPrimary();
+        try {
+            stored = delegate.getVaccine(stock.name);
+        } finally {
+            primary.close();
+        }
+        if (stored != null) {
+            stock.setIfUnchanged(mark, stored.getAvailableDoses());
+        }
+        return true;
+    }
+
+    // Every stock, marked as changing until exitAll; for changes whose vaccine is only known afterwards
+    private List<Stock> enterAll() {
+        List<Stock> entered = new ArrayList<>(stocks.values());
+        entered.forEach(Stock::enter);
+        return entered;
+    }
+
+    private static void exitAll(List<Stock> entered) {
+        entered.forEach(Stock::exit);
+    }
+
+    // a failure that doses not yet written to the table might turn into a reservation
+    private static boolean outOfDoses(ReservationResult result) {
+        return result.getStatus() == ReservationResult.Status.NO_DOSES ||
+               result.getStatus() == ReservationResult.Status.UNKNOWN_VACCINE;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | RuntimeException e) {
+            // the increments stay pending and are retried on the next tick
+            System.out.println("Unable to flush vaccine doses, retrying shortly");
+            e.printStackTrace();
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (SQLException | RuntimeException e) {
+            // the counters stay as they are until the next tick
+            System.out.println("Unable to refresh the vaccine inventory, retrying shortly");
+            e.printStackTrace();
+        }
+    }
+
+    // vaccine name to the doses in the table, read from the primary since the counters start from them
+    static Map<String, Integer> readDoses(Storage storage) throws SQLException {
+        Map<String, Integer> doses = new HashMap<>();
+        ConnectionManager.PrimaryScope primary = ConnectionManager.readFromPrimary();
+        try {
+            for (Vaccine vaccine : storage.getVaccines()) {
+                doses.put(vaccine.getVaccineName(), vaccine.getAvailableDoses());
+            }
+        } finally {
+            primary.close();
+        }
+        return doses;
+    }
+
+    private static String key(String vaccineName) {
+        return vaccineName.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Stock {
+        private final String name;
+        // doses in the table plus pending, minus doses held by reservations in flight
+        private final AtomicInteger available;
+        // increments not yet written to the table
+        private final AtomicInteger pending = new AtomicInteger();
+        // changes to the stock in flight, and how many have finished
+        private final AtomicInteger changing = new AtomicInteger();
+        private final AtomicLong version = new AtomicLong();
+
+        private Stock(String name, int doses) {
+            this.name = name;
+            this.available = new AtomicInteger(doses);
+        }
+
+        // take one dose unless there are none left
+        private boolean take() {
+            int current;
+            do {
+                current = available.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!available.compareAndSet(current, current - 1));
+            return true;
+        }
+
+        private void enter() {
+            changing.incrementAndGet();
+        }
+
+        private void exit() {
+            version.incrementAndGet();
+            changing.decrementAndGet();
+        }
+
+        // taken before the table is read; null if a change is in flight, which will move the counter anyway
+        private Mark mark() {
+            if (changing.get() > 0) {
+                return null;
+            }
+            return new Mark(version.get(), available.get());
+        }
+
+        // the counter becomes the table's count plus what is still pending, if nothing changed since the mark
+        private void setIfUnchanged(Mark mark, int stored) {
+            if (changing.get() == 0 && version.get() == mark.version) {
+                available.compareAndSet(mark.available, stored + pending.get());
+            }
+        }
+
+        private Vaccine toVaccine() throws SQLException {
+            return new Vaccine.VaccineBuilder(name, Math.max(0, available.get())).build();
+        }
+    }
+
+    private static class Mark {
+        private final long version;
+        private final int available;
+
+        private Mark(long version, int available) {
+            this.version = version;
+            this.available = available;
+        }
+    }
+}
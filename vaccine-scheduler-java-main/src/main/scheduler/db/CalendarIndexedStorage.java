@@ -0,0 +1,311 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Answers caregiver availability searches from an in-memory AvailabilityIndex instead of the
+// Availabilities table. The index is built from the table when this storage is created and kept up to
+// date by writing through every change made via this storage.
+//
+// A change reaches the index after the delegate has committed it, ordered by a SlotOrder: if it may have been
+// overtaken by a change of the same slot, the slot is set as the table has it instead.
+//
+// Changes made by other processes never pass through here, so the index is also rebuilt from the table every
+// refresh interval. Slots changed while a rebuild reads the table are read back once the new index is in place.
+public class CalendarIndexedStorage extends ForwardingStorage implements AutoCloseable {
+
+    private volatile AvailabilityIndex index;
+    private final SlotOrder order = new SlotOrder();
+    // while a rebuild reads the table, the slots changed since it started, by date; null otherwise
+    private volatile Map<Date, Set<String>> touched = null;
+    private final Object rebuilding = new Object();
+    private final ScheduledExecutorService refresher;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong readBacks = new AtomicLong();
+
+    public CalendarIndexedStorage(Storage delegate, long refreshIntervalMillis) throws SQLException {
+        this(delegate, refreshIntervalMillis, build(delegate));
+    }
+
+    // Start from an index built elsewhere, e.g. restored from a snapshot, instead of reading the table
+    public CalendarIndexedStorage(Storage delegate, long refreshIntervalMillis, AvailabilityIndex index) {
+        super(delegate);
+        this.index = index;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "calendar-refresher");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(this::reloadQuietly, refreshIntervalMillis, refreshIntervalMillis,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    public AvailabilityIndex getIndex() {
+        return index;
+    }
+
+    // Rebuild the index from the table, searches keep using the old one until the new one is ready
+    public void reload() throws SQLException {
+        synchronized (rebuilding) {
+            // set before the table is read, so every change applied to the old index from here on is noted
+            Map<Date, Set<String>> changed = new ConcurrentHashMap<>();
+            touched = changed;
+            AvailabilityIndex fresh;
+            try {
+                fresh = build(delegate);
+            } catch (SQLException | RuntimeException e) {
+                touched = null;
+                throw e;
+            }
+            order.lockAll();
+            try {
+                index = fresh;
+                touched = null;
+            } finally {
+                order.unlockAll();
+            }
+            // the table may have been read before some of them committed
+            for (Map.Entry<Date, Set<String>> day : changed.entrySet()) {
+                order.readBack(day.getKey(), () -> readBack(day.getKey(), day.getValue()));
+            }
+            reloads.incrementAndGet();
+        }
+    }
+
+    // Stop the background rebuilds
+    @Override
+    public void close() {
+        refresher.shutdown();
+        try {
+            refresher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Compare the index with the table. Returns up to maxReported differences, empty if they agree.
+    // Writes made while the check runs can show up as differences.
+    public List<String> verify(int maxReported) throws SQLException {
+        AvailabilityIndex current = index;
+        AvailabilityIndex table = build(delegate);
+        List<String> differences = new ArrayList<>();
+        TreeSet<Date> dates = new TreeSet<>(current.dates());
+        dates.addAll(table.dates());
+        for (Date date : dates) {
+            TreeSet<String> expected = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            expected.addAll(table.caregivers(date));
+            TreeSet<String> actual = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            actual.addAll(current.caregivers(date));
+            for (String caregiver : expected) {
+                if (!actual.contains(caregiver) && differences.size() < maxReported) {
+                    differences.add(date + " " + caregiver + " is in the table but not in the index");
+                }
+            }
+            for (String caregiver : actual) {
+                if (!expected.contains(caregiver) && differences.size() < maxReported) {
+                    differences.add(date + " " + caregiver + " is in the index but not in the table");
+                }
+            }
+            if (differences.size() >= maxReported) {
+                break;
+            }
+        }
+        return differences;
+    }
+
+    @Override
+    public void addCaregiver(Caregiver caregiver) throws SQLException {
+        delegate.addCaregiver(caregiver);
+        index.addCaregivers(List.of(caregiver.getUsername()));
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiver) throws SQLException {
+        long[] started = order.started(true);
+        delegate.addAvailability(date, caregiver);
+        apply(date, caregiver, true, started);
+    }
+
+    @Override
+    public List<Availability> addAvailabilities(List<Availability> availabilities) throws SQLException {
+        long[] started = order.started(true);
+        List<Availability> inserted = delegate.addAvailabilities(availabilities);
+        indexAll(inserted, started);
+        return inserted;
+    }
+
+    @Override
+    public void removeAvailability(Date date, String caregiver) throws SQLException {
+        long[] started = order.started(false);
+        delegate.removeAvailability(date, caregiver);
+        apply(date, caregiver, false, started);
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) {
+        return index.caregivers(date);
+    }
+
+    // counted from the index; the doses still come from the delegate
+    @Override
+    public ScheduleSummary getScheduleSummary(Date start, Date end) throws SQLException {
+        AvailabilityIndex current = index;
+        SortedMap<Date, Integer> counts = new TreeMap<>();
+        for (Date date : current.dates().subSet(start, true, end, true)) {
+            int count = current.count(date);
+            if (count > 0) {
+                counts.put(date, count);
+            }
+        }
+        return new ScheduleSummary(counts, delegate.getVaccines());
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) throws SQLException {
+        long[] started = order.started(true);
+        List<Availability> inserted = delegate.importBatch(importName, lastLine, availabilities, doses);
+        indexAll(inserted, started);
+        return inserted;
+    }
+
+    @Override
+    public ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException {
+        long[] started = order.started(false);
+        ReservationResult result = delegate.reserve(date, patient, vaccineName);
+        if (result.getStatus() == ReservationResult.Status.RESERVED) {
+            apply(date, result.getAppointment().getCaregiverName(), false, started);
+        }
+        return result;
+    }
+
+    @Override
+    public WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException {
+        long[] started = order.started(false);
+        WaitlistPass pass = delegate.matchWaitlist(afterEntryId, maxEntries);
+        for (Appointment appointment : pass.getBooked()) {
+            apply(appointment.getDate(), appointment.getCaregiverName(), false, started);
+        }
+        return pass;
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver)
+            throws SQLException {
+        long[] started = order.started(true);
+        Appointment cancelled = delegate.cancelAppointment(appointmentId, owner, byCaregiver);
+        if (cancelled != null) {
+            apply(cancelled.getDate(), cancelled.getCaregiverName(), true, started);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException {
+        long[] started = order.started(false);
+        List<Appointment> booked = delegate.bookAppointments(planned);
+        for (Appointment appointment : booked) {
+            apply(appointment.getDate(), appointment.getCaregiverName(), false, started);
+        }
+        return booked;
+    }
+
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    // How many changes were read back from the table rather than applied, because a change of the other kind
+    // reached the index while they were being made
+    public long getReadBackCount() {
+        return readBacks.get();
+    }
+
+    // Index the rows the delegate inserted; those it skipped are either in the index already or name an
+    // unknown caregiver
+    private void indexAll(List<Availability> inserted, long[] started) throws SQLException {
+        for (Availability availability : inserted) {
+            apply(availability.getDate(), availability.getCaregiverName(), true, started);
+        }
+    }
+
+    // Bring a committed change into the index: as made, or as the table now has it if it may have been overtaken
+    private void apply(Date date, String caregiver, boolean frees, long[] started) throws SQLException {
+        boolean readBack = order.apply(date, frees, started, () -> change(date, caregiver, frees), () -> {
+            try {
+                readBack(date, Set.of(caregiver));
+            } catch (SQLException e) {
+                // the change itself is committed; the next rebuild corrects the slot if this was wrong
+                System.out.println("Unable to read back " + caregiver + " on " + date + " for the calendar index");
+                e.printStackTrace();
+                change(date, caregiver, frees);
+            }
+        });
+        if (readBack) {
+            readBacks.incrementAndGet();
+        }
+    }
+
+    private void change(Date date, String caregiver, boolean frees) {
+        if (frees) {
+            index.add(date, caregiver);
+        } else {
+            index.remove(date, caregiver);
+        }
+        note(date, caregiver);
+    }
+
+    // Set the caregivers' slots on the date as the table has them; run with the date's stripe locked
+    private void readBack(Date date, Set<String> caregivers) throws SQLException {
+        Set<String> table = SlotOrder.readDay(delegate, date);
+        for (String caregiver : caregivers) {
+            if (table.contains(caregiver)) {
+                index.add(date, caregiver);
+            } else {
+                index.remove(date, caregiver);
+            }
+            note(date, caregiver);
+        }
+    }
+
+    // Remember a slot changed while a rebuild is reading the table
+    private void note(Date date, String caregiver) {
+        Map<Date, Set<String>> changed = touched;
+        if (changed != null) {
+            changed.computeIfAbsent(date, d -> ConcurrentHashMap.newKeySet()).add(caregiver);
+        }
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("Unable to rebuild the availability calendar index, keeping the old one");
+            e.printStackTrace();
+        }
+    }
+
+    private static AvailabilityIndex build(Storage storage) throws SQLException {
+        AvailabilityIndex fresh = new AvailabilityIndex();
+        List<String> caregivers = new ArrayList<>();
+        storage.forEachCaregiverUsername(caregivers::add);
+        fresh.addCaregivers(caregivers);
+        storage.forEachAvailability(a -> fresh.add(a.getDate(), a.getCaregiverName()));
+        return fresh;
+    }
+}
@@ -0,0 +1,47 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.util.List;
+import java.util.Locale;
+
+// Decides which of the caregivers available on a day a reservation is booked with.
+// Reservers try the candidates in the order given and move on when another reserver got there first,
+// so strategies that hand concurrent reservers different caregivers cut contention on the same row.
+public interface CaregiverAssignmentStrategy {
+
+    // Candidates offered to rank: the first caregivers of the day in username order, at most this many.
+    // Caregivers leave the window as they are booked for the day, so everyone gets a turn.
+    int CANDIDATE_WINDOW = 16;
+    // ranked candidates a reservation tries before taking the first free caregiver
+    int MAX_CLAIM_ATTEMPTS = 3;
+
+    // The candidate caregivers for the date in the order they should be tried. Only the first
+    // MAX_CLAIM_ATTEMPTS are ever tried, so the list may stop there.
+    List<String> rank(Date date, List<String> available);
+
+    // Called once a reservation has been booked with the caregiver
+    default void booked(Date date, String caregiver) {
+    }
+
+    // The strategy named by the AssignmentStrategy environment variable, least-booked by default
+    static CaregiverAssignmentStrategy fromEnv() {
+        return fromName(System.getenv("AssignmentStrategy"));
+    }
+
+    // "first", "least-booked" or "round-robin"
+    static CaregiverAssignmentStrategy fromName(String name) {
+        if (name == null || name.isEmpty()) {
+            return new LeastBookedAssignment();
+        }
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "first":
+                return new FirstAvailableAssignment();
+            case "least-booked":
+                return new LeastBookedAssignment();
+            case "round-robin":
+                return new RoundRobinAssignment();
+            default:
+                throw new IllegalArgumentException("Unknown assignment strategy: " + name);
+        }
+    }
+}
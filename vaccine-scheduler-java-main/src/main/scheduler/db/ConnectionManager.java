@@ -1,41 +1,324 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
+// Leases pooled connections to the primary database, or, for reads, to a read replica.
+// Replicas are listed in ReadReplicas as comma-separated server names beside Server, sharing DBName and the
+// credentials, and are opened with applicationIntent=ReadOnly (so listing Server itself uses Azure read scale-out).
+// Each caller says at the call site whether it reads (Intent.READ, which may be answered by a replica up to
+// ReplicaMaxLagMillis behind, default 5000), reads what must see every committed write (Intent.READ_PRIMARY) or
+// writes (Intent.WRITE); the last two always go to the primary. After a client commits a write, its reads go to
+// the primary until the lag bound has passed, so a session always sees its own reservations and cancellations.
+// Each client keeps the time of its last commit in a WriteClock (Session holds one) and binds it to the thread
+// running each of its commands with useClock; threads with none bound keep their own.
+// See ReadReplicas for health checks, every ReplicaHealthCheckSeconds (default 10), and failover.
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    // what a lease is for, which decides the endpoint it comes from
+    public enum Intent {
+        READ,
+        READ_PRIMARY,
+        WRITE
+    }
+
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static final String connectionUrl = urlFor(System.getenv("Server"));
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
+
+    // pool settings, all optional
+    private static final int minPoolSize = intFromEnv("PoolMinSize", 1);
+    private static final int maxPoolSize = intFromEnv("PoolMaxSize", 10);
+    private static final long idleTimeoutMillis = intFromEnv("PoolIdleTimeoutSeconds", 300) * 1000L;
+    private static final long leaseTimeoutMillis = intFromEnv("PoolLeaseTimeoutMillis", 5000);
+    // prepared statements kept per connection; the reservation transaction alone uses four
+    private static final int statementCacheSize = Math.max(8, intFromEnv("StatementCacheSize", 32));
+
+    // replica settings, all optional
+    private static final String replicaNames = System.getenv("ReadReplicas");
+    private static final long replicaMaxLagNanos = intFromEnv("ReplicaMaxLagMillis", 5000) * 1_000_000L;
+    private static final long healthCheckMillis = Math.max(1, intFromEnv("ReplicaHealthCheckSeconds", 10)) * 1000L;
 
+    // shared by every ConnectionManager in this JVM, created on first use
+    private static volatile ConnectionPool pool = null;
+    private static volatile ReadReplicas replicas = null;
+    private static volatile boolean replicasChecked = false;
+
+    // the clock of the client this thread is running a command for, see useClock
+    private static final ThreadLocal<WriteClock> writeClock = ThreadLocal.withInitial(WriteClock::new);
+    // open readFromPrimary scopes on this thread
+    private static final ThreadLocal<Integer> primaryScopes = ThreadLocal.withInitial(() -> 0);
+
+    private final Intent intent;
     private Connection con = null;
+    // the pool con was leased from
+    private ConnectionPool leasedFrom = null;
+    // whether a write was committed on con, see commit
+    private boolean committed = false;
 
+    // For writes, see Intent
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
-        }
+        this(Intent.WRITE);
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    public ConnectionManager(Intent intent) {
+        this.intent = intent;
+    }
+
+    // Lease a connection from the pool the intent is routed to; it must be handed back with closeConnection().
+    // Throws if none can be had, SQLTimeoutException if the pool stayed exhausted for the lease timeout.
+    public Connection createConnection() throws SQLException {
+        ConnectionPool target = getPool();
+        if (intent == Intent.READ) {
+            ReadReplicas r = getReplicas();
+            if (r != null) {
+                if (mustReadPrimary()) {
+                    r.pinnedToPrimary();
+                } else {
+                    for (ReadReplicas.Replica replica : r.inTurn()) {
+                        try {
+                            con = replica.borrow();
+                            leasedFrom = replica.getPool();
+                            return con;
+                        } catch (SQLException e) {
+                            // the replica is down or busy, try the next one
+                        }
+                    }
+                    r.fellBack();
+                }
+            }
         }
+        con = target.borrow();
+        leasedFrom = target;
         return con;
     }
 
+    // The leased connection's cached statement for sql, see StatementCache.prepare.
+    // Each statement is prepared for one execution, so this is where round trips are counted.
+    public PreparedStatement prepare(SqlStatement sql) throws SQLException {
+        if (con == null) {
+            throw new SQLException("No database connection");
+        }
+        Metrics.roundTrip();
+        return leasedFrom.getStatementCache(con).prepare(sql);
+    }
+
+    // Commit the transaction, or note that a statement run with auto-commit has, so that the client's reads see
+    // the write once the connection is handed back. Leases that only roll back never call this.
+    public void commit() throws SQLException {
+        if (con == null) {
+            throw new SQLException("No database connection");
+        }
+        if (!con.getAutoCommit()) {
+            con.commit();
+        }
+        committed = true;
+    }
+
     public void closeConnection() {
+        if (con != null) {
+            leasedFrom.release(con);
+            con = null;
+            leasedFrom = null;
+            if (committed) {
+                committed = false;
+                writeClock.get().committed();
+            }
+        }
+    }
+
+    // Record commits on this thread in the client's clock, and route its reads by it, until the returned scope is
+    // closed
+    public static ClockScope useClock(WriteClock clock) {
+        ClockScope scope = new ClockScope(writeClock.get());
+        writeClock.set(clock);
+        return scope;
+    }
+
+    // Send this thread's reads to the primary until the returned scope is closed, for callers that must see every
+    // committed write, such as caches loading what they hold
+    public static PrimaryScope readFromPrimary() {
+        primaryScopes.set(primaryScopes.get() + 1);
+        return new PrimaryScope();
+    }
+
+    // The most connections the primary's pool opens, so callers running queries side by side can stay within it
+    public static int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    // Whether anything has used the database yet, so reporting on the pool does not open it
+    public static boolean hasPool() {
+        return pool != null;
+    }
+
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (ConnectionManager.class) {
+                p = pool;
+                if (p == null) {
+                    try {
+                        Class.forName(driverName);
+                    } catch (ClassNotFoundException e) {
+                        System.out.println(e.toString());
+                    }
+                    p = new ConnectionPool(connectionUrl, userName, userPass, minPoolSize, maxPoolSize,
+                                           idleTimeoutMillis, leaseTimeoutMillis, statementCacheSize);
+                    Metrics.register("ConnectionPool", "default", p);
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    // Lease every connection from the given pool instead of one for Server, with no replicas, e.g. to run
+    // against an embedded database. Call before anything has leased a connection.
+    public static void usePool(ConnectionPool p) {
+        synchronized (ConnectionManager.class) {
+            pool = p;
+            replicas = null;
+            replicasChecked = true;
+        }
+    }
+
+    // The replicas reads are spread over, or null if none are configured
+    public static ReadReplicas getReplicas() {
+        if (replicasChecked) {
+            return replicas;
+        }
+        synchronized (ConnectionManager.class) {
+            if (!replicasChecked) {
+                replicas = createReplicas();
+                replicasChecked = true;
+            }
+        }
+        return replicas;
+    }
+
+    // Close all idle connections; only does anything if the pool was ever used
+    public static void shutdown() {
+        synchronized (ConnectionManager.class) {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+            if (replicas != null) {
+                replicas.shutdown();
+                replicas = null;
+            }
+            replicasChecked = false;
+        }
+    }
+
+    private static boolean mustReadPrimary() {
+        if (primaryScopes.get() > 0) {
+            return true;
+        }
+        return writeClock.get().committedWithin(replicaMaxLagNanos);
+    }
+
+    private static ReadReplicas createReplicas() {
+        if (replicaNames == null || replicaNames.trim().isEmpty()) {
+            return null;
+        }
+        getPool();
+        List<ReadReplicas.Replica> list = new ArrayList<>();
+        for (String name : replicaNames.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            // a replica does not hold connections open while it is not read from
+            ConnectionPool replicaPool = new ConnectionPool(urlFor(name) + ";applicationIntent=ReadOnly", userName,
+                                                            userPass, 0, maxPoolSize, idleTimeoutMillis,
+                                                            leaseTimeoutMillis, statementCacheSize);
+            Metrics.register("ConnectionPool", "replica-" + list.size(), replicaPool);
+            list.add(new ReadReplicas.Replica(name, replicaPool));
+        }
+        return list.isEmpty() ? null : new ReadReplicas(list, healthCheckMillis);
+    }
+
+    private static String urlFor(String server) {
+        return "jdbc:sqlserver://" + server + ".database.windows.net:1433;database=" + System.getenv("DBName");
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
         try {
-            this.con.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // When a client last committed a write
+    public static class WriteClock {
+        // System.nanoTime() of the last commit, null before the first
+        private Long lastCommit = null;
+
+        private synchronized void committed() {
+            lastCommit = System.nanoTime();
+        }
+
+        // Take on the other clock's last commit if it is later, for a client that must see what another wrote
+        public synchronized void advanceTo(WriteClock other) {
+            Long theirs = other.lastCommitted();
+            if (theirs != null && (lastCommit == null || theirs - lastCommit > 0)) {
+                lastCommit = theirs;
+            }
+        }
+
+        private synchronized Long lastCommitted() {
+            return lastCommit;
+        }
+
+        private synchronized boolean committedWithin(long nanos) {
+            return lastCommit != null && System.nanoTime() - lastCommit < nanos;
+        }
+    }
+
+    public static class ClockScope implements AutoCloseable {
+        // the clock bound before, put back on close
+        private final WriteClock previous;
+        private boolean closed = false;
+
+        private ClockScope(WriteClock previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                writeClock.set(previous);
+            }
+        }
+    }
+
+    public static class PrimaryScope implements AutoCloseable {
+        private boolean closed = false;
+
+        private PrimaryScope() {
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                primaryScopes.set(primaryScopes.get() - 1);
+            }
         }
     }
 }
@@ -0,0 +1,347 @@
+package scheduler.db;
+
+import scheduler.metrics.LatencyHistogram;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConnectionPool implements ConnectionPoolMXBean {
+
+    // idle connections are only re-validated against the server once they have been unused for this long
+    private static final long VALIDATION_INTERVAL_MILLIS = 30_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 15_000;
+
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long leaseTimeoutMillis;
+    private final int statementCacheSize;
+
+    // one permit per connection that may be leased, so at most maxSize connections are ever open
+    private final Semaphore permits;
+    // most recently returned connections are at the head, so the tail holds the ones idle the longest
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+
+    // metrics
+    private final LongAdder leaseCount = new LongAdder();
+    private final LongAdder leaseTimeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder invalidatedCount = new LongAdder();
+    private final LongAdder totalLeaseWaitNanos = new LongAdder();
+    private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+    private final LongAdder connectFailureCount = new LongAdder();
+    // time taken to open each new connection
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+
+    public ConnectionPool(String connectionUrl, String userName, String userPass, int minSize, int maxSize,
+                          long idleTimeoutMillis, long leaseTimeoutMillis, int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.connectionUrl = connectionUrl;
+        this.userName = userName;
+        this.userPass = userPass;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        this.maintenance.scheduleWithFixedDelay(this::maintain, 0, MAINTENANCE_INTERVAL_MILLIS,
+                                                TimeUnit.MILLISECONDS);
+    }
+
+    // Lease a connection, waiting at most leaseTimeoutMillis for one to become free
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                leaseTimeoutCount.increment();
+                throw new SQLTimeoutException("Timed out after " + leaseTimeoutMillis +
+                                              " ms waiting for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        recordLeaseWait(System.nanoTime() - start);
+        try {
+            IdleConnection candidate;
+            while ((candidate = idle.pollFirst()) != null) {
+                if (isUsable(candidate)) {
+                    leaseCount.increment();
+                    return candidate.connection;
+                }
+                invalidatedCount.increment();
+                discard(candidate.connection);
+            }
+            Connection con = open();
+            leaseCount.increment();
+            return con;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Hand a leased connection back to the pool
+    public void release(Connection con) {
+        if (con == null) {
+            return;
+        }
+        try {
+            if (closed || con.isClosed()) {
+                discard(con);
+                return;
+            }
+            // never let one lease's transaction state leak into the next
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            idle.offerFirst(new IdleConnection(con, System.currentTimeMillis()));
+        } catch (SQLException e) {
+            invalidatedCount.increment();
+            discard(con);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public void shutdown() {
+        closed = true;
+        maintenance.shutdownNow();
+        IdleConnection c;
+        while ((c = idle.pollFirst()) != null) {
+            discard(c.connection);
+        }
+    }
+
+    // The prepared statements cached for a connection leased from this pool
+    public StatementCache getStatementCache(Connection con) {
+        return statementCaches.computeIfAbsent(con, c -> new StatementCache(c, statementCacheSize));
+    }
+
+    private Connection open() throws SQLException {
+        long start = System.nanoTime();
+        Connection con;
+        try {
+            con = QueryTracer.getInstance().trace(DriverManager.getConnection(connectionUrl, userName, userPass));
+        } catch (SQLException e) {
+            connectFailureCount.increment();
+            throw e;
+        } finally {
+            connectTime.record(System.nanoTime() - start);
+        }
+        statementCaches.put(con, new StatementCache(con, statementCacheSize));
+        openCount.incrementAndGet();
+        createdCount.increment();
+        return con;
+    }
+
+    private void discard(Connection con) {
+        openCount.decrementAndGet();
+        StatementCache statements = statementCaches.remove(con);
+        if (statements != null) {
+            statements.close();
+        }
+        try {
+            con.close();
+        } catch (SQLException e) {
+            // the connection is being thrown away anyway
+        }
+    }
+
+    private boolean isUsable(IdleConnection c) {
+        try {
+            if (c.connection.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - c.idleSince < VALIDATION_INTERVAL_MILLIS) {
+                return true;
+            }
+            return c.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Evict connections idle past the timeout, then top the pool back up to its minimum size
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        Iterator<IdleConnection> it = idle.descendingIterator();
+        while (it.hasNext() && openCount.get() > minSize) {
+            IdleConnection c = it.next();
+            if (now - c.idleSince >= idleTimeoutMillis && idle.remove(c)) {
+                evictedCount.increment();
+                discard(c.connection);
+            }
+        }
+        while (!closed && openCount.get() < minSize && permits.tryAcquire()) {
+            try {
+                idle.offerLast(new IdleConnection(open(), now));
+            } catch (SQLException e) {
+                System.out.println("Unable to open pooled connection: " + e.getMessage());
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void recordLeaseWait(long nanos) {
+        totalLeaseWaitNanos.add(nanos);
+        maxLeaseWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Getters for pool metrics
+    @Override
+    public int getMinSize() {
+        return minSize;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getOpenCount() {
+        return openCount.get();
+    }
+
+    @Override
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public int getLeasedCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    @Override
+    public long getLeaseCount() {
+        return leaseCount.sum();
+    }
+
+    @Override
+    public long getLeaseTimeoutCount() {
+        return leaseTimeoutCount.sum();
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    @Override
+    public long getConnectFailureCount() {
+        return connectFailureCount.sum();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    @Override
+    public long getInvalidatedCount() {
+        return invalidatedCount.sum();
+    }
+
+    @Override
+    public double getAverageLeaseWaitMillis() {
+        long leases = leaseCount.sum();
+        return leases == 0 ? 0.0 : totalLeaseWaitNanos.sum() / (leases * 1_000_000.0);
+    }
+
+    @Override
+    public double getMaxLeaseWaitMillis() {
+        return maxLeaseWaitNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public double getConnectP50Millis() {
+        return connectTime.getPercentileNanos(0.50) / 1_000_000.0;
+    }
+
+    @Override
+    public double getConnectP99Millis() {
+        return connectTime.getPercentileNanos(0.99) / 1_000_000.0;
+    }
+
+    @Override
+    public double getConnectMaxMillis() {
+        return connectTime.getMaxNanos() / 1_000_000.0;
+    }
+
+    @Override
+    public double getStatementCacheHitRatio() {
+        return StatementCache.getHitRatio();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "open=" + getOpenCount() +
+                ", idle=" + getIdleCount() +
+                ", leased=" + getLeasedCount() +
+                ", min=" + minSize +
+                ", max=" + maxSize +
+                ", leases=" + getLeaseCount() +
+                ", leaseTimeouts=" + getLeaseTimeoutCount() +
+                ", created=" + getCreatedCount() +
+                ", connectFailures=" + getConnectFailureCount() +
+                String.format(", connectP50Ms=%.3f, connectP99Ms=%.3f", getConnectP50Millis(),
+                              getConnectP99Millis()) +
+                ", evicted=" + getEvictedCount() +
+                ", invalidated=" + getInvalidatedCount() +
+                String.format(", avgLeaseWaitMs=%.3f, maxLeaseWaitMs=%.3f",
+                              getAverageLeaseWaitMillis(), getMaxLeaseWaitMillis()) +
+                ", statementHits=" + StatementCache.getHitCount() +
+                ", statementMisses=" + StatementCache.getMissCount() +
+                ", statementEvictions=" + StatementCache.getEvictionCount() +
+                '}';
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long idleSince;
+
+        private IdleConnection(Connection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package scheduler.db;
+
+// JMX view of the connection pool, registered as scheduler:type=ConnectionPool,name=default
+public interface ConnectionPoolMXBean {
+
+    int getMinSize();
+
+    int getMaxSize();
+
+    int getOpenCount();
+
+    int getIdleCount();
+
+    int getLeasedCount();
+
+    long getLeaseCount();
+
+    long getLeaseTimeoutCount();
+
+    long getCreatedCount();
+
+    long getConnectFailureCount();
+
+    long getEvictedCount();
+
+    long getInvalidatedCount();
+
+    double getAverageLeaseWaitMillis();
+
+    double getMaxLeaseWaitMillis();
+
+    double getConnectP50Millis();
+
+    double getConnectP99Millis();
+
+    double getConnectMaxMillis();
+
+    double getStatementCacheHitRatio();
+}
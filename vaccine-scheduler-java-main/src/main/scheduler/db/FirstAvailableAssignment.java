@@ -0,0 +1,19 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.util.List;
+
+// The alphabetically first available caregiver, the scheduler's original behaviour.
+// Every reserver for a day goes for the same caregiver first.
+public class FirstAvailableAssignment implements CaregiverAssignmentStrategy {
+
+    @Override
+    public List<String> rank(Date date, List<String> available) {
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return "first";
+    }
+}
@@ -0,0 +1,192 @@
+package scheduler.db;
+
+import scheduler.journal.SchedulerState;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Storage that passes every call through to another one. In-process caches extend it and override
+// only the calls they serve or need to observe.
+public abstract class ForwardingStorage implements Storage {
+
+    protected final Storage delegate;
+
+    protected ForwardingStorage(Storage delegate) {
+        this.delegate = delegate;
+    }
+
+    public Storage getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return delegate.patientExists(username);
+    }
+
+    @Override
+    public Set<String> findPatients(List<String> usernames) throws SQLException {
+        return delegate.findPatients(usernames);
+    }
+
+    @Override
+    public void addPatient(Patient patient) throws SQLException {
+        delegate.addPatient(patient);
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        return delegate.getPatient(username);
+    }
+
+    @Override
+    public void forEachPatientUsername(Consumer<String> action) throws SQLException {
+        delegate.forEachPatientUsername(action);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return delegate.caregiverExists(username);
+    }
+
+    @Override
+    public void addCaregiver(Caregiver caregiver) throws SQLException {
+        delegate.addCaregiver(caregiver);
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        return delegate.getCaregiver(username);
+    }
+
+    @Override
+    public void forEachCaregiverUsername(Consumer<String> action) throws SQLException {
+        delegate.forEachCaregiverUsername(action);
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiver) throws SQLException {
+        delegate.addAvailability(date, caregiver);
+    }
+
+    @Override
+    public List<Availability> addAvailabilities(List<Availability> availabilities) throws SQLException {
+        return delegate.addAvailabilities(availabilities);
+    }
+
+    @Override
+    public void removeAvailability(Date date, String caregiver) throws SQLException {
+        delegate.removeAvailability(date, caregiver);
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) throws SQLException {
+        return delegate.getAvailableCaregivers(date);
+    }
+
+    @Override
+    public void forEachAvailability(Consumer<Availability> action) throws SQLException {
+        delegate.forEachAvailability(action);
+    }
+
+    @Override
+    public ScheduleSummary getScheduleSummary(Date start, Date end) throws SQLException {
+        return delegate.getScheduleSummary(start, end);
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        delegate.addVaccine(vaccineName, doses);
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        return delegate.getVaccine(vaccineName);
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        return delegate.getVaccines();
+    }
+
+    @Override
+    public void updateVaccineDoses(String vaccineName, int doses) throws SQLException {
+        delegate.updateVaccineDoses(vaccineName, doses);
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> doses) throws SQLException {
+        delegate.addDoses(doses);
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) throws SQLException {
+        return delegate.importBatch(importName, lastLine, availabilities, doses);
+    }
+
+    @Override
+    public long getImportCheckpoint(String importName) throws SQLException {
+        return delegate.getImportCheckpoint(importName);
+    }
+
+    @Override
+    public void removeImportCheckpoint(String importName) throws SQLException {
+        delegate.removeImportCheckpoint(importName);
+    }
+
+    @Override
+    public ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException {
+        return delegate.reserve(date, patient, vaccineName);
+    }
+
+    @Override
+    public int addAppointment(Date date, String patient, String caregiver, String vaccineName) throws SQLException {
+        return delegate.addAppointment(date, patient, caregiver, vaccineName);
+    }
+
+    @Override
+    public Appointment getAppointment(int appointmentId) throws SQLException {
+        return delegate.getAppointment(appointmentId);
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver)
+            throws SQLException {
+        return delegate.cancelAppointment(appointmentId, owner, byCaregiver);
+    }
+
+    @Override
+    public void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) throws SQLException {
+        delegate.forEachAppointment(query, action);
+    }
+
+    @Override
+    public void forEachBookingCount(SchedulerState.BookingConsumer action) throws SQLException {
+        delegate.forEachBookingCount(action);
+    }
+
+    @Override
+    public int addWaitlistEntry(String patient, String vaccineName, Date start, Date end) throws SQLException {
+        return delegate.addWaitlistEntry(patient, vaccineName, start, end);
+    }
+
+    @Override
+    public WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException {
+        return delegate.matchWaitlist(afterEntryId, maxEntries);
+    }
+
+    @Override
+    public List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException {
+        return delegate.bookAppointments(planned);
+    }
+}
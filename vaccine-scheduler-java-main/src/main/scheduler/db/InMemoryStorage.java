@@ -0,0 +1,488 @@
+package scheduler.db;
+
+import scheduler.journal.SchedulerState;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.model.WaitlistEntry;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Storage kept entirely in this JVM, for benchmarks and for nodes running from a local snapshot.
+// Keys are compared case-insensitively, the same way SQL Server's default collation compares them,
+// and the primary and foreign keys of create.sql are enforced by throwing SQLException.
+public class InMemoryStorage implements Storage {
+
+    private final Map<String, Patient> patients = new ConcurrentHashMap<>();
+    private final Map<String, Caregiver> caregivers = new ConcurrentHashMap<>();
+    // date -> usernames of the caregivers available that day
+    private final ConcurrentSkipListMap<Date, NavigableSet<String>> availabilities = new ConcurrentSkipListMap<>();
+    private final Map<String, VaccineStock> vaccines = new ConcurrentHashMap<>();
+    private final Map<Integer, Appointment> appointments = new ConcurrentHashMap<>();
+    // username -> appointment ids, kept sorted so listings come out ordered by id
+    private final Map<String, NavigableSet<Integer>> appointmentsByPatient = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<Integer>> appointmentsByCaregiver = new ConcurrentHashMap<>();
+    private final AtomicInteger nextAppointmentId = new AtomicInteger(1);
+    // import name -> last line of its latest batch
+    private final Map<String, Long> importCheckpoints = new ConcurrentHashMap<>();
+    // entry id -> entry, oldest first; guarded by its own monitor, which a match pass holds throughout
+    private final NavigableMap<Integer, WaitlistEntry> waitlist = new TreeMap<>();
+    private int nextWaitlistId = 1;
+    private final CaregiverAssignmentStrategy assignment;
+
+    public InMemoryStorage() {
+        this(CaregiverAssignmentStrategy.fromEnv());
+    }
+
+    public InMemoryStorage(CaregiverAssignmentStrategy assignment) {
+        this.assignment = assignment;
+    }
+
+    @Override
+    public boolean patientExists(String username) {
+        return patients.containsKey(key(username));
+    }
+
+    @Override
+    public Set<String> findPatients(List<String> usernames) {
+        Set<String> found = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (String username : usernames) {
+            if (patients.containsKey(key(username))) {
+                found.add(username);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void addPatient(Patient patient) throws SQLException {
+        if (patients.putIfAbsent(key(patient.getUsername()), patient) != null) {
+            throw new SQLException("Patient " + patient.getUsername() + " already exists");
+        }
+    }
+
+    @Override
+    public Patient getPatient(String username) {
+        return patients.get(key(username));
+    }
+
+    @Override
+    public void forEachPatientUsername(Consumer<String> action) {
+        for (Patient patient : patients.values()) {
+            action.accept(patient.getUsername());
+        }
+    }
+
+    @Override
+    public boolean caregiverExists(String username) {
+        return caregivers.containsKey(key(username));
+    }
+
+    @Override
+    public void addCaregiver(Caregiver caregiver) throws SQLException {
+        if (caregivers.putIfAbsent(key(caregiver.getUsername()), caregiver) != null) {
+            throw new SQLException("Caregiver " + caregiver.getUsername() + " already exists");
+        }
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) {
+        return caregivers.get(key(username));
+    }
+
+    @Override
+    public void forEachCaregiverUsername(Consumer<String> action) {
+        for (Caregiver caregiver : caregivers.values()) {
+            action.accept(caregiver.getUsername());
+        }
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiver) throws SQLException {
+        Caregiver c = caregivers.get(key(caregiver));
+        if (c == null) {
+            throw new SQLException("No caregiver " + caregiver);
+        }
+        if (!availableOn(date).add(c.getUsername())) {
+            throw new SQLException(caregiver + " is already available on " + date);
+        }
+    }
+
+    @Override
+    public List<Availability> addAvailabilities(List<Availability> availabilities) {
+        List<Availability> inserted = new ArrayList<>();
+        for (Availability availability : availabilities) {
+            Caregiver c = caregivers.get(key(availability.getCaregiverName()));
+            if (c != null && availableOn(availability.getDate()).add(c.getUsername())) {
+                inserted.add(availability);
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public void removeAvailability(Date date, String caregiver) {
+        Caregiver c = caregivers.get(key(caregiver));
+        NavigableSet<String> usernames = availabilities.get(date);
+        if (c != null && usernames != null) {
+            usernames.remove(c.getUsername());
+        }
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) {
+        NavigableSet<String> usernames = availabilities.get(date);
+        return usernames == null ? new ArrayList<>() : new ArrayList<>(usernames);
+    }
+
+    @Override
+    public void forEachAvailability(Consumer<Availability> action) {
+        for (Map.Entry<Date, NavigableSet<String>> day : availabilities.entrySet()) {
+            for (String username : day.getValue()) {
+                action.accept(new Availability.AvailabilityBuilder(day.getKey(), username).build());
+            }
+        }
+    }
+
+    @Override
+    public ScheduleSummary getScheduleSummary(Date start, Date end) throws SQLException {
+        SortedMap<Date, Integer> counts = new TreeMap<>();
+        for (Map.Entry<Date, NavigableSet<String>> day : availabilities.subMap(start, true, end, true).entrySet()) {
+            int count = day.getValue().size();
+            if (count > 0) {
+                counts.put(day.getKey(), count);
+            }
+        }
+        return new ScheduleSummary(counts, getVaccines());
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        if (vaccines.putIfAbsent(key(vaccineName), new VaccineStock(vaccineName, doses)) != null) {
+            throw new SQLException("Vaccine " + vaccineName + " already exists");
+        }
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        VaccineStock stock = vaccines.get(key(vaccineName));
+        return stock == null ? null : stock.toVaccine();
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        List<Vaccine> result = new ArrayList<>();
+        for (VaccineStock stock : new ConcurrentSkipListMap<>(vaccines).values()) {
+            result.add(stock.toVaccine());
+        }
+        return result;
+    }
+
+    @Override
+    public void updateVaccineDoses(String vaccineName, int doses) {
+        VaccineStock stock = vaccines.get(key(vaccineName));
+        if (stock != null) {
+            stock.doses.set(doses);
+        }
+    }
+
+    @Override
+    public ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException {
+        VaccineStock stock = vaccines.get(key(vaccineName));
+        if (stock == null) {
+            return ReservationResult.failed(ReservationResult.Status.UNKNOWN_VACCINE);
+        }
+        if (!stock.take()) {
+            return ReservationResult.failed(ReservationResult.Status.NO_DOSES);
+        }
+        NavigableSet<String> usernames = availabilities.get(date);
+        String caregiver = usernames == null ? null : claimCaregiver(date, usernames);
+        if (caregiver == null) {
+            stock.doses.incrementAndGet();
+            return ReservationResult.failed(ReservationResult.Status.NO_CAREGIVER);
+        }
+        try {
+            int id = addAppointment(date, patient, caregiver, vaccineName);
+            assignment.booked(date, caregiver);
+            AssignmentContention.recordReservation();
+            return ReservationResult.reserved(appointments.get(id));
+        } catch (SQLException e) {
+            usernames.add(caregiver);
+            stock.doses.incrementAndGet();
+            throw e;
+        }
+    }
+
+    // Remove a caregiver from the day's set and return it, trying the assignment strategy's candidates first;
+    // null if nobody is free
+    private String claimCaregiver(Date date, NavigableSet<String> usernames) {
+        List<String> candidates = new ArrayList<>();
+        for (String username : usernames) {
+            candidates.add(username);
+            if (candidates.size() == CaregiverAssignmentStrategy.CANDIDATE_WINDOW) {
+                break;
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        List<String> ranked = assignment.rank(date, candidates);
+        for (int i = 0; i < Math.min(CaregiverAssignmentStrategy.MAX_CLAIM_ATTEMPTS, ranked.size()); i++) {
+            AssignmentContention.recordClaim();
+            if (usernames.remove(ranked.get(i))) {
+                return ranked.get(i);
+            }
+            AssignmentContention.recordConflict();
+        }
+        AssignmentContention.recordFallback();
+        return usernames.pollFirst();
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> doses) {
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            vaccines.computeIfAbsent(key(entry.getKey()), k -> new VaccineStock(entry.getKey(), 0))
+                    .doses.addAndGet(entry.getValue());
+        }
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) {
+        List<Availability> inserted = addAvailabilities(availabilities);
+        addDoses(doses);
+        importCheckpoints.put(importName, lastLine);
+        return inserted;
+    }
+
+    @Override
+    public long getImportCheckpoint(String importName) {
+        return importCheckpoints.getOrDefault(importName, 0L);
+    }
+
+    @Override
+    public void removeImportCheckpoint(String importName) {
+        importCheckpoints.remove(importName);
+    }
+
+    @Override
+    public int addAppointment(Date date, String patient, String caregiver, String vaccineName)
+            throws SQLException {
+        Patient p = patients.get(key(patient));
+        Caregiver c = caregivers.get(key(caregiver));
+        VaccineStock v = vaccines.get(key(vaccineName));
+        if (p == null || c == null || v == null) {
+            throw new SQLException("Appointment references an unknown patient, caregiver or vaccine");
+        }
+        int id = nextAppointmentId.getAndIncrement();
+        Appointment appointment = new Appointment.AppointmentBuilder(id, date, p.getUsername(), c.getUsername(),
+                                                                     v.name).build();
+        // index first so a concurrent cancelAppointment always finds the index entries
+        appointmentsByPatient.computeIfAbsent(key(patient), k -> new ConcurrentSkipListSet<>()).add(id);
+        appointmentsByCaregiver.computeIfAbsent(key(caregiver), k -> new ConcurrentSkipListSet<>()).add(id);
+        appointments.put(id, appointment);
+        return id;
+    }
+
+    @Override
+    public Appointment getAppointment(int appointmentId) {
+        return appointments.get(appointmentId);
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver) {
+        Appointment appointment = appointments.get(appointmentId);
+        if (appointment == null) {
+            return null;
+        }
+        String holder = byCaregiver ? appointment.getCaregiverName() : appointment.getPatientName();
+        // only one of two concurrent cancels removes the entry
+        if (!holder.equalsIgnoreCase(owner) || !appointments.remove(appointmentId, appointment)) {
+            return null;
+        }
+        appointmentsByPatient.get(key(appointment.getPatientName())).remove(appointmentId);
+        appointmentsByCaregiver.get(key(appointment.getCaregiverName())).remove(appointmentId);
+        vaccines.computeIfAbsent(key(appointment.getVaccineName()),
+                                 k -> new VaccineStock(appointment.getVaccineName(), 0)).doses.incrementAndGet();
+        availableOn(appointment.getDate()).add(appointment.getCaregiverName());
+        return appointment;
+    }
+
+    @Override
+    public void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) {
+        Map<String, NavigableSet<Integer>> index = query.isByCaregiver() ? appointmentsByCaregiver
+                                                                         : appointmentsByPatient;
+        NavigableSet<Integer> ids = index.get(key(query.getUsername()));
+        if (ids == null) {
+            return;
+        }
+        int returned = 0;
+        for (Integer id : ids.tailSet(query.getAfterId(), false)) {
+            if (returned >= query.getLimit()) {
+                return;
+            }
+            Appointment appointment = appointments.get(id);
+            if (appointment != null && query.includes(appointment.getDate())) {
+                action.accept(appointment);
+                returned++;
+            }
+        }
+    }
+
+    @Override
+    public void forEachBookingCount(SchedulerState.BookingConsumer action) {
+        Map<String, Map<Date, Integer>> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Appointment appointment : appointments.values()) {
+            counts.computeIfAbsent(appointment.getCaregiverName(), c -> new TreeMap<>())
+                    .merge(appointment.getDate(), 1, Integer::sum);
+        }
+        for (Map.Entry<String, Map<Date, Integer>> caregiver : counts.entrySet()) {
+            for (Map.Entry<Date, Integer> day : caregiver.getValue().entrySet()) {
+                action.accept(day.getKey(), caregiver.getKey(), day.getValue());
+            }
+        }
+    }
+
+    @Override
+    public int addWaitlistEntry(String patient, String vaccineName, Date start, Date end) throws SQLException {
+        Patient p = patients.get(key(patient));
+        VaccineStock v = vaccines.get(key(vaccineName));
+        if (p == null || v == null) {
+            throw new SQLException("Waitlist entry references an unknown patient or vaccine");
+        }
+        synchronized (waitlist) {
+            for (WaitlistEntry entry : waitlist.values()) {
+                if (entry.getPatientName().equalsIgnoreCase(patient) &&
+                        entry.getVaccineName().equalsIgnoreCase(v.name)) {
+                    return 0;
+                }
+            }
+            int id = nextWaitlistId++;
+            waitlist.put(id, new WaitlistEntry.WaitlistEntryBuilder(id, p.getUsername(), v.name, start, end).build());
+            return id;
+        }
+    }
+
+    @Override
+    public WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException {
+        Date today = Date.valueOf(LocalDate.now());
+        List<Appointment> booked = new ArrayList<>();
+        int examined = 0;
+        int last = afterEntryId;
+        synchronized (waitlist) {
+            Iterator<WaitlistEntry> entries = waitlist.tailMap(afterEntryId, false).values().iterator();
+            while (examined < maxEntries && entries.hasNext()) {
+                WaitlistEntry entry = entries.next();
+                examined++;
+                last = entry.getEntryId();
+                if (entry.getEnd().before(today)) {
+                    entries.remove();
+                    continue;
+                }
+                VaccineStock stock = vaccines.get(key(entry.getVaccineName()));
+                if (stock == null || !stock.take()) {
+                    continue;
+                }
+                // never book into a day that has passed, even if the entry's range started earlier
+                Availability slot = claimFirstSlot(entry.getStart().before(today) ? today : entry.getStart(),
+                                                   entry.getEnd());
+                if (slot == null) {
+                    stock.doses.incrementAndGet();
+                    continue;
+                }
+                int id = addAppointment(slot.getDate(), entry.getPatientName(), slot.getCaregiverName(),
+                                        entry.getVaccineName());
+                assignment.booked(slot.getDate(), slot.getCaregiverName());
+                booked.add(appointments.get(id));
+                entries.remove();
+            }
+        }
+        return new WaitlistPass(booked, examined, last);
+    }
+
+    @Override
+    public List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException {
+        List<Appointment> booked = new ArrayList<>();
+        for (Appointment plan : planned) {
+            VaccineStock stock = vaccines.get(key(plan.getVaccineName()));
+            NavigableSet<String> usernames = availabilities.get(plan.getDate());
+            if (stock == null || usernames == null || !usernames.remove(plan.getCaregiverName())) {
+                continue;
+            }
+            if (!stock.take()) {
+                usernames.add(plan.getCaregiverName());
+                continue;
+            }
+            int id = addAppointment(plan.getDate(), plan.getPatientName(), plan.getCaregiverName(),
+                                    plan.getVaccineName());
+            assignment.booked(plan.getDate(), plan.getCaregiverName());
+            booked.add(appointments.get(id));
+        }
+        return booked;
+    }
+
+    // Take the earliest free caregiver slot from start to end inclusive; null if there is none
+    private Availability claimFirstSlot(Date start, Date end) {
+        for (Map.Entry<Date, NavigableSet<String>> day : availabilities.subMap(start, true, end, true).entrySet()) {
+            String caregiver = day.getValue().pollFirst();
+            if (caregiver != null) {
+                return new Availability.AvailabilityBuilder(day.getKey(), caregiver).build();
+            }
+        }
+        return null;
+    }
+
+    private NavigableSet<String> availableOn(Date date) {
+        return availabilities.computeIfAbsent(date, d -> new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER));
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static class VaccineStock {
+        private final String name;
+        private final AtomicInteger doses;
+
+        private VaccineStock(String name, int doses) {
+            this.name = name;
+            this.doses = new AtomicInteger(doses);
+        }
+
+        // take one dose unless there are none left
+        private boolean take() {
+            int current;
+            do {
+                current = doses.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!doses.compareAndSet(current, current - 1));
+            return true;
+        }
+
+        private Vaccine toVaccine() throws SQLException {
+            return new Vaccine.VaccineBuilder(name, doses.get()).build();
+        }
+    }
+}
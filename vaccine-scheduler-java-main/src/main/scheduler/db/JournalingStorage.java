@@ -0,0 +1,196 @@
+package scheduler.db;
+
+import scheduler.journal.Journal;
+import scheduler.journal.JournalRecord;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+// Appends every successful change to appointments, availabilities and doses to a Journal, after the delegate
+// has made it, and the username of every caregiver created. Patients and password hashes are not journaled.
+//
+// A reservation also takes its caregiver's availability and a dose, and a cancel gives both back, so each is
+// one record; appointments booked from the waitlist are journaled as reservations. Of the rows given to
+// addAvailabilities and importBatch only those storage inserted are journaled.
+//
+// Records are appended after the delegate has committed the change, ordered by a SlotOrder. A change that frees or
+// takes a caregiver's slot and may have been overtaken by another change of it is followed by a record of the slot
+// as the table now has it, so replay ends with the slot as it is however the two were appended.
+public class JournalingStorage extends ForwardingStorage implements AutoCloseable {
+
+    private final Journal journal;
+    private final SlotOrder order = new SlotOrder();
+
+    public JournalingStorage(Storage delegate, Journal journal) {
+        super(delegate);
+        this.journal = journal;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public void addCaregiver(Caregiver caregiver) throws SQLException {
+        delegate.addCaregiver(caregiver);
+        journal.append(JournalRecord.caregiverAdded(caregiver.getUsername()));
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiver) throws SQLException {
+        long[] started = order.started(true);
+        delegate.addAvailability(date, caregiver);
+        append(date, caregiver, true, started, JournalRecord.availabilityAdded(date, caregiver));
+    }
+
+    @Override
+    public List<Availability> addAvailabilities(List<Availability> availabilities) throws SQLException {
+        long[] started = order.started(true);
+        List<Availability> inserted = delegate.addAvailabilities(availabilities);
+        appendAvailabilities(inserted, started);
+        return inserted;
+    }
+
+    @Override
+    public void removeAvailability(Date date, String caregiver) throws SQLException {
+        long[] started = order.started(false);
+        delegate.removeAvailability(date, caregiver);
+        append(date, caregiver, false, started, JournalRecord.availabilityRemoved(date, caregiver));
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        delegate.addVaccine(vaccineName, doses);
+        journal.append(JournalRecord.vaccineAdded(vaccineName, doses));
+    }
+
+    @Override
+    public void updateVaccineDoses(String vaccineName, int doses) throws SQLException {
+        delegate.updateVaccineDoses(vaccineName, doses);
+        journal.append(JournalRecord.dosesSet(vaccineName, doses));
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> doses) throws SQLException {
+        delegate.addDoses(doses);
+        appendDoses(doses);
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) throws SQLException {
+        long[] started = order.started(true);
+        List<Availability> inserted = delegate.importBatch(importName, lastLine, availabilities, doses);
+        appendAvailabilities(inserted, started);
+        appendDoses(doses);
+        return inserted;
+    }
+
+    @Override
+    public ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException {
+        long[] started = order.started(false);
+        ReservationResult result = delegate.reserve(date, patient, vaccineName);
+        if (result.getStatus() == ReservationResult.Status.RESERVED) {
+            appendReserve(result.getAppointment(), started);
+        }
+        return result;
+    }
+
+    @Override
+    public int addAppointment(Date date, String patient, String caregiver, String vaccineName) throws SQLException {
+        long[] started = order.started(false);
+        int appointmentId = delegate.addAppointment(date, patient, caregiver, vaccineName);
+        append(date, caregiver, false, started,
+               JournalRecord.reserve(appointmentId, date, patient, caregiver, vaccineName));
+        return appointmentId;
+    }
+
+    @Override
+    public WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException {
+        long[] started = order.started(false);
+        WaitlistPass pass = delegate.matchWaitlist(afterEntryId, maxEntries);
+        for (Appointment appointment : pass.getBooked()) {
+            appendReserve(appointment, started);
+        }
+        return pass;
+    }
+
+    @Override
+    public List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException {
+        long[] started = order.started(false);
+        List<Appointment> booked = delegate.bookAppointments(planned);
+        for (Appointment appointment : booked) {
+            appendReserve(appointment, started);
+        }
+        return booked;
+    }
+
+    // one record: replaying it gives back the dose and the caregiver's day as well
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver)
+            throws SQLException {
+        long[] started = order.started(true);
+        Appointment cancelled = delegate.cancelAppointment(appointmentId, owner, byCaregiver);
+        if (cancelled != null) {
+            append(cancelled.getDate(), cancelled.getCaregiverName(), true, started,
+                   JournalRecord.cancel(appointmentId, cancelled.getDate(), cancelled.getPatientName(),
+                                        cancelled.getCaregiverName(), cancelled.getVaccineName()));
+        }
+        return cancelled;
+    }
+
+    // Write out what is still queued and stop the journal's writer
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    @Override
+    public String toString() {
+        return journal.toString();
+    }
+
+    private void appendReserve(Appointment appointment, long[] started) throws SQLException {
+        append(appointment.getDate(), appointment.getCaregiverName(), false, started,
+               JournalRecord.reserve(appointment.getAppointmentId(), appointment.getDate(),
+                                     appointment.getPatientName(), appointment.getCaregiverName(),
+                                     appointment.getVaccineName()));
+    }
+
+    private void appendAvailabilities(List<Availability> inserted, long[] started) throws SQLException {
+        for (Availability availability : inserted) {
+            append(availability.getDate(), availability.getCaregiverName(), true, started,
+                   JournalRecord.availabilityAdded(availability.getDate(), availability.getCaregiverName()));
+        }
+    }
+
+    // Append the record of a committed change to the caregiver's slot, followed by the slot as the table has it if
+    // the change may have been overtaken; the record still carries the change's doses and bookings
+    private void append(Date date, String caregiver, boolean frees, long[] started, JournalRecord record)
+            throws SQLException {
+        order.apply(date, frees, started, () -> journal.append(record), () -> {
+            journal.append(record);
+            try {
+                journal.append(SlotOrder.readDay(delegate, date).contains(caregiver)
+                               ? JournalRecord.availabilityAdded(date, caregiver)
+                               : JournalRecord.availabilityRemoved(date, caregiver));
+            } catch (SQLException e) {
+                // the change itself is committed; the next start rebuilds from the tables instead
+                System.out.println("Unable to read back " + caregiver + " on " + date + " for the journal");
+                e.printStackTrace();
+                journal.recordDropped();
+            }
+        });
+    }
+
+    private void appendDoses(Map<String, Integer> doses) {
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            journal.append(JournalRecord.dosesAdded(entry.getKey(), entry.getValue()));
+        }
+    }
+}
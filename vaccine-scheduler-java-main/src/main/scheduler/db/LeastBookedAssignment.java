@@ -0,0 +1,73 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The caregiver with the fewest bookings goes first, so work is spread evenly across caregivers.
+// Ties, which are common since a caregiver can be booked only once a day, are broken at random so
+// concurrent reservers for the same day rarely pick the same row.
+//
+// Bookings are counted from the reservations made by this process since it started.
+public class LeastBookedAssignment implements CaregiverAssignmentStrategy {
+
+    private final Map<String, AtomicInteger> bookings = new ConcurrentHashMap<>();
+
+    @Override
+    public List<String> rank(Date date, List<String> available) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Candidate> candidates = new ArrayList<>(available.size());
+        for (String caregiver : available) {
+            candidates.add(new Candidate(caregiver, getBookings(caregiver), random.nextInt()));
+        }
+        // heapify is linear, and only the few candidates that will be tried are taken off the heap
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(candidates);
+        int wanted = Math.min(MAX_CLAIM_ATTEMPTS, candidates.size());
+        List<String> ranked = new ArrayList<>(wanted);
+        while (ranked.size() < wanted) {
+            ranked.add(heap.poll().caregiver);
+        }
+        return ranked;
+    }
+
+    @Override
+    public void booked(Date date, String caregiver) {
+        bookings.computeIfAbsent(caregiver, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    // usernames are passed as storage returns them, so the same caregiver is always spelled the same way
+    public int getBookings(String caregiver) {
+        AtomicInteger count = bookings.get(caregiver);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public String toString() {
+        return "least-booked";
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        private final String caregiver;
+        private final int bookings;
+        private final int tieBreak;
+
+        private Candidate(String caregiver, int bookings, int tieBreak) {
+            this.caregiver = caregiver;
+            this.bookings = bookings;
+            this.tieBreak = tieBreak;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (bookings != other.bookings) {
+                return Integer.compare(bookings, other.bookings);
+            }
+            return Integer.compare(tieBreak, other.tieBreak);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package scheduler.db;
+
+import scheduler.journal.SchedulerState;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.OperationMetrics;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Times every Storage call and counts its database round trips and failures, see Metrics.
+// Sits outside the in-process caches, so a call they answer shows up with no round trips.
+// The forEach calls include the time the caller's action takes.
+public class MeteredStorage extends ForwardingStorage {
+
+    private final OperationMetrics patientExists = Metrics.storage("patientExists");
+    private final OperationMetrics findPatients = Metrics.storage("findPatients");
+    private final OperationMetrics addPatient = Metrics.storage("addPatient");
+    private final OperationMetrics getPatient = Metrics.storage("getPatient");
+    private final OperationMetrics forEachPatientUsername = Metrics.storage("forEachPatientUsername");
+    private final OperationMetrics caregiverExists = Metrics.storage("caregiverExists");
+    private final OperationMetrics addCaregiver = Metrics.storage("addCaregiver");
+    private final OperationMetrics getCaregiver = Metrics.storage("getCaregiver");
+    private final OperationMetrics forEachCaregiverUsername = Metrics.storage("forEachCaregiverUsername");
+    private final OperationMetrics addAvailability = Metrics.storage("addAvailability");
+    private final OperationMetrics addAvailabilities = Metrics.storage("addAvailabilities");
+    private final OperationMetrics removeAvailability = Metrics.storage("removeAvailability");
+    private final OperationMetrics getAvailableCaregivers = Metrics.storage("getAvailableCaregivers");
+    private final OperationMetrics getScheduleSummary = Metrics.storage("getScheduleSummary");
+    private final OperationMetrics forEachAvailability = Metrics.storage("forEachAvailability");
+    private final OperationMetrics addVaccine = Metrics.storage("addVaccine");
+    private final OperationMetrics getVaccine = Metrics.storage("getVaccine");
+    private final OperationMetrics getVaccines = Metrics.storage("getVaccines");
+    private final OperationMetrics updateVaccineDoses = Metrics.storage("updateVaccineDoses");
+    private final OperationMetrics addDoses = Metrics.storage("addDoses");
+    private final OperationMetrics importBatch = Metrics.storage("importBatch");
+    private final OperationMetrics reserve = Metrics.storage("reserve");
+    private final OperationMetrics addAppointment = Metrics.storage("addAppointment");
+    private final OperationMetrics getAppointment = Metrics.storage("getAppointment");
+    private final OperationMetrics cancelAppointment = Metrics.storage("cancelAppointment");
+    private final OperationMetrics forEachAppointment = Metrics.storage("forEachAppointment");
+    private final OperationMetrics forEachBookingCount = Metrics.storage("forEachBookingCount");
+    private final OperationMetrics addWaitlistEntry = Metrics.storage("addWaitlistEntry");
+    private final OperationMetrics matchWaitlist = Metrics.storage("matchWaitlist");
+    private final OperationMetrics bookAppointments = Metrics.storage("bookAppointments");
+
+    public MeteredStorage(Storage delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            boolean result = delegate.patientExists(username);
+            failed = false;
+            return result;
+        } finally {
+            done(patientExists, start, trips, failed);
+        }
+    }
+
+    @Override
+    public Set<String> findPatients(List<String> usernames) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            Set<String> result = delegate.findPatients(usernames);
+            failed = false;
+            return result;
+        } finally {
+            done(findPatients, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void addPatient(Patient patient) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.addPatient(patient);
+            failed = false;
+        } finally {
+            done(addPatient, start, trips, failed);
+        }
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            Patient result = delegate.getPatient(username);
+            failed = false;
+            return result;
+        } finally {
+            done(getPatient, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void forEachPatientUsername(Consumer<String> action) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.forEachPatientUsername(action);
+            failed = false;
+        } finally {
+            done(forEachPatientUsername, start, trips, failed);
+        }
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            boolean result = delegate.caregiverExists(username);
+            failed = false;
+            return result;
+        } finally {
+            done(caregiverExists, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void addCaregiver(Caregiver caregiver) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.addCaregiver(caregiver);
+            failed = false;
+        } finally {
+            done(addCaregiver, start, trips, failed);
+        }
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            Caregiver result = delegate.getCaregiver(username);
+            failed = false;
+            return result;
+        } finally {
+            done(getCaregiver, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void forEachCaregiverUsername(Consumer<String> action) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.forEachCaregiverUsername(action);
+            failed = false;
+        } finally {
+            done(forEachCaregiverUsername, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiver) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.addAvailability(date, caregiver);
+            failed = false;
+        } finally {
+            done(addAvailability, start, trips, failed);
+        }
+    }
+
+    @Override
+    public List<Availability> addAvailabilities(List<Availability> availabilities) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            List<Availability> result = delegate.addAvailabilities(availabilities);
+            failed = false;
+            return result;
+        } finally {
+            done(addAvailabilities, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void removeAvailability(Date date, String caregiver) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.removeAvailability(date, caregiver);
+            failed = false;
+        } finally {
+            done(removeAvailability, start, trips, failed);
+        }
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            List<String> result = delegate.getAvailableCaregivers(date);
+            failed = false;
+            return result;
+        } finally {
+            done(getAvailableCaregivers, start, trips, failed);
+        }
+    }
+
+    @Override
+    public ScheduleSummary getScheduleSummary(Date start, Date end) throws SQLException {
+        long startNanos = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            ScheduleSummary result = delegate.getScheduleSummary(start, end);
+            failed = false;
+            return result;
+        } finally {
+            done(getScheduleSummary, startNanos, trips, failed);
+        }
+    }
+
+    @Override
+    public void forEachAvailability(Consumer<Availability> action) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.forEachAvailability(action);
+            failed = false;
+        } finally {
+            done(forEachAvailability, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.addVaccine(vaccineName, doses);
+            failed = false;
+        } finally {
+            done(addVaccine, start, trips, failed);
+        }
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            Vaccine result = delegate.getVaccine(vaccineName);
+            failed = false;
+            return result;
+        } finally {
+            done(getVaccine, start, trips, failed);
+        }
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            List<Vaccine> result = delegate.getVaccines();
+            failed = false;
+            return result;
+        } finally {
+            done(getVaccines, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void updateVaccineDoses(String vaccineName, int doses) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.updateVaccineDoses(vaccineName, doses);
+            failed = false;
+        } finally {
+            done(updateVaccineDoses, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> doses) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.addDoses(doses);
+            failed = false;
+        } finally {
+            done(addDoses, start, trips, failed);
+        }
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            List<Availability> result = delegate.importBatch(importName, lastLine, availabilities, doses);
+            failed = false;
+            return result;
+        } finally {
+            done(importBatch, start, trips, failed);
+        }
+    }
+
+    @Override
+    public ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            ReservationResult result = delegate.reserve(date, patient, vaccineName);
+            failed = false;
+            return result;
+        } finally {
+            done(reserve, start, trips, failed);
+        }
+    }
+
+    @Override
+    public int addAppointment(Date date, String patient, String caregiver, String vaccineName) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            int result = delegate.addAppointment(date, patient, caregiver, vaccineName);
+            failed = false;
+            return result;
+        } finally {
+            done(addAppointment, start, trips, failed);
+        }
+    }
+
+    @Override
+    public Appointment getAppointment(int appointmentId) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            Appointment result = delegate.getAppointment(appointmentId);
+            failed = false;
+            return result;
+        } finally {
+            done(getAppointment, start, trips, failed);
+        }
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver)
+            throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            Appointment result = delegate.cancelAppointment(appointmentId, owner, byCaregiver);
+            failed = false;
+            return result;
+        } finally {
+            done(cancelAppointment, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.forEachAppointment(query, action);
+            failed = false;
+        } finally {
+            done(forEachAppointment, start, trips, failed);
+        }
+    }
+
+    @Override
+    public void forEachBookingCount(SchedulerState.BookingConsumer action) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            delegate.forEachBookingCount(action);
+            failed = false;
+        } finally {
+            done(forEachBookingCount, start, trips, failed);
+        }
+    }
+
+    @Override
+    public int addWaitlistEntry(String patient, String vaccineName, Date startDate, Date endDate)
+            throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            int result = delegate.addWaitlistEntry(patient, vaccineName, startDate, endDate);
+            failed = false;
+            return result;
+        } finally {
+            done(addWaitlistEntry, start, trips, failed);
+        }
+    }
+
+    @Override
+    public WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            WaitlistPass result = delegate.matchWaitlist(afterEntryId, maxEntries);
+            failed = false;
+            return result;
+        } finally {
+            done(matchWaitlist, start, trips, failed);
+        }
+    }
+
+    @Override
+    public List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException {
+        long start = System.nanoTime();
+        long trips = Metrics.roundTrips();
+        boolean failed = true;
+        try {
+            List<Appointment> result = delegate.bookAppointments(planned);
+            failed = false;
+            return result;
+        } finally {
+            done(bookAppointments, start, trips, failed);
+        }
+    }
+
+    private static void done(OperationMetrics metrics, long start, long trips, boolean failed) {
+        if (failed) {
+            Metrics.error();
+        }
+        metrics.record(start, Metrics.roundTrips() - trips, failed);
+    }
+}
@@ -0,0 +1,362 @@
+package scheduler.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Brings the database schema up to date. Every change to the schema is a numbered script under
+// resources/migrations, listed in MIGRATIONS; the SchemaVersion table records which ones have run, so
+// each is applied once, in order, in its own transaction. Scripts are split into batches on lines
+// holding only GO, the way sqlcmd does.
+//
+// check() reports scripts that have not run yet and any index in EXPECTED_INDEXES the database lacks.
+public class MigrationRunner {
+
+    // in the order they are applied; never renumber or edit one that has shipped, add a new one instead
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "V001__create_tables.sql", "Tables of create.sql"),
+            new Migration(2, "V002__appointment_indexes.sql", "Covering indexes for appointment pages"),
+            new Migration(3, "V003__waitlist.sql", "Waitlist queue"),
+            new Migration(4, "V004__import_checkpoints.sql", "Bulk import checkpoints")
+    );
+
+    // what each hot query in SqlStatement needs: an index whose keys start with keyColumns and which
+    // carries includedColumns, either as keys, included columns, or by being the clustered index
+    private static final List<ExpectedIndex> EXPECTED_INDEXES = List.of(
+            new ExpectedIndex("Availabilities", List.of("Time", "Username"), List.of(),
+                              "AVAILABLE_CAREGIVERS, SCHEDULE_SUMMARY, CLAIMABLE_CAREGIVERS, CLAIM_CAREGIVER, " +
+                              "CLAIM_AVAILABILITY"),
+            new ExpectedIndex("Appointments", List.of("a_id"), List.of("date", "p_user", "c_user", "v_name"),
+                              "GET_APPOINTMENT, CANCEL_PATIENT_APPOINTMENT, CANCEL_CAREGIVER_APPOINTMENT"),
+            new ExpectedIndex("Appointments", List.of("p_user", "a_id"), List.of("date", "c_user", "v_name"),
+                              "PATIENT_APPOINTMENTS"),
+            new ExpectedIndex("Appointments", List.of("c_user", "a_id"), List.of("date", "p_user", "v_name"),
+                              "CAREGIVER_APPOINTMENTS"),
+            new ExpectedIndex("Patients", List.of("Username"), List.of("Salt", "Hash"),
+                              "GET_PATIENT, FIND_PATIENTS"),
+            new ExpectedIndex("Caregivers", List.of("Username"), List.of("Salt", "Hash"), "GET_CAREGIVER"),
+            new ExpectedIndex("Vaccines", List.of("Name"), List.of("Doses"), "GET_VACCINE, TAKE_DOSE, ADD_DOSES"),
+            new ExpectedIndex("Waitlist", List.of("w_id"), List.of("p_user", "v_name", "start_date", "end_date"),
+                              "WAITLIST_PAGE, REMOVE_WAITLIST_ENTRY"),
+            new ExpectedIndex("Waitlist", List.of("p_user", "v_name"), List.of(), "ADD_WAITLIST_ENTRY")
+    );
+
+    private static final String SCRIPT_DIRECTORY = "/resources/migrations/";
+    private static final String LOCK_NAME = "SchemaMigrations";
+    private static final int LOCK_TIMEOUT_MILLIS = 60_000;
+
+    private static final String CREATE_VERSION_TABLE =
+            "IF OBJECT_ID('SchemaVersion', 'U') IS NULL " +
+            "CREATE TABLE SchemaVersion (" +
+            "Version int PRIMARY KEY, " +
+            "Script varchar(255), " +
+            "Description varchar(255), " +
+            "Checksum bigint, " +
+            "AppliedAt datetime2 DEFAULT SYSUTCDATETIME())";
+    private static final String GET_VERSIONS = "SELECT Version, Checksum FROM SchemaVersion";
+    private static final String ADD_VERSION =
+            "INSERT INTO SchemaVersion (Version, Script, Description, Checksum) VALUES (?, ?, ?, ?)";
+    private static final String INDEX_COLUMNS =
+            "SELECT i.name, i.type, c.name, ic.key_ordinal, ic.is_included_column " +
+            "FROM sys.indexes i " +
+            "JOIN sys.index_columns ic ON ic.object_id = i.object_id AND ic.index_id = i.index_id " +
+            "JOIN sys.columns c ON c.object_id = ic.object_id AND c.column_id = ic.column_id " +
+            "WHERE i.object_id = OBJECT_ID(?) AND i.is_disabled = 0 AND i.is_hypothetical = 0 " +
+            "ORDER BY i.index_id, ic.key_ordinal";
+    private static final int CLUSTERED = 1;
+
+    // Apply every migration the database has not had yet. Returns how many were applied.
+    public int migrate() throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+        try {
+            // one runner at a time, so two processes starting together do not both apply a script
+            lock(con);
+            try {
+                execute(con, CREATE_VERSION_TABLE);
+                Map<Integer, Long> applied = appliedVersions(con);
+                int count = 0;
+                for (Migration migration : MIGRATIONS) {
+                    String script = migration.load();
+                    Long checksum = applied.get(migration.version);
+                    if (checksum == null) {
+                        apply(con, migration, script);
+                        System.out.println("Applied schema migration " + migration);
+                        count++;
+                    } else if (checksum != checksum(script)) {
+                        System.out.println("Schema migration " + migration + " has changed since it was applied");
+                    }
+                }
+                return count;
+            } finally {
+                unlock(con);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Describe what migrate() would do and which expected indexes are missing; empty if nothing is
+    public List<String> check() throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        Connection con = cm.createConnection();
+        try {
+            List<String> problems = new ArrayList<>();
+            Map<Integer, Long> applied = tableExists(con, "SchemaVersion") ? appliedVersions(con) : Map.of();
+            for (Migration migration : MIGRATIONS) {
+                Long checksum = applied.get(migration.version);
+                if (checksum == null) {
+                    problems.add("Schema migration " + migration + " has not been applied");
+                } else if (checksum != checksum(migration.load())) {
+                    problems.add("Schema migration " + migration + " has changed since it was applied");
+                }
+            }
+            Map<String, List<IndexColumns>> indexes = new HashMap<>();
+            for (ExpectedIndex expected : EXPECTED_INDEXES) {
+                List<IndexColumns> onTable = indexes.get(expected.table);
+                if (onTable == null) {
+                    onTable = indexes(con, expected.table);
+                    indexes.put(expected.table, onTable);
+                }
+                if (onTable.isEmpty()) {
+                    problems.add("Table " + expected.table + " is missing");
+                } else if (onTable.stream().noneMatch(expected::isCoveredBy)) {
+                    problems.add("Missing index " + expected);
+                }
+            }
+            return problems;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void apply(Connection con, Migration migration, String script) throws SQLException {
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            for (String batch : batches(script)) {
+                execute(con, batch);
+            }
+            try (PreparedStatement statement = con.prepareStatement(ADD_VERSION)) {
+                statement.setInt(1, migration.version);
+                statement.setString(2, migration.script);
+                statement.setString(3, migration.description);
+                statement.setLong(4, checksum(script));
+                statement.executeUpdate();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Schema migration " + migration + " failed", e);
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    // The script's batches, split on lines holding only GO
+    static List<String> batches(String script) {
+        List<String> batches = new ArrayList<>();
+        StringBuilder batch = new StringBuilder();
+        for (String line : script.split("\r?\n")) {
+            if (line.trim().equalsIgnoreCase("GO")) {
+                addBatch(batches, batch);
+                batch.setLength(0);
+            } else {
+                batch.append(line).append('\n');
+            }
+        }
+        addBatch(batches, batch);
+        return batches;
+    }
+
+    private static void addBatch(List<String> batches, StringBuilder batch) {
+        for (String line : batch.toString().split("\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("--")) {
+                batches.add(batch.toString());
+                return;
+            }
+        }
+    }
+
+    private static Map<Integer, Long> appliedVersions(Connection con) throws SQLException {
+        Map<Integer, Long> versions = new HashMap<>();
+        try (Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery(GET_VERSIONS)) {
+            while (rs.next()) {
+                versions.put(rs.getInt(1), rs.getLong(2));
+            }
+        }
+        return versions;
+    }
+
+    private static boolean tableExists(Connection con, String table) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement("SELECT OBJECT_ID(?, 'U')")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getObject(1) != null;
+            }
+        }
+    }
+
+    private static List<IndexColumns> indexes(Connection con, String table) throws SQLException {
+        Map<String, IndexColumns> indexes = new LinkedHashMap<>();
+        try (PreparedStatement statement = con.prepareStatement(INDEX_COLUMNS)) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    IndexColumns index = indexes.computeIfAbsent(name, n -> new IndexColumns());
+                    index.clustered = rs.getInt(2) == CLUSTERED;
+                    String column = key(rs.getString(3));
+                    if (rs.getBoolean(5)) {
+                        index.included.add(column);
+                    } else {
+                        index.keys.put(rs.getInt(4), column);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(indexes.values());
+    }
+
+    private static void execute(Connection con, String sql) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static void lock(Connection con) throws SQLException {
+        try (CallableStatement statement = con.prepareCall(
+                "{? = call sp_getapplock(@Resource = ?, @LockMode = 'Exclusive', @LockOwner = 'Session', " +
+                "@LockTimeout = ?)}")) {
+            statement.registerOutParameter(1, java.sql.Types.INTEGER);
+            statement.setString(2, LOCK_NAME);
+            statement.setInt(3, LOCK_TIMEOUT_MILLIS);
+            statement.execute();
+            if (statement.getInt(1) < 0) {
+                throw new SQLException("Timed out waiting for another process to finish migrating the schema");
+            }
+        }
+    }
+
+    private static void unlock(Connection con) throws SQLException {
+        try (CallableStatement statement = con.prepareCall(
+                "{call sp_releaseapplock(@Resource = ?, @LockOwner = 'Session')}")) {
+            statement.setString(1, LOCK_NAME);
+            statement.execute();
+        }
+    }
+
+    static long checksum(String script) {
+        CRC32 crc = new CRC32();
+        crc.update(script.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static String key(String column) {
+        return column.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String script;
+        private final String description;
+
+        private Migration(int version, String script, String description) {
+            this.version = version;
+            this.script = script;
+            this.description = description;
+        }
+
+        private String load() throws SQLException {
+            InputStream in = MigrationRunner.class.getResourceAsStream(SCRIPT_DIRECTORY + script);
+            if (in == null) {
+                throw new SQLException("Schema migration script not found: " + script);
+            }
+            StringBuilder text = new StringBuilder();
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    text.append(line).append('\n');
+                }
+            } catch (IOException e) {
+                throw new SQLException("Unable to read schema migration script " + script, e);
+            }
+            return text.toString();
+        }
+
+        @Override
+        public String toString() {
+            return version + " (" + script + ")";
+        }
+    }
+
+    private static class ExpectedIndex {
+        private final String table;
+        private final List<String> keyColumns;
+        private final List<String> includedColumns;
+        private final String usedBy;
+
+        private ExpectedIndex(String table, List<String> keyColumns, List<String> includedColumns, String usedBy) {
+            this.table = table;
+            this.keyColumns = keyColumns;
+            this.includedColumns = includedColumns;
+            this.usedBy = usedBy;
+        }
+
+        private boolean isCoveredBy(IndexColumns index) {
+            List<String> keys = new ArrayList<>(index.keys.values());
+            if (keys.size() < keyColumns.size()) {
+                return false;
+            }
+            for (int i = 0; i < keyColumns.size(); i++) {
+                if (!keys.get(i).equals(key(keyColumns.get(i)))) {
+                    return false;
+                }
+            }
+            if (index.clustered) {
+                return true;
+            }
+            for (String column : includedColumns) {
+                if (!keys.contains(key(column)) && !index.included.contains(key(column))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            String s = table + " (" + String.join(", ", keyColumns) + ")";
+            if (!includedColumns.isEmpty()) {
+                s += " INCLUDE (" + String.join(", ", includedColumns) + ")";
+            }
+            return s + " used by " + usedBy;
+        }
+    }
+
+    private static class IndexColumns {
+        // the clustered index holds every column of the table
+        private boolean clustered;
+        // key columns by key_ordinal
+        private final TreeMap<Integer, String> keys = new TreeMap<>();
+        private final List<String> included = new ArrayList<>();
+    }
+}
@@ -0,0 +1,415 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+// Wraps the connections the pool opens so every statement run on them is timed, with its text, bound
+// parameters and row count. Binary parameters, which is what password salts and hashes are, are written
+// as their length only. A batch is logged with the parameters of its last row.
+//
+// Statements taking SlowQueryMillis (default 500) or longer, failed statements, and a QuerySampleRate
+// fraction (default 0) of all statements are written to SlowQueryLog (default slow-queries.log), one
+// tab-separated line each, rotated every SlowQueryLogBytes (default 10 MB) over SlowQueryLogFiles files
+// (default 5). Every statement is also timed in Metrics under its SqlStatement name.
+// Set QueryTrace=false to hand out the driver's connections unwrapped.
+//
+// A query's time runs from its execution until its result set is closed, so it includes fetching the
+// rows and whatever the caller does with each one.
+public class QueryTracer {
+
+    private static final QueryTracer INSTANCE = fromEnv();
+
+    // SqlStatement names by their text, so the log and metrics can say which statement ran
+    private static final Map<String, String> NAMES = new HashMap<>();
+
+    static {
+        for (SqlStatement statement : SqlStatement.values()) {
+            for (SqlStatement.Dialect dialect : SqlStatement.Dialect.values()) {
+                NAMES.put(statement.getSql(dialect), statement.name());
+            }
+        }
+    }
+
+    private final boolean enabled;
+    private final long slowNanos;
+    private final double sampleRate;
+    // null when there is no log to write to
+    private final Logger log;
+
+    // metrics
+    private final LongAdder tracedCount = new LongAdder();
+    private final LongAdder slowCount = new LongAdder();
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    public QueryTracer(boolean enabled, long slowMillis, double sampleRate, Logger log) {
+        this.enabled = enabled;
+        this.slowNanos = slowMillis * 1_000_000L;
+        this.sampleRate = sampleRate;
+        this.log = log;
+    }
+
+    public static QueryTracer getInstance() {
+        return INSTANCE;
+    }
+
+    // The connection to hand out in place of con
+    public Connection trace(Connection con) {
+        if (!enabled) {
+            return con;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                   new Class<?>[] {Connection.class}, new ConnectionHandler(con));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Metrics
+    public long getTracedCount() {
+        return tracedCount.sum();
+    }
+
+    public long getSlowCount() {
+        return slowCount.sum();
+    }
+
+    public long getSampledCount() {
+        return sampledCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryTracer{" +
+                "traced=" + getTracedCount() +
+                ", slow=" + getSlowCount() +
+                ", sampled=" + getSampledCount() +
+                ", failed=" + getFailedCount() +
+                ", slowMs=" + slowNanos / 1_000_000 +
+                ", sampleRate=" + sampleRate +
+                '}';
+    }
+
+    // Called once a statement has finished, including reading its result set
+    private void finished(String sql, Object[] params, int paramCount, int batchSize, long startNanos,
+                          long executeNanos, long rows, SQLException error) {
+        long totalNanos = System.nanoTime() - startNanos;
+        String name = sql == null ? "other" : NAMES.getOrDefault(sql, "other");
+        tracedCount.increment();
+        Metrics.statement(name).recordElapsed(totalNanos, 1, error != null);
+        String kind;
+        if (error != null) {
+            failedCount.increment();
+            kind = "error";
+        } else if (totalNanos >= slowNanos) {
+            slowCount.increment();
+            kind = "slow";
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            sampledCount.increment();
+            kind = "sample";
+        } else {
+            return;
+        }
+        if (log == null) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(256);
+        line.append(Instant.now()).append('\t')
+            .append(kind).append('\t')
+            .append(name).append('\t')
+            .append(String.format("%.3f", executeNanos / 1_000_000.0)).append('\t')
+            .append(String.format("%.3f", totalNanos / 1_000_000.0)).append('\t')
+            .append(rows).append('\t')
+            .append(batchSize).append('\t')
+            .append(sql == null ? "" : sql.replaceAll("\\s+", " ")).append('\t');
+        appendParams(line, params, paramCount);
+        line.append('\t').append(error == null ? "" : error.toString().replaceAll("\\s+", " "));
+        log.info(line.toString());
+    }
+
+    private static void appendParams(StringBuilder line, Object[] params, int paramCount) {
+        line.append('[');
+        for (int i = 0; i < paramCount; i++) {
+            if (i > 0) {
+                line.append(", ");
+            }
+            Object value = params[i];
+            if (value instanceof byte[]) {
+                line.append("<").append(((byte[]) value).length).append(" bytes>");
+            } else if (value instanceof String) {
+                line.append('\'').append(value).append('\'');
+            } else {
+                line.append(value);
+            }
+        }
+        line.append(']');
+    }
+
+    // A proxy is only ever equal to itself, so pools and caches keyed by connection keep working
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "Traced" + proxy.getClass().getInterfaces()[0].getSimpleName() + "@" +
+                       Integer.toHexString(System.identityHashCode(proxy));
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection con;
+
+        private ConnectionHandler(Connection con) {
+            this.con = con;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args);
+            }
+            Object result = QueryTracer.invoke(con, method, args);
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+            if (result instanceof CallableStatement) {
+                return wrap(CallableStatement.class, (Statement) result, sql);
+            } else if (result instanceof PreparedStatement) {
+                return wrap(PreparedStatement.class, (Statement) result, sql);
+            } else if (result instanceof Statement) {
+                return wrap(Statement.class, (Statement) result, null);
+            }
+            return result;
+        }
+
+        private Object wrap(Class<?> type, Statement statement, String sql) {
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                                          new StatementHandler(statement, sql));
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        // the prepared text; plain statements are given theirs on each execute
+        private final String preparedSql;
+        private Object[] params = new Object[8];
+        private int paramCount = 0;
+        private int batchSize = 0;
+
+        private StatementHandler(Statement statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args);
+            }
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                paramCount = 0;
+            } else if (name.equals("addBatch") && args == null) {
+                batchSize++;
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+            } else if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            return QueryTracer.invoke(statement, method, args);
+        }
+
+        private void bind(int index, Object value) {
+            if (index < 1) {
+                return;
+            }
+            if (index > params.length) {
+                params = Arrays.copyOf(params, Math.max(index, params.length * 2));
+            }
+            params[index - 1] = value;
+            paramCount = Math.max(paramCount, index);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            String sql = preparedSql;
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                sql = (String) args[0];
+            }
+            int batch = batchSize;
+            batchSize = 0;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = QueryTracer.invoke(statement, method, args);
+            } catch (SQLException e) {
+                finished(sql, params, paramCount, batch, start, System.nanoTime() - start, -1, e);
+                throw e;
+            }
+            long executeNanos = System.nanoTime() - start;
+            if (result instanceof ResultSet) {
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                        new ResultSetHandler((ResultSet) result, sql, Arrays.copyOf(params, paramCount), batch,
+                                             start, executeNanos));
+            }
+            finished(sql, params, paramCount, batch, start, executeNanos, rows(result), null);
+            return result;
+        }
+
+        private long rows(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return ((Number) result).longValue();
+            }
+            long rows = 0;
+            if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    rows += Math.max(0, count);
+                }
+                return rows;
+            }
+            if (result instanceof long[]) {
+                for (long count : (long[]) result) {
+                    rows += Math.max(0, count);
+                }
+                return rows;
+            }
+            // execute(): whether it produced a result set or a count is up to the caller to find out
+            return -1;
+        }
+    }
+
+    private class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final String sql;
+        private final Object[] params;
+        private final int batchSize;
+        private final long startNanos;
+        private final long executeNanos;
+        private long rows = 0;
+        private boolean done = false;
+
+        private ResultSetHandler(ResultSet resultSet, String sql, Object[] params, int batchSize, long startNanos,
+                                 long executeNanos) {
+            this.resultSet = resultSet;
+            this.sql = sql;
+            this.params = params;
+            this.batchSize = batchSize;
+            this.startNanos = startNanos;
+            this.executeNanos = executeNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Object result;
+            try {
+                result = QueryTracer.invoke(resultSet, method, args);
+            } catch (SQLException e) {
+                finish(e);
+                throw e;
+            }
+            if (name.equals("next") && Boolean.TRUE.equals(result)) {
+                rows++;
+            } else if (name.equals("close")) {
+                finish(null);
+            }
+            return result;
+        }
+
+        private void finish(SQLException error) {
+            if (!done) {
+                done = true;
+                finished(sql, params, params.length, batchSize, startNanos, executeNanos, rows, error);
+            }
+        }
+    }
+
+    private static QueryTracer fromEnv() {
+        if ("false".equalsIgnoreCase(System.getenv("QueryTrace"))) {
+            return new QueryTracer(false, 0, 0, null);
+        }
+        long slowMillis = longFromEnv("SlowQueryMillis", 500);
+        double sampleRate = 0;
+        String rate = System.getenv("QuerySampleRate");
+        if (rate != null && !rate.isEmpty()) {
+            try {
+                sampleRate = Math.min(1.0, Math.max(0.0, Double.parseDouble(rate.trim())));
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring invalid value for QuerySampleRate: " + rate);
+            }
+        }
+        String file = System.getenv("SlowQueryLog");
+        if (file == null || file.isEmpty()) {
+            file = "slow-queries.log";
+        }
+        Logger log = null;
+        try {
+            FileHandler handler = new FileHandler(file, (int) Math.min(Integer.MAX_VALUE,
+                    longFromEnv("SlowQueryLogBytes", 10L * 1024 * 1024)),
+                    (int) Math.max(1, longFromEnv("SlowQueryLogFiles", 5)), true);
+            handler.setFormatter(new Formatter() {
+                @Override
+                public String format(LogRecord record) {
+                    return record.getMessage() + System.lineSeparator();
+                }
+            });
+            log = Logger.getAnonymousLogger();
+            log.setUseParentHandlers(false);
+            log.setLevel(Level.INFO);
+            log.addHandler(handler);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to open the slow query log " + file + ", statements are only timed");
+            e.printStackTrace();
+        }
+        return new QueryTracer(true, slowMillis, sampleRate, log);
+    }
+
+    private static long longFromEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// The read-only endpoints ConnectionManager may send reads to, each with its own ConnectionPool, taken in turn.
+// A replica leaves the rotation as soon as connecting to it fails; one whose pool is merely busy, so a lease
+// times out, stays in and the read tries the next replica. A health-check thread probes every
+// replica each healthCheckMillis, so a failed one rejoins once it answers again and one that died while idle is
+// taken out before a read lands on it. When no replica is healthy, reads go to the primary.
+public class ReadReplicas {
+
+    private static final int PROBE_TIMEOUT_SECONDS = 2;
+
+    private final List<Replica> replicas;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthCheck;
+    // reads sent to the primary because the thread wrote within the lag bound, or had no healthy replica
+    private final LongAdder readsPinnedToPrimary = new LongAdder();
+    private final LongAdder readsFallenBack = new LongAdder();
+
+    public ReadReplicas(List<Replica> replicas, long healthCheckMillis) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("No read replicas given");
+        }
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-health-check");
+            t.setDaemon(true);
+            return t;
+        });
+        healthCheck.scheduleWithFixedDelay(this::probeAll, healthCheckMillis, healthCheckMillis,
+                                           TimeUnit.MILLISECONDS);
+    }
+
+    // The healthy replicas, starting from the next one in turn
+    public List<Replica> inTurn() {
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        List<Replica> healthy = new ArrayList<>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                healthy.add(replica);
+            }
+        }
+        return healthy;
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    public void shutdown() {
+        healthCheck.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.shutdown();
+        }
+    }
+
+    void pinnedToPrimary() {
+        readsPinnedToPrimary.increment();
+    }
+
+    void fellBack() {
+        readsFallenBack.increment();
+    }
+
+    public long getReadsPinnedToPrimary() {
+        return readsPinnedToPrimary.sum();
+    }
+
+    public long getReadsFallenBack() {
+        return readsFallenBack.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ReadReplicas{pinnedToPrimary=").append(getReadsPinnedToPrimary())
+                .append(", fallenBackToPrimary=").append(getReadsFallenBack());
+        for (Replica replica : replicas) {
+            sb.append(", ").append(replica);
+        }
+        return sb.append('}').toString();
+    }
+
+    private void probeAll() {
+        for (Replica replica : replicas) {
+            replica.probe();
+        }
+    }
+
+    public static class Replica {
+        private final String name;
+        private final ConnectionPool pool;
+        private volatile boolean healthy = true;
+        private final LongAdder reads = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        // reads that found every connection of the replica leased
+        private final LongAdder busy = new LongAdder();
+
+        public Replica(String name, ConnectionPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ConnectionPool getPool() {
+            return pool;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public long getReads() {
+            return reads.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getBusy() {
+            return busy.sum();
+        }
+
+        // Lease a connection for a read, taking the replica out of rotation if connecting to it fails
+        Connection borrow() throws SQLException {
+            try {
+                Connection con = pool.borrow();
+                reads.increment();
+                return con;
+            } catch (SQLTimeoutException e) {
+                // every connection is leased: the replica is busy, not down
+                busy.increment();
+                throw e;
+            } catch (SQLException e) {
+                markDown(e);
+                throw e;
+            }
+        }
+
+        private void probe() {
+            try {
+                Connection con = pool.borrow();
+                boolean valid;
+                try {
+                    valid = con.isValid(PROBE_TIMEOUT_SECONDS);
+                } finally {
+                    pool.release(con);
+                }
+                if (!valid) {
+                    markDown(new SQLException("Connection is not valid"));
+                } else if (!healthy) {
+                    healthy = true;
+                    System.out.println("Read replica " + name + " is back, sending reads to it again");
+                }
+            } catch (SQLTimeoutException e) {
+                // busy serving reads, which is answer enough
+            } catch (SQLException | RuntimeException e) {
+                markDown(e);
+            }
+        }
+
+        private void markDown(Exception cause) {
+            failures.increment();
+            if (healthy) {
+                healthy = false;
+                System.out.println("Read replica " + name + " failed, sending its reads elsewhere: " +
+                                   cause.getMessage());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + "{healthy=" + healthy + ", reads=" + getReads() + ", failures=" + getFailures() +
+                    ", busy=" + getBusy() + '}';
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+
+// Outcome of Storage.reserve: either the booked appointment or the reason nothing was booked
+public class ReservationResult {
+
+    public enum Status {
+        RESERVED,
+        UNKNOWN_VACCINE,
+        NO_DOSES,
+        NO_CAREGIVER
+    }
+
+    private final Status status;
+    private final Appointment appointment;
+
+    private ReservationResult(Status status, Appointment appointment) {
+        this.status = status;
+        this.appointment = appointment;
+    }
+
+    public static ReservationResult reserved(Appointment appointment) {
+        return new ReservationResult(Status.RESERVED, appointment);
+    }
+
+    public static ReservationResult failed(Status status) {
+        if (status == Status.RESERVED) {
+            throw new IllegalArgumentException("A successful reservation needs an appointment");
+        }
+        return new ReservationResult(status, null);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    // null unless the status is RESERVED
+    public Appointment getAppointment() {
+        return appointment;
+    }
+}
@@ -0,0 +1,30 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Each reservation starts one caregiver further along the day's list than the one before it,
+// so concurrent reservers begin at different rows.
+public class RoundRobinAssignment implements CaregiverAssignmentStrategy {
+
+    private final AtomicLong next = new AtomicLong();
+
+    @Override
+    public List<String> rank(Date date, List<String> available) {
+        if (available.size() < 2) {
+            return available;
+        }
+        int start = (int) Math.floorMod(next.getAndIncrement(), (long) available.size());
+        List<String> ranked = new ArrayList<>(available.size());
+        ranked.addAll(available.subList(start, available.size()));
+        ranked.addAll(available.subList(0, start));
+        return ranked;
+    }
+
+    @Override
+    public String toString() {
+        return "round-robin";
+    }
+}
@@ -0,0 +1,41 @@
+package scheduler.db;
+
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+
+// Outcome of Storage.getScheduleSummary: how many caregivers are available on each day of a range, with
+// the doses left of every vaccine
+public class ScheduleSummary {
+
+    private final SortedMap<Date, Integer> caregiverCounts;
+    private final List<Vaccine> vaccines;
+
+    public ScheduleSummary(SortedMap<Date, Integer> caregiverCounts, List<Vaccine> vaccines) {
+        this.caregiverCounts = Collections.unmodifiableSortedMap(caregiverCounts);
+        this.vaccines = Collections.unmodifiableList(vaccines);
+    }
+
+    // The same counts with other vaccines, for caches that know the doses better than the delegate
+    public ScheduleSummary withVaccines(List<Vaccine> vaccines) {
+        return new ScheduleSummary(caregiverCounts, vaccines);
+    }
+
+    // days with at least one caregiver available, in date order
+    public SortedMap<Date, Integer> getCaregiverCounts() {
+        return caregiverCounts;
+    }
+
+    public int getCaregiverCount(Date date) {
+        Integer count = caregiverCounts.get(date);
+        return count == null ? 0 : count;
+    }
+
+    // ordered by name
+    public List<Vaccine> getVaccines() {
+        return vaccines;
+    }
+}
@@ -0,0 +1,120 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Orders what a layer mirroring the Availabilities table does after each change commits, for CalendarIndexedStorage
+// and JournalingStorage.
+//
+// Changes either free a caregiver's slot (uploads, cancels) or take one (reservations, waitlist matches,
+// allocations, removals). They go to the delegate unlocked, so a free and a take of the same slot can commit in
+// one order and reach the layer in the other. Each change notes, before it goes to the delegate, how many changes
+// of the opposite kind every stripe of dates has applied; after it commits it is applied under the lock of its
+// date's stripe, as made if none of those have been applied since, and otherwise by reading the slot back from
+// the table. Reading back counts as both kinds, so any change still on its way is read back too.
+class SlotOrder {
+
+    private static final int STRIPES = 64;
+
+    // A change, or reading a slot back, as the layer applies it
+    interface Step {
+        void run() throws SQLException;
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    SlotOrder() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // Taken before a change goes to the delegate
+    long[] started(boolean frees) {
+        long[] counts = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            counts[i] = frees ? stripes[i].taken : stripes[i].freed;
+        }
+        return counts;
+    }
+
+    // Run change, or readBack if a change of the opposite kind reached the date's stripe since started.
+    // Returns whether the slot was read back.
+    boolean apply(Date date, boolean frees, long[] started, Step change, Step readBack) throws SQLException {
+        int i = index(date);
+        Stripe stripe = stripes[i];
+        stripe.lock.lock();
+        try {
+            if ((frees ? stripe.taken : stripe.freed) != started[i]) {
+                readBack.run();
+                stripe.freed++;
+                stripe.taken++;
+                return true;
+            }
+            change.run();
+            if (frees) {
+                stripe.freed++;
+            } else {
+                stripe.taken++;
+            }
+            return false;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Run readBack under the date's stripe lock, e.g. for slots a rebuild may have missed
+    void readBack(Date date, Step readBack) throws SQLException {
+        Stripe stripe = stripes[index(date)];
+        stripe.lock.lock();
+        try {
+            readBack.run();
+            stripe.freed++;
+            stripe.taken++;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Hold every stripe, so nothing is applied while the layer swaps what it applies to
+    void lockAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.unlock();
+        }
+    }
+
+    // The caregivers available on the date as the primary has them, for reading slots back
+    static Set<String> readDay(Storage storage, Date date) throws SQLException {
+        List<String> available;
+        ConnectionManager.PrimaryScope primary = ConnectionManager.readFromPrimary();
+        try {
+            available = storage.getAvailableCaregivers(date);
+        } finally {
+            primary.close();
+        }
+        Set<String> day = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        day.addAll(available);
+        return day;
+    }
+
+    private static int index(Date date) {
+        return Math.floorMod(date.hashCode(), STRIPES);
+    }
+
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        // changes applied that freed and took a slot on the stripe's dates; written with the lock held
+        private volatile long freed = 0;
+        private volatile long taken = 0;
+    }
+}
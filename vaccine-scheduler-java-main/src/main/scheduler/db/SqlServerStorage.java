@@ -0,0 +1,959 @@
+package scheduler.db;
+
+import scheduler.journal.SchedulerState;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.model.WaitlistEntry;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+// Storage backed by the SQL Server tables in create.sql, using pooled connections from ConnectionManager.
+// Statements come from the SqlStatement catalog and are cached per connection; result sets are closed here.
+public class SqlServerStorage implements Storage {
+
+    // SQL Server error code for a transaction chosen as a deadlock victim
+    private static final int DEADLOCK_VICTIM = 1205;
+    private static final int MAX_RESERVE_ATTEMPTS = 3;
+    // rows fetched per round trip by the full-table scans
+    private static final int SCAN_FETCH_SIZE = 5000;
+    // appointment rows fetched per round trip, enough for a screenful without buffering a whole history
+    private static final int APPOINTMENT_FETCH_SIZE = 200;
+    // rows sent to the server per executeBatch round trip
+    private static final int BATCH_SIZE = 500;
+    // parameters of the IN lists in SqlStatement
+    static final int IN_LIST_SIZE = 100;
+
+    private final CaregiverAssignmentStrategy assignment;
+
+    public SqlServerStorage() {
+        this(CaregiverAssignmentStrategy.fromEnv());
+    }
+
+    public SqlServerStorage(CaregiverAssignmentStrategy assignment) {
+        this.assignment = assignment;
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return exists(SqlStatement.PATIENT_EXISTS, username);
+    }
+
+    @Override
+    public Set<String> findPatients(List<String> usernames) throws SQLException {
+        Set<String> found = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        if (usernames.isEmpty()) {
+            return found;
+        }
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.FIND_PATIENTS);
+            for (int from = 0; from < usernames.size(); from += IN_LIST_SIZE) {
+                // a short last batch repeats its last name, so every batch runs the same statement
+                for (int i = 0; i < IN_LIST_SIZE; i++) {
+                    statement.setString(i + 1, usernames.get(Math.min(from + i, usernames.size() - 1)));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        found.add(resultSet.getString(1));
+                    }
+                }
+            }
+            return found;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addPatient(Patient patient) throws SQLException {
+        addUser(SqlStatement.ADD_PATIENT, patient.getUsername(), patient.getSalt(), patient.getHash());
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.GET_PATIENT);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new Patient.PatientBuilder(username, resultSet.getBytes("Salt"),
+                                                      resultSet.getBytes("Hash")).build();
+                }
+                return null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachPatientUsername(Consumer<String> action) throws SQLException {
+        scanUsernames(SqlStatement.SCAN_PATIENT_USERNAMES, action);
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return exists(SqlStatement.CAREGIVER_EXISTS, username);
+    }
+
+    @Override
+    public void addCaregiver(Caregiver caregiver) throws SQLException {
+        addUser(SqlStatement.ADD_CAREGIVER, caregiver.getUsername(), caregiver.getSalt(), caregiver.getHash());
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.GET_CAREGIVER);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new Caregiver.CaregiverBuilder(username, resultSet.getBytes("Salt"),
+                                                          resultSet.getBytes("Hash")).build();
+                }
+                return null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachCaregiverUsername(Consumer<String> action) throws SQLException {
+        scanUsernames(SqlStatement.SCAN_CAREGIVER_USERNAMES, action);
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.ADD_AVAILABILITY);
+            statement.setDate(1, date);
+            statement.setString(2, caregiver);
+            statement.executeUpdate();
+            cm.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Availability> addAvailabilities(List<Availability> availabilities) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            try {
+                List<Availability> inserted = addAvailabilities(cm, availabilities);
+                cm.commit();
+                return inserted;
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Batched insert on the caller's connection and transaction; returns the rows inserted
+    static List<Availability> addAvailabilities(ConnectionManager cm, List<Availability> availabilities)
+            throws SQLException {
+        PreparedStatement statement = cm.prepare(SqlStatement.ADD_AVAILABILITY_IF_NEW);
+        List<Availability> inserted = new ArrayList<>();
+        int pending = 0;
+        int sent = 0;
+        for (Availability availability : availabilities) {
+            statement.setDate(1, availability.getDate());
+            statement.setString(2, availability.getCaregiverName());
+            statement.setString(3, availability.getCaregiverName());
+            statement.setDate(4, availability.getDate());
+            statement.setString(5, availability.getCaregiverName());
+            statement.addBatch();
+            if (++pending == BATCH_SIZE) {
+                collectInserted(statement.executeBatch(), availabilities, sent, inserted);
+                // prepare counted the first batch, count the rest as they go out
+                Metrics.roundTrip();
+                sent += pending;
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            collectInserted(statement.executeBatch(), availabilities, sent, inserted);
+        }
+        return inserted;
+    }
+
+    // the batch's update counts line up with the rows from first on
+    private static void collectInserted(int[] counts, List<Availability> availabilities, int first,
+                                        List<Availability> inserted) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                inserted.add(availabilities.get(first + i));
+            }
+        }
+    }
+
+    @Override
+    public void removeAvailability(Date date, String caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.REMOVE_AVAILABILITY);
+            statement.setString(1, caregiver);
+            statement.setDate(2, date);
+            statement.executeUpdate();
+            cm.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<String> getAvailableCaregivers(Date date) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.AVAILABLE_CAREGIVERS);
+            statement.setDate(1, date);
+            List<String> usernames = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    usernames.add(resultSet.getString(1));
+                }
+            }
+            return usernames;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachAvailability(Consumer<Availability> action) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.SCAN_AVAILABILITIES);
+            statement.setFetchSize(SCAN_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(new Availability.AvailabilityBuilder(resultSet.getDate(1),
+                                                                       resultSet.getString(2)).build());
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public ScheduleSummary getScheduleSummary(Date start, Date end) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.SCHEDULE_SUMMARY);
+            statement.setDate(1, start);
+            statement.setDate(2, end);
+            SortedMap<Date, Integer> counts = new TreeMap<>();
+            List<Vaccine> vaccines = new ArrayList<>();
+            if (!statement.execute()) {
+                throw new SQLException("Schedule summary returned no caregiver counts");
+            }
+            try (ResultSet resultSet = statement.getResultSet()) {
+                while (resultSet.next()) {
+                    counts.put(resultSet.getDate(1), resultSet.getInt(2));
+                }
+            }
+            // databases that answer one statement per batch, like H2, take a second round trip for the vaccines
+            ResultSet vaccineRows = statement.getMoreResults() ? statement.getResultSet()
+                                                               : cm.prepare(SqlStatement.GET_VACCINES).executeQuery();
+            try (ResultSet resultSet = vaccineRows) {
+                while (resultSet.next()) {
+                    vaccines.add(new Vaccine.VaccineBuilder(resultSet.getString("Name"),
+                                                            resultSet.getInt("Doses")).build());
+                }
+            }
+            return new ScheduleSummary(counts, vaccines);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.ADD_VACCINE);
+            statement.setString(1, vaccineName);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+            cm.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Vaccine getVaccine(String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.GET_VACCINE);
+            statement.setString(1, vaccineName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new Vaccine.VaccineBuilder(resultSet.getString("Name"), resultSet.getInt("Doses")).build();
+                }
+                return null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Vaccine> getVaccines() throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.GET_VACCINES);
+            List<Vaccine> vaccines = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    vaccines.add(new Vaccine.VaccineBuilder(resultSet.getString("Name"),
+                                                            resultSet.getInt("Doses")).build());
+                }
+            }
+            return vaccines;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void updateVaccineDoses(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.SET_DOSES);
+            statement.setInt(1, doses);
+            statement.setString(2, vaccineName);
+            statement.executeUpdate();
+            cm.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            try {
+                addDoses(cm, doses);
+                cm.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            try {
+                List<Availability> inserted = addAvailabilities(cm, availabilities);
+                addDoses(cm, doses);
+                PreparedStatement checkpoint = cm.prepare(SqlStatement.SET_IMPORT_CHECKPOINT);
+                checkpoint.setString(1, importName);
+                checkpoint.setLong(2, lastLine);
+                checkpoint.executeUpdate();
+                cm.commit();
+                return inserted;
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // read on the primary, a replica may not have the latest batch yet
+    @Override
+    public long getImportCheckpoint(String importName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.GET_IMPORT_CHECKPOINT);
+            statement.setString(1, importName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong("Line") : 0;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void removeImportCheckpoint(String importName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.REMOVE_IMPORT_CHECKPOINT);
+            statement.setString(1, importName);
+            statement.executeUpdate();
+            cm.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    // the availability goes first and the hot Vaccines row last, so the dose row stays locked
+                    // only for the end of the transaction
+                    String caregiver = claimCaregiver(cm, date);
+                    if (caregiver == null) {
+                        con.rollback();
+                        return ReservationResult.failed(vaccineExists(cm, vaccineName)
+                                                        ? ReservationResult.Status.NO_CAREGIVER
+                                                        : ReservationResult.Status.UNKNOWN_VACCINE);
+                    }
+
+                    PreparedStatement takeDose = cm.prepare(SqlStatement.TAKE_DOSE);
+                    takeDose.setString(1, vaccineName);
+                    if (takeDose.executeUpdate() == 0) {
+                        con.rollback();
+                        return ReservationResult.failed(vaccineExists(cm, vaccineName)
+                                                        ? ReservationResult.Status.NO_DOSES
+                                                        : ReservationResult.Status.UNKNOWN_VACCINE);
+                    }
+
+                    int appointmentId = insertAppointment(cm, date, patient, caregiver, vaccineName);
+                    cm.commit();
+                    assignment.booked(date, caregiver);
+                    AssignmentContention.recordReservation();
+                    return ReservationResult.reserved(new Appointment.AppointmentBuilder(
+                            appointmentId, date, patient, caregiver, vaccineName).build());
+                } catch (SQLException e) {
+                    con.rollback();
+                    if (e.getErrorCode() != DEADLOCK_VICTIM || attempt >= MAX_RESERVE_ATTEMPTS) {
+                        throw e;
+                    }
+                    AssignmentContention.recordDeadlockRetry();
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int addAppointment(Date date, String patient, String caregiver, String vaccineName)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            int appointmentId = insertAppointment(cm, date, patient, caregiver, vaccineName);
+            cm.commit();
+            return appointmentId;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Appointment getAppointment(int appointmentId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.GET_APPOINTMENT);
+            statement.setInt(1, appointmentId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return toAppointment(resultSet);
+                }
+                return null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            try {
+                // the DELETE decides which of two concurrent cancels wins: only one of them gets the row back
+                PreparedStatement delete = cm.prepare(byCaregiver ? SqlStatement.CANCEL_CAREGIVER_APPOINTMENT
+                                                                  : SqlStatement.CANCEL_PATIENT_APPOINTMENT);
+                delete.setInt(1, appointmentId);
+                delete.setString(2, owner);
+                Appointment cancelled = null;
+                try (ResultSet resultSet = delete.executeQuery()) {
+                    if (resultSet.next()) {
+                        cancelled = toAppointment(resultSet);
+                    }
+                }
+                if (cancelled == null) {
+                    con.rollback();
+                    return null;
+                }
+                addDoses(cm, Map.of(cancelled.getVaccineName(), 1));
+                // the caregiver may have uploaded the day again meanwhile, which is not an error
+                PreparedStatement giveBack = cm.prepare(SqlStatement.ADD_AVAILABILITY_IF_NEW);
+                giveBack.setDate(1, cancelled.getDate());
+                giveBack.setString(2, cancelled.getCaregiverName());
+                giveBack.setString(3, cancelled.getCaregiverName());
+                giveBack.setDate(4, cancelled.getDate());
+                giveBack.setString(5, cancelled.getCaregiverName());
+                giveBack.executeUpdate();
+                cm.commit();
+                return cancelled;
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(query.isByCaregiver() ? SqlStatement.CAREGIVER_APPOINTMENTS
+                                                                           : SqlStatement.PATIENT_APPOINTMENTS);
+            statement.setInt(1, query.getLimit());
+            statement.setString(2, query.getUsername());
+            statement.setInt(3, query.getAfterId());
+            statement.setDate(4, query.getFrom());
+            statement.setDate(5, query.getTo());
+            statement.setFetchSize(Math.min(query.getLimit(), APPOINTMENT_FETCH_SIZE));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(toAppointment(resultSet));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachBookingCount(SchedulerState.BookingConsumer action) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.SCAN_BOOKING_COUNTS);
+            statement.setFetchSize(SCAN_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(resultSet.getDate(2), resultSet.getString(1), resultSet.getInt(3));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Delete the slot of a caregiver available on the date, in the caller's transaction, and return the
+    // caregiver; null if nobody is free. The assignment strategy's candidates are tried first.
+    private String claimCaregiver(ConnectionManager cm, Date date) throws SQLException {
+        PreparedStatement list = cm.prepare(SqlStatement.CLAIMABLE_CAREGIVERS);
+        list.setInt(1, CaregiverAssignmentStrategy.CANDIDATE_WINDOW);
+        list.setDate(2, date);
+        List<String> candidates = new ArrayList<>();
+        try (ResultSet resultSet = list.executeQuery()) {
+            while (resultSet.next()) {
+                candidates.add(resultSet.getString(1));
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        List<String> ranked = assignment.rank(date, candidates);
+        for (int i = 0; i < Math.min(CaregiverAssignmentStrategy.MAX_CLAIM_ATTEMPTS, ranked.size()); i++) {
+            AssignmentContention.recordClaim();
+            PreparedStatement claim = cm.prepare(SqlStatement.CLAIM_CAREGIVER);
+            claim.setDate(1, date);
+            claim.setString(2, ranked.get(i));
+            if (claim.executeUpdate() == 1) {
+                return ranked.get(i);
+            }
+            AssignmentContention.recordConflict();
+        }
+        AssignmentContention.recordFallback();
+        PreparedStatement first = cm.prepare(SqlStatement.CLAIM_AVAILABILITY);
+        first.setDate(1, date);
+        try (ResultSet claimed = first.executeQuery()) {
+            return claimed.next() ? claimed.getString(1) : null;
+        }
+    }
+
+    // Returns the generated waitlist entry id
+    @Override
+    public int addWaitlistEntry(String patient, String vaccineName, Date start, Date end) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(SqlStatement.ADD_WAITLIST_ENTRY);
+            statement.setString(1, patient);
+            statement.setString(2, vaccineName);
+            statement.setDate(3, start);
+            statement.setDate(4, end);
+            statement.setString(5, patient);
+            statement.setString(6, vaccineName);
+            if (statement.executeUpdate() == 0) {
+                return 0;
+            }
+            cm.commit();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No waitlist entry id was generated");
+                }
+                return keys.getInt(1);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Each entry gets a savepoint, so one that takes a dose but finds no caregiver gives the dose back
+    // without undoing the entries booked before it. A vaccine that runs out is not asked for again.
+    @Override
+    public WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            try {
+                List<WaitlistEntry> entries = new ArrayList<>();
+                PreparedStatement page = cm.prepare(SqlStatement.WAITLIST_PAGE);
+                page.setInt(1, maxEntries);
+                page.setInt(2, afterEntryId);
+                try (ResultSet resultSet = page.executeQuery()) {
+                    while (resultSet.next()) {
+                        entries.add(new WaitlistEntry.WaitlistEntryBuilder(
+                                resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3),
+                                resultSet.getDate(4), resultSet.getDate(5)).build());
+                    }
+                }
+
+                Date today = Date.valueOf(LocalDate.now());
+                Set<String> outOfDoses = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                List<Appointment> booked = new ArrayList<>();
+                int last = afterEntryId;
+                for (WaitlistEntry entry : entries) {
+                    last = entry.getEntryId();
+                    if (entry.getEnd().before(today)) {
+                        removeWaitlistEntry(cm, entry.getEntryId());
+                        continue;
+                    }
+                    if (outOfDoses.contains(entry.getVaccineName())) {
+                        continue;
+                    }
+                    Savepoint savepoint = con.setSavepoint();
+                    PreparedStatement takeDose = cm.prepare(SqlStatement.TAKE_DOSE);
+                    takeDose.setString(1, entry.getVaccineName());
+                    if (takeDose.executeUpdate() == 0) {
+                        outOfDoses.add(entry.getVaccineName());
+                        continue;
+                    }
+                    PreparedStatement claim = cm.prepare(SqlStatement.CLAIM_AVAILABILITY_BETWEEN);
+                    // never book into a day that has passed, even if the entry's range started earlier
+                    claim.setDate(1, entry.getStart().before(today) ? today : entry.getStart());
+                    claim.setDate(2, entry.getEnd());
+                    Date date = null;
+                    String caregiver = null;
+                    try (ResultSet resultSet = claim.executeQuery()) {
+                        if (resultSet.next()) {
+                            date = resultSet.getDate(1);
+                            caregiver = resultSet.getString(2);
+                        }
+                    }
+                    if (caregiver == null) {
+                        con.rollback(savepoint);
+                        continue;
+                    }
+                    int appointmentId = insertAppointment(cm, date, entry.getPatientName(), caregiver,
+                                                          entry.getVaccineName());
+                    removeWaitlistEntry(cm, entry.getEntryId());
+                    booked.add(new Appointment.AppointmentBuilder(appointmentId, date, entry.getPatientName(),
+                                                                  caregiver, entry.getVaccineName()).build());
+                }
+                cm.commit();
+                for (Appointment appointment : booked) {
+                    assignment.booked(appointment.getDate(), appointment.getCaregiverName());
+                }
+                return new WaitlistPass(booked, entries.size(), last);
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException {
+        List<Appointment> booked = new ArrayList<>();
+        if (planned.isEmpty()) {
+            return booked;
+        }
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        Connection con = cm.createConnection();
+
+        try {
+            con.setAutoCommit(false);
+            try {
+                // claim every slot in batched round trips; READPAST leaves slots reservers are taking to them
+                boolean[] claimed = new boolean[planned.size()];
+                PreparedStatement claim = cm.prepare(SqlStatement.CLAIM_CAREGIVER);
+                int sent = 0;
+                for (int i = 0; i < planned.size(); i++) {
+                    claim.setDate(1, planned.get(i).getDate());
+                    claim.setString(2, planned.get(i).getCaregiverName());
+                    claim.addBatch();
+                    if (i - sent + 1 == BATCH_SIZE || i == planned.size() - 1) {
+                        int[] counts = claim.executeBatch();
+                        for (int j = 0; j < counts.length; j++) {
+                            claimed[sent + j] = counts[j] > 0;
+                        }
+                        if (sent > 0) {
+                            Metrics.roundTrip();
+                        }
+                        sent = i + 1;
+                    }
+                }
+
+                // then the doses, one round trip per vaccine however many plans want it
+                Map<String, Integer> wanted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (int i = 0; i < planned.size(); i++) {
+                    if (claimed[i]) {
+                        wanted.merge(planned.get(i).getVaccineName(), 1, Integer::sum);
+                    }
+                }
+                Map<String, Integer> taken = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (Map.Entry<String, Integer> vaccine : wanted.entrySet()) {
+                    PreparedStatement takeDoses = cm.prepare(SqlStatement.TAKE_DOSES);
+                    takeDoses.setInt(1, vaccine.getValue());
+                    takeDoses.setInt(2, vaccine.getValue());
+                    takeDoses.setString(3, vaccine.getKey());
+                    try (ResultSet resultSet = takeDoses.executeQuery()) {
+                        taken.put(vaccine.getKey(), resultSet.next() ? resultSet.getInt(1) : 0);
+                    }
+                }
+
+                // plans past the doses their vaccine had left give their slot back
+                PreparedStatement giveBack = null;
+                for (int i = 0; i < planned.size(); i++) {
+                    if (!claimed[i]) {
+                        continue;
+                    }
+                    Appointment plan = planned.get(i);
+                    int doses = taken.get(plan.getVaccineName());
+                    if (doses == 0) {
+                        if (giveBack == null) {
+                            giveBack = cm.prepare(SqlStatement.ADD_AVAILABILITY);
+                        }
+                        giveBack.setDate(1, plan.getDate());
+                        giveBack.setString(2, plan.getCaregiverName());
+                        giveBack.addBatch();
+                        continue;
+                    }
+                    taken.put(plan.getVaccineName(), doses - 1);
+                    int appointmentId = insertAppointment(cm, plan.getDate(), plan.getPatientName(),
+                                                          plan.getCaregiverName(), plan.getVaccineName());
+                    booked.add(new Appointment.AppointmentBuilder(appointmentId, plan.getDate(),
+                                                                  plan.getPatientName(), plan.getCaregiverName(),
+                                                                  plan.getVaccineName()).build());
+                }
+                if (giveBack != null) {
+                    giveBack.executeBatch();
+                }
+                cm.commit();
+                for (Appointment appointment : booked) {
+                    assignment.booked(appointment.getDate(), appointment.getCaregiverName());
+                }
+                return booked;
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void removeWaitlistEntry(ConnectionManager cm, int entryId) throws SQLException {
+        PreparedStatement statement = cm.prepare(SqlStatement.REMOVE_WAITLIST_ENTRY);
+        statement.setInt(1, entryId);
+        statement.executeUpdate();
+    }
+
+    private static int insertAppointment(ConnectionManager cm, Date date, String patient, String caregiver,
+                                         String vaccineName) throws SQLException {
+        PreparedStatement statement = cm.prepare(SqlStatement.ADD_APPOINTMENT);
+        statement.setDate(1, date);
+        statement.setString(2, patient);
+        statement.setString(3, caregiver);
+        statement.setString(4, vaccineName);
+        statement.executeUpdate();
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            if (!keys.next()) {
+                throw new SQLException("No appointment id was generated");
+            }
+            return keys.getInt(1);
+        }
+    }
+
+    // Batched MERGE of dose deltas on the caller's connection and transaction
+    private static void addDoses(ConnectionManager cm, Map<String, Integer> doses) throws SQLException {
+        if (doses.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = cm.prepare(SqlStatement.ADD_DOSES);
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            statement.setString(1, entry.getKey());
+            statement.setInt(2, entry.getValue());
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    private static boolean vaccineExists(ConnectionManager cm, String vaccineName) throws SQLException {
+        PreparedStatement statement = cm.prepare(SqlStatement.GET_VACCINE);
+        statement.setString(1, vaccineName);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next();
+        }
+    }
+
+    private boolean exists(SqlStatement query, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(query);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void scanUsernames(SqlStatement query, Consumer<String> action) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.READ_PRIMARY);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(query);
+            statement.setFetchSize(SCAN_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(resultSet.getString(1));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void addUser(SqlStatement insert, String username, byte[] salt, byte[] hash) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(ConnectionManager.Intent.WRITE);
+        cm.createConnection();
+
+        try {
+            PreparedStatement statement = cm.prepare(insert);
+            statement.setString(1, username);
+            statement.setBytes(2, salt);
+            statement.setBytes(3, hash);
+            statement.executeUpdate();
+            cm.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static Appointment toAppointment(ResultSet resultSet) throws SQLException {
+        return new Appointment.AppointmentBuilder(resultSet.getInt("a_id"), resultSet.getDate("date"),
+                                                  resultSet.getString("p_user"), resultSet.getString("c_user"),
+                                                  resultSet.getString("v_name")).build();
+    }
+}
@@ -0,0 +1,165 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+
+// Every statement SqlServerStorage runs. Connections prepare each one at most once and keep it in their
+// StatementCache, so the server parses and plans it once per connection rather than once per call.
+// Statements using T-SQL that H2 (in MSSQLServer mode) cannot parse, such as OUTPUT clauses and lock hints on
+// DELETE, carry an H2 version with the same parameters and result columns, for the embedded database the
+// benchmarks run against. Those leave out the lock hints, so they show the cost, not the locking, of the original.
+public enum SqlStatement {
+
+    // Patients
+    PATIENT_EXISTS("SELECT 1 FROM Patients WHERE Username = ?"),
+    ADD_PATIENT("INSERT INTO Patients VALUES (?, ?, ?)"),
+    GET_PATIENT("SELECT Salt, Hash FROM Patients WHERE Username = ?"),
+    SCAN_PATIENT_USERNAMES("SELECT Username FROM Patients"),
+    FIND_PATIENTS("SELECT Username FROM Patients WHERE Username IN (" +
+                  String.join(", ", Collections.nCopies(SqlServerStorage.IN_LIST_SIZE, "?")) + ")"),
+
+    // Caregivers
+    CAREGIVER_EXISTS("SELECT 1 FROM Caregivers WHERE Username = ?"),
+    ADD_CAREGIVER("INSERT INTO Caregivers VALUES (?, ?, ?)"),
+    GET_CAREGIVER("SELECT Salt, Hash FROM Caregivers WHERE Username = ?"),
+    SCAN_CAREGIVER_USERNAMES("SELECT Username FROM Caregivers"),
+
+    // Availabilities
+    ADD_AVAILABILITY("INSERT INTO Availabilities VALUES (?, ?)"),
+    // skips rows that already exist or whose caregiver does not, so one bad row cannot abort a whole batch
+    ADD_AVAILABILITY_IF_NEW("INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+                            "WHERE EXISTS (SELECT 1 FROM Caregivers WHERE Username = ?) " +
+                            "AND NOT EXISTS (SELECT 1 FROM Availabilities WITH (UPDLOCK, HOLDLOCK) " +
+                            "WHERE Time = ? AND Username = ?)"),
+    REMOVE_AVAILABILITY("DELETE FROM Availabilities WHERE Username = ? AND Time = ?"),
+    AVAILABLE_CAREGIVERS("SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username"),
+    SCAN_AVAILABILITIES("SELECT Time, Username FROM Availabilities"),
+    // two result sets in one round trip: caregivers available per day of the range, then every vaccine.
+    // H2 answers only the first statement of a batch, so there SqlServerStorage reads the vaccines separately.
+    SCHEDULE_SUMMARY("SELECT Time, COUNT(*) FROM Availabilities WHERE Time BETWEEN ? AND ? GROUP BY Time " +
+                     "ORDER BY Time; SELECT Name, Doses FROM Vaccines ORDER BY Name",
+                     "SELECT Time, COUNT(*) FROM Availabilities WHERE Time BETWEEN ? AND ? GROUP BY Time " +
+                     "ORDER BY Time"),
+    // candidates for a CaregiverAssignmentStrategy, skipping slots other reservers are claiming
+    CLAIMABLE_CAREGIVERS("SELECT TOP (?) Username FROM Availabilities WITH (READPAST) " +
+                         "WHERE Time = ? ORDER BY Username"),
+    CLAIM_CAREGIVER("DELETE FROM Availabilities WITH (ROWLOCK, READPAST) WHERE Time = ? AND Username = ?",
+                    "DELETE FROM Availabilities WHERE Time = ? AND Username = ?"),
+    // claim the first free slot of the day; READPAST skips slots other reservers have locked
+    // instead of queueing behind them
+    CLAIM_AVAILABILITY("WITH slot AS (SELECT TOP (1) Time, Username FROM Availabilities " +
+                       "WITH (UPDLOCK, ROWLOCK, READPAST) WHERE Time = ? ORDER BY Username) " +
+                       "DELETE FROM slot OUTPUT deleted.Username",
+                       "SELECT Username FROM OLD TABLE (DELETE FROM Availabilities WHERE (Time, Username) = " +
+                       "(SELECT TOP (1) Time, Username FROM Availabilities WHERE Time = ? ORDER BY Username))"),
+    // the same over a range of days, earliest first
+    CLAIM_AVAILABILITY_BETWEEN("WITH slot AS (SELECT TOP (1) Time, Username FROM Availabilities " +
+                               "WITH (UPDLOCK, ROWLOCK, READPAST) WHERE Time BETWEEN ? AND ? " +
+                               "ORDER BY Time, Username) DELETE FROM slot OUTPUT deleted.Time, deleted.Username",
+                               "SELECT Time, Username FROM OLD TABLE (DELETE FROM Availabilities " +
+                               "WHERE (Time, Username) = (SELECT TOP (1) Time, Username FROM Availabilities " +
+                               "WHERE Time BETWEEN ? AND ? ORDER BY Time, Username))"),
+
+    // Vaccines
+    ADD_VACCINE("INSERT INTO Vaccines VALUES (?, ?)"),
+    GET_VACCINE("SELECT Name, Doses FROM Vaccines WHERE Name = ?"),
+    GET_VACCINES("SELECT Name, Doses FROM Vaccines ORDER BY Name"),
+    SET_DOSES("UPDATE Vaccines SET Doses = ? WHERE Name = ?"),
+    ADD_DOSES("MERGE Vaccines WITH (HOLDLOCK) AS v USING (SELECT ? AS Name, ? AS Doses) AS s ON v.Name = s.Name " +
+              "WHEN MATCHED THEN UPDATE SET Doses = v.Doses + s.Doses " +
+              "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (s.Name, s.Doses);",
+              "MERGE INTO Vaccines AS v USING (SELECT CAST(? AS varchar(255)) AS Name, CAST(? AS int) AS Doses) " +
+              "AS s ON v.Name = s.Name WHEN MATCHED THEN UPDATE SET Doses = v.Doses + s.Doses " +
+              "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (s.Name, s.Doses)"),
+    TAKE_DOSE("UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0"),
+    // take up to ? doses, as many as there are, and return how many were taken
+    TAKE_DOSES("UPDATE Vaccines SET Doses = Doses - CASE WHEN Doses < ? THEN Doses ELSE ? END " +
+               "OUTPUT deleted.Doses - inserted.Doses WHERE Name = ? AND Doses > 0",
+               "SELECT CASE WHEN Doses < ?1 THEN Doses ELSE ?2 END FROM OLD TABLE (UPDATE Vaccines " +
+               "SET Doses = Doses - CASE WHEN Doses < ?1 THEN Doses ELSE ?2 END WHERE Name = ?3 AND Doses > 0)"),
+
+    // Import checkpoints, see BulkImporter
+    GET_IMPORT_CHECKPOINT("SELECT Line FROM ImportCheckpoints WHERE Name = ?"),
+    SET_IMPORT_CHECKPOINT("MERGE ImportCheckpoints WITH (HOLDLOCK) AS c USING (SELECT ? AS Name, ? AS Line) AS s " +
+                          "ON c.Name = s.Name WHEN MATCHED THEN UPDATE SET Line = s.Line " +
+                          "WHEN NOT MATCHED THEN INSERT (Name, Line) VALUES (s.Name, s.Line);",
+                          "MERGE INTO ImportCheckpoints AS c USING (SELECT CAST(? AS varchar(900)) AS Name, " +
+                          "CAST(? AS bigint) AS Line) AS s ON c.Name = s.Name WHEN MATCHED THEN UPDATE SET " +
+                          "Line = s.Line WHEN NOT MATCHED THEN INSERT (Name, Line) VALUES (s.Name, s.Line)"),
+    REMOVE_IMPORT_CHECKPOINT("DELETE FROM ImportCheckpoints WHERE Name = ?"),
+
+    // Appointments
+    ADD_APPOINTMENT("INSERT INTO Appointments (date, p_user, c_user, v_name) VALUES (?, ?, ?, ?)", true),
+    GET_APPOINTMENT("SELECT a_id, date, p_user, c_user, v_name FROM Appointments WHERE a_id = ?"),
+    // delete the appointment only if it belongs to the user, returning what was deleted
+    CANCEL_PATIENT_APPOINTMENT("DELETE FROM Appointments OUTPUT deleted.a_id, deleted.date, deleted.p_user, " +
+                               "deleted.c_user, deleted.v_name WHERE a_id = ? AND p_user = ?",
+                               "SELECT a_id, date, p_user, c_user, v_name FROM OLD TABLE " +
+                               "(DELETE FROM Appointments WHERE a_id = ? AND p_user = ?)"),
+    CANCEL_CAREGIVER_APPOINTMENT("DELETE FROM Appointments OUTPUT deleted.a_id, deleted.date, deleted.p_user, " +
+                                 "deleted.c_user, deleted.v_name WHERE a_id = ? AND c_user = ?",
+                                 "SELECT a_id, date, p_user, c_user, v_name FROM OLD TABLE " +
+                                 "(DELETE FROM Appointments WHERE a_id = ? AND c_user = ?)"),
+    // keyset pagination on a_id: page after page costs the same however deep it is
+    CAREGIVER_APPOINTMENTS("SELECT TOP (?) a_id, date, p_user, c_user, v_name FROM Appointments " +
+                           "WHERE c_user = ? AND a_id > ? AND date BETWEEN ? AND ? ORDER BY a_id"),
+    PATIENT_APPOINTMENTS("SELECT TOP (?) a_id, date, p_user, c_user, v_name FROM Appointments " +
+                         "WHERE p_user = ? AND a_id > ? AND date BETWEEN ? AND ? ORDER BY a_id"),
+    SCAN_BOOKING_COUNTS("SELECT c_user, date, COUNT(*) FROM Appointments GROUP BY c_user, date"),
+
+    // Waitlist
+    // nothing is inserted if the patient is already waiting for the vaccine
+    ADD_WAITLIST_ENTRY("INSERT INTO Waitlist (p_user, v_name, start_date, end_date) SELECT ?, ?, ?, ? " +
+                       "WHERE NOT EXISTS (SELECT 1 FROM Waitlist WITH (UPDLOCK, HOLDLOCK) " +
+                       "WHERE p_user = ? AND v_name = ?)", true),
+    // oldest first; READPAST leaves entries another matcher holds to it
+    WAITLIST_PAGE("SELECT TOP (?) w_id, p_user, v_name, start_date, end_date FROM Waitlist " +
+                  "WITH (UPDLOCK, ROWLOCK, READPAST) WHERE w_id > ? ORDER BY w_id"),
+    REMOVE_WAITLIST_ENTRY("DELETE FROM Waitlist WHERE w_id = ?");
+
+    // the database a connection talks to, which decides the text prepared for it
+    public enum Dialect {
+        SQL_SERVER,
+        H2;
+
+        public static Dialect of(Connection con) throws SQLException {
+            return "H2".equals(con.getMetaData().getDatabaseProductName()) ? H2 : SQL_SERVER;
+        }
+    }
+
+    private final String sql;
+    // null if sql runs on H2 as it is
+    private final String h2Sql;
+    private final boolean returnsGeneratedKeys;
+
+    SqlStatement(String sql) {
+        this(sql, null, false);
+    }
+
+    SqlStatement(String sql, boolean returnsGeneratedKeys) {
+        this(sql, null, returnsGeneratedKeys);
+    }
+
+    SqlStatement(String sql, String h2Sql) {
+        this(sql, h2Sql, false);
+    }
+
+    SqlStatement(String sql, String h2Sql, boolean returnsGeneratedKeys) {
+        this.sql = sql;
+        this.h2Sql = h2Sql;
+        this.returnsGeneratedKeys = returnsGeneratedKeys;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getSql(Dialect dialect) {
+        return dialect == Dialect.H2 && h2Sql != null ? h2Sql : sql;
+    }
+
+    public boolean returnsGeneratedKeys() {
+        return returnsGeneratedKeys;
+    }
+}
@@ -0,0 +1,98 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// The prepared statements of one pooled connection, least recently used first out.
+// A connection is leased to one thread at a time, so the cache needs no locking of its own.
+public class StatementCache {
+
+    // shared by every connection in this JVM
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private final Connection con;
+    // looked up on the first miss
+    private SqlStatement.Dialect dialect = null;
+    private final LinkedHashMap<SqlStatement, PreparedStatement> statements;
+
+    public StatementCache(Connection con, int capacity) {
+        this.con = con;
+        this.statements = new LinkedHashMap<SqlStatement, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SqlStatement, PreparedStatement> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                evictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    // The connection's statement for sql, with no parameters or batch left over from its last use.
+    // Owned by the cache: callers close the result sets they open but never the statement.
+    public PreparedStatement prepare(SqlStatement sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hits.increment();
+            statement.clearParameters();
+            statement.clearBatch();
+            return statement;
+        }
+        misses.increment();
+        if (dialect == null) {
+            dialect = SqlStatement.Dialect.of(con);
+        }
+        statement = sql.returnsGeneratedKeys()
+                ? con.prepareStatement(sql.getSql(dialect), Statement.RETURN_GENERATED_KEYS)
+                : con.prepareStatement(sql.getSql(dialect));
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    // Close every statement, called when the connection leaves the pool
+    public void close() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    // Metrics
+    public static long getHitCount() {
+        return hits.sum();
+    }
+
+    public static long getMissCount() {
+        return misses.sum();
+    }
+
+    public static long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public static double getHitRatio() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0.0 : (double) hits.sum() / total;
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is being thrown away anyway
+        }
+    }
+}
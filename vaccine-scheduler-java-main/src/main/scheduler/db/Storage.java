@@ -0,0 +1,131 @@
+package scheduler.db;
+
+import scheduler.journal.SchedulerState;
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Everything the scheduler persists. Implementations must be safe to call from several threads at once.
+public interface Storage {
+
+    // Patients
+    boolean patientExists(String username) throws SQLException;
+
+    // those of the usernames that belong to a patient, compared case-insensitively; a few round trips for
+    // however many names, where patientExists costs one each
+    Set<String> findPatients(List<String> usernames) throws SQLException;
+
+    void addPatient(Patient patient) throws SQLException;
+
+    // returns the stored patient (salt and hash included) or null if there is none
+    Patient getPatient(String username) throws SQLException;
+
+    // streams every patient username, used to warm in-process caches
+    void forEachPatientUsername(Consumer<String> action) throws SQLException;
+
+    // Caregivers
+    boolean caregiverExists(String username) throws SQLException;
+
+    void addCaregiver(Caregiver caregiver) throws SQLException;
+
+    // returns the stored caregiver (salt and hash included) or null if there is none
+    Caregiver getCaregiver(String username) throws SQLException;
+
+    // streams every caregiver username, used to warm in-process caches
+    void forEachCaregiverUsername(Consumer<String> action) throws SQLException;
+
+    // Availabilities
+    void addAvailability(Date date, String caregiver) throws SQLException;
+
+    // Inserts all rows in one transaction and returns those that were inserted. Rows that already exist
+    // or name an unknown caregiver are skipped instead of failing the batch.
+    List<Availability> addAvailabilities(List<Availability> availabilities) throws SQLException;
+
+    void removeAvailability(Date date, String caregiver) throws SQLException;
+
+    // caregivers available on the given date, ordered by username
+    List<String> getAvailableCaregivers(Date date) throws SQLException;
+
+    // streams every availability row, used to warm in-process caches
+    void forEachAvailability(Consumer<Availability> action) throws SQLException;
+
+    // How many caregivers are available on each day from start to end inclusive, leaving out days with
+    // none, together with every vaccine's doses
+    ScheduleSummary getScheduleSummary(Date start, Date end) throws SQLException;
+
+    // Vaccines
+    void addVaccine(String vaccineName, int doses) throws SQLException;
+
+    // returns null if there is no such vaccine
+    Vaccine getVaccine(String vaccineName) throws SQLException;
+
+    List<Vaccine> getVaccines() throws SQLException;
+
+    void updateVaccineDoses(String vaccineName, int doses) throws SQLException;
+
+    // Adds each dose count to its vaccine in one transaction, creating vaccines that do not exist yet
+    void addDoses(Map<String, Integer> doses) throws SQLException;
+
+    // Bulk import, all in one transaction: inserts the availabilities (skipping them like addAvailabilities),
+    // adds each dose count to its vaccine, creating vaccines that do not exist yet, and records lastLine as the
+    // checkpoint of the import named importName, so a batch is never applied without its checkpoint.
+    // Returns the availabilities that were inserted.
+    List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                   Map<String, Integer> doses) throws SQLException;
+
+    // The lastLine of the import's latest batch, 0 if it has none
+    long getImportCheckpoint(String importName) throws SQLException;
+
+    // Forget the import's checkpoint, once the whole file is in
+    void removeImportCheckpoint(String importName) throws SQLException;
+
+    // Appointments
+
+    // Takes one dose of the vaccine and the first caregiver available on the date, and books the appointment,
+    // all or nothing. Safe to call concurrently: a dose or a caregiver slot is never handed out twice.
+    ReservationResult reserve(Date date, String patient, String vaccineName) throws SQLException;
+
+    // returns the generated appointment id
+    int addAppointment(Date date, String patient, String caregiver, String vaccineName) throws SQLException;
+
+    // returns null if there is no such appointment
+    Appointment getAppointment(int appointmentId) throws SQLException;
+
+    // In one transaction, delete the appointment if owner is its patient (or its caregiver, if byCaregiver), give
+    // its dose back and make its caregiver available on its date again. Returns the cancelled appointment, or null
+    // if there is no such appointment of the owner's, e.g. because another session cancelled it first.
+    Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver) throws SQLException;
+
+    // streams one page of a user's appointments in id order, see AppointmentQuery
+    void forEachAppointment(AppointmentQuery query, Consumer<Appointment> action) throws SQLException;
+
+    // streams how many appointments each caregiver has on each day, used to warm in-process caches
+    void forEachBookingCount(SchedulerState.BookingConsumer action) throws SQLException;
+
+    // Waitlist
+
+    // Queue the patient for a dose of the vaccine on any day from start to end inclusive.
+    // Returns the entry id, or 0 if the patient is already waiting for that vaccine.
+    int addWaitlistEntry(String patient, String vaccineName, Date start, Date end) throws SQLException;
+
+    // In one transaction, go through up to maxEntries waitlist entries after afterEntryId, oldest first, and
+    // book each one whose vaccine has a dose left with the earliest free caregiver in its range; booked
+    // entries and those whose range has passed leave the waitlist, the others keep their place.
+    WaitlistPass matchWaitlist(int afterEntryId, int maxEntries) throws SQLException;
+
+    // Bulk allocation
+
+    // In one transaction, book each planned appointment (its id is ignored) by taking its caregiver's slot on its
+    // date and one dose of its vaccine. Plans whose slot or dose has gone since they were made are skipped.
+    // Returns the appointments booked, with their ids, in plan order.
+    List<Appointment> bookAppointments(List<Appointment> planned) throws SQLException;
+}
@@ -0,0 +1,317 @@
+package scheduler.db;
+
+import scheduler.journal.Journal;
+import scheduler.journal.JournalReader;
+import scheduler.journal.SchedulerState;
+import scheduler.journal.SnapshotFile;
+import scheduler.journal.Snapshotter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Locale;
+
+// Holds the Storage every model class and command goes through.
+// The engine is picked by the Storage environment variable: "sqlserver" (default) or "memory", and the
+// caregiver a reservation gets by AssignmentStrategy: "least-booked" (default), "round-robin" or "first".
+// SQL Server storage is wrapped in in-process caches unless they are switched off:
+//     CalendarIndex=false  searches read the Availabilities table instead of a CalendarIndexedStorage
+//                          (rebuilt from the table every CalendarRefreshSeconds, default 60, to take in changes
+//                          made by other processes)
+//     InventoryCache=false dose counts are read from and written to the Vaccines table on every call
+//                          (otherwise a CachedInventoryStorage, flushing every InventoryFlushMillis, default 200,
+//                          and reading the table again every InventoryRefreshMillis, default 1000)
+//     UsernameFilter=false username checks always query the database instead of a UsernameFilterStorage
+//                          (whose Bloom filters are sized for UsernameFilterCapacity users, default 1000000)
+// With Journal=<directory> every change to appointments, availabilities and doses is also appended to a
+// Journal there by a JournalingStorage, whichever the engine (segments of JournalSegmentBytes, default 64 MB,
+// forced to disk every JournalSyncMillis, default 100, behind a queue of JournalQueueSize records, default 65536).
+// With a journal, SQL Server storage warms its caches from a snapshot kept in the journal directory plus the
+// journal records written since, instead of scanning the tables (Snapshot=false to always scan them). A
+// Snapshotter brings the snapshot forward every SnapshotIntervalSeconds (default 300) and on shutdown.
+// Every call is timed by a MeteredStorage around all of that unless Metrics=false. Outermost, a WaitlistStorage
+// books waitlisted patients as doses and caregivers free up, WaitlistBatchSize entries (default 100) per
+// transaction, unless WaitlistMatcher=false.
+// Before SQL Server storage is first used its schema is brought up to date by a MigrationRunner; set
+// Migrations=false to skip that, or Migrations=check to only report what is out of date.
+public class StorageManager {
+
+    private static final double USERNAME_FILTER_FPP = 0.01;
+
+    private static final String SNAPSHOT_FILE = "scheduler.snapshot";
+
+    private static volatile Storage storage = null;
+    private static volatile Snapshotter snapshotter = null;
+
+    public static Storage getStorage() {
+        Storage s = storage;
+        if (s == null) {
+            synchronized (StorageManager.class) {
+                s = storage;
+                if (s == null) {
+                    s = withOuterLayers(createStorage(System.getenv("Storage")));
+                    storage = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    // Replace the storage engine, e.g. with an InMemoryStorage in benchmarks
+    public static synchronized void setStorage(Storage newStorage) {
+        storage = newStorage;
+    }
+
+    // The engine inside the chain getStorage builds around SQL Server storage, with the caches read from the
+    // engine itself, so a benchmark can put an InMemoryStorage behind the same layers
+    public static Storage wrap(Storage engine) {
+        return withOuterLayers(withCaches(engine, null));
+    }
+
+    public static Storage createStorage(String engine) {
+        if (engine == null || engine.isEmpty()) {
+            engine = "sqlserver";
+        }
+        switch (engine.toLowerCase(Locale.ROOT)) {
+            case "memory":
+                return new InMemoryStorage();
+            case "sqlserver":
+                migrateSchema();
+                CaregiverAssignmentStrategy assignment = CaregiverAssignmentStrategy.fromEnv();
+                Storage sqlServer = new SqlServerStorage(assignment);
+                return withCaches(sqlServer, restoreState(sqlServer, assignment));
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    // The first storage of the given type in the chain of caches, or null if it is not in use
+    public static <T extends Storage> T find(Class<T> type) {
+        Storage s = getStorage();
+        while (true) {
+            if (type.isInstance(s)) {
+                return type.cast(s);
+            }
+            if (!(s instanceof ForwardingStorage)) {
+                return null;
+            }
+            s = ((ForwardingStorage) s).getDelegate();
+        }
+    }
+
+    // null unless snapshots are being taken
+    public static Snapshotter getSnapshotter() {
+        return snapshotter;
+    }
+
+    // Write out what the caches and journal hold and take a last snapshot; only does anything if the storage
+    // was ever used
+    public static void shutdown() {
+        Storage s;
+        synchronized (StorageManager.class) {
+            s = storage;
+        }
+        Journal journal = null;
+        while (s instanceof ForwardingStorage) {
+            if (s instanceof WaitlistStorage) {
+                ((WaitlistStorage) s).close();
+            }
+            if (s instanceof JournalingStorage) {
+                journal = ((JournalingStorage) s).getJournal();
+                ((JournalingStorage) s).close();
+            }
+            if (s instanceof CalendarIndexedStorage) {
+                ((CalendarIndexedStorage) s).close();
+            }
+            if (s instanceof CachedInventoryStorage) {
+                try {
+                    ((CachedInventoryStorage) s).close();
+                } catch (SQLException e) {
+                    System.out.println("Unable to write the remaining vaccine doses");
+                    e.printStackTrace();
+                }
+            }
+            s = ((ForwardingStorage) s).getDelegate();
+        }
+        // after the journal is closed, so the snapshot takes in every record
+        if (snapshotter != null) {
+            try {
+                snapshotter.close(journal);
+            } catch (IOException e) {
+                System.out.println("Unable to write the snapshot, the next start will replay the journal");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void migrateSchema() {
+        String mode = System.getenv("Migrations");
+        if ("false".equalsIgnoreCase(mode)) {
+            return;
+        }
+        MigrationRunner runner = new MigrationRunner();
+        try {
+            if ("check".equalsIgnoreCase(mode)) {
+                for (String problem : runner.check()) {
+                    System.out.println(problem);
+                }
+            } else {
+                runner.migrate();
+            }
+        } catch (SQLException e) {
+            System.out.println("Unable to bring the database schema up to date");
+            e.printStackTrace();
+        }
+    }
+
+    // The journal, metrics and waitlist matcher that are switched on, around the engine and its caches
+    private static Storage withOuterLayers(Storage storage) {
+        storage = withJournal(storage);
+        if (enabled("Metrics")) {
+            storage = new MeteredStorage(storage);
+        }
+        if (enabled("WaitlistMatcher")) {
+            storage = new WaitlistStorage(storage, (int) Math.min(Integer.MAX_VALUE,
+                                                                  longFromEnv("WaitlistBatchSize", 100)));
+        }
+        return storage;
+    }
+
+    private static Storage withJournal(Storage storage) {
+        String directory = System.getenv("Journal");
+        if (directory == null || directory.isEmpty()) {
+            return storage;
+        }
+        try {
+            Journal journal = new Journal(Paths.get(directory), longFromEnv("JournalSegmentBytes", 64L << 20),
+                                          (int) Math.min(Integer.MAX_VALUE, longFromEnv("JournalQueueSize", 65536)),
+                                          longFromEnv("JournalSyncMillis", 100));
+            return new JournalingStorage(storage, journal);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to open the journal in " + directory + ", changes will not be journaled");
+            e.printStackTrace();
+            return storage;
+        }
+    }
+
+    // The caches' contents as of the last journal record: the snapshot beside the journal with the records written
+    // since applied, or the tables if there is no clean snapshot. Saves the result as the snapshot the Snapshotter
+    // starts from. Returns null, so the caches read the tables themselves, if there is no journal.
+    private static SchedulerState restoreState(Storage storage, CaregiverAssignmentStrategy assignment) {
+        String directory = System.getenv("Journal");
+        if (directory == null || directory.isEmpty() || !enabled("Snapshot")) {
+            return null;
+        }
+        Path journal = Paths.get(directory);
+        Path file = journal.resolve(SNAPSHOT_FILE);
+        try {
+            Files.createDirectories(journal);
+            JournalReader reader = new JournalReader(journal);
+            long lastSequence = reader.lastSequence();
+            SchedulerState state = null;
+            try {
+                state = SnapshotFile.read(file);
+            } catch (IOException e) {
+                System.out.println("Unable to read the snapshot, rebuilding it from the tables");
+                e.printStackTrace();
+            }
+            if (state != null && state.getSequence() > lastSequence) {
+                System.out.println("The snapshot is ahead of the journal, rebuilding it from the tables");
+                state = null;
+            }
+            if (state != null && !state.isCleanShutdown()) {
+                // the last run stopped without a final snapshot, so the journal may have lost its last records
+                // and any part of the state could be behind the tables
+                System.out.println("The last run did not shut down cleanly, rebuilding the snapshot from the tables");
+                state = null;
+            }
+            if (state == null) {
+                state = readTables(storage, lastSequence);
+            } else {
+                reader.forEach(state.getSequence(), state::apply);
+            }
+            state.forEachBooking((date, caregiver, appointments) -> {
+                for (int i = 0; i < appointments; i++) {
+                    assignment.booked(date, caregiver);
+                }
+            });
+            SnapshotFile.write(file, state, false);
+            snapshotter = new Snapshotter(file, journal, longFromEnv("SnapshotIntervalSeconds", 300) * 1000);
+            return state;
+        } catch (IOException | SQLException e) {
+            System.out.println("Unable to restore the caches from the snapshot, loading them from the tables");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static SchedulerState readTables(Storage storage, long sequence) throws SQLException {
+        SchedulerState state = new SchedulerState(sequence);
+        state.replaceVaccines(CachedInventoryStorage.readDoses(storage));
+        storage.forEachCaregiverUsername(state::addCaregiver);
+        storage.forEachAvailability(a -> state.addAvailability(a.getDate(), a.getCaregiverName()));
+        storage.forEachBookingCount(state::addBookings);
+        return state;
+    }
+
+    // Wrap the storage in the caches that are switched on, warming them from state unless it is null
+    private static Storage withCaches(Storage storage, SchedulerState state) {
+        if (enabled("InventoryCache")) {
+            try {
+                long flushMillis = longFromEnv("InventoryFlushMillis", 200);
+                long refreshMillis = longFromEnv("InventoryRefreshMillis", 1000);
+                storage = state != null
+                          ? new CachedInventoryStorage(storage, flushMillis, refreshMillis, state.getVaccines())
+                          : new CachedInventoryStorage(storage, flushMillis, refreshMillis);
+            } catch (SQLException e) {
+                System.out.println("Unable to load the vaccine inventory, reading the table instead");
+                e.printStackTrace();
+            }
+        }
+        if (enabled("UsernameFilter")) {
+            try {
+                storage = new UsernameFilterStorage(storage, longFromEnv("UsernameFilterCapacity", 1_000_000),
+                                                    USERNAME_FILTER_FPP);
+            } catch (SQLException e) {
+                System.out.println("Unable to load the username filters, checking usernames in the database");
+                e.printStackTrace();
+            }
+        }
+        if (enabled("CalendarIndex")) {
+            try {
+                long refreshMillis = longFromEnv("CalendarRefreshSeconds", 60) * 1000;
+                if (state != null) {
+                    AvailabilityIndex index = new AvailabilityIndex();
+                    index.addCaregivers(state.getCaregivers());
+                    state.forEachAvailability(index::add);
+                    storage = new CalendarIndexedStorage(storage, refreshMillis, index);
+                } else {
+                    storage = new CalendarIndexedStorage(storage, refreshMillis);
+                }
+            } catch (SQLException e) {
+                System.out.println("Unable to build the availability calendar index, searching the table instead");
+                e.printStackTrace();
+            }
+        }
+        return storage;
+    }
+
+    private static boolean enabled(String cache) {
+        return !"false".equalsIgnoreCase(System.getenv(cache));
+    }
+
+    private static long longFromEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package scheduler.db;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.BloomFilter;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Answers "is this username taken?" from Bloom filters of the Patients and Caregivers usernames, so
+// account creation skips the database for new usernames. The filters are loaded by streaming the username
+// columns and updated on every account created through this storage; a "possibly present" answer still goes
+// to the database.
+//
+// Accounts created by other processes or nodes are not in the filters, so the existence checks miss them
+// and their INSERT fails on the primary key instead. Logins therefore always read the database, and add
+// the accounts they find to the filters.
+public class UsernameFilterStorage extends ForwardingStorage {
+
+    private final BloomFilter patients;
+    private final BloomFilter caregivers;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong definiteMisses = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    public UsernameFilterStorage(Storage delegate, long expectedUsers, double falsePositiveProbability)
+            throws SQLException {
+        super(delegate);
+        this.patients = new BloomFilter(expectedUsers, falsePositiveProbability);
+        this.caregivers = new BloomFilter(expectedUsers, falsePositiveProbability);
+        delegate.forEachPatientUsername(username -> patients.put(key(username)));
+        delegate.forEachCaregiverUsername(username -> caregivers.put(key(username)));
+    }
+
+    @Override
+    public boolean patientExists(String username) throws SQLException {
+        return exists(patients, username) && confirm(delegate.patientExists(username));
+    }
+
+    // Like logins, reads the database for every name, since the filter misses accounts created elsewhere
+    @Override
+    public Set<String> findPatients(List<String> usernames) throws SQLException {
+        Set<String> found = delegate.findPatients(usernames);
+        for (String username : found) {
+            patients.put(key(username));
+        }
+        return found;
+    }
+
+    @Override
+    public void addPatient(Patient patient) throws SQLException {
+        // added first so a concurrent check never misses a stored username
+        patients.put(key(patient.getUsername()));
+        delegate.addPatient(patient);
+    }
+
+    @Override
+    public Patient getPatient(String username) throws SQLException {
+        Patient patient = delegate.getPatient(username);
+        if (patient != null) {
+            patients.put(key(username));
+        }
+        return patient;
+    }
+
+    @Override
+    public boolean caregiverExists(String username) throws SQLException {
+        return exists(caregivers, username) && confirm(delegate.caregiverExists(username));
+    }
+
+    @Override
+    public void addCaregiver(Caregiver caregiver) throws SQLException {
+        caregivers.put(key(caregiver.getUsername()));
+        delegate.addCaregiver(caregiver);
+    }
+
+    @Override
+    public Caregiver getCaregiver(String username) throws SQLException {
+        Caregiver caregiver = delegate.getCaregiver(username);
+        if (caregiver != null) {
+            caregivers.put(key(username));
+        }
+        return caregiver;
+    }
+
+    public BloomFilter getPatientFilter() {
+        return patients;
+    }
+
+    public BloomFilter getCaregiverFilter() {
+        return caregivers;
+    }
+
+    // Metrics
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getDefiniteMisses() {
+        return definiteMisses.get();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    // Share of lookups for absent usernames that the filters let through to the database
+    public double getObservedFpp() {
+        long negatives = definiteMisses.get() + falsePositives.get();
+        return negatives == 0 ? 0.0 : (double) falsePositives.get() / negatives;
+    }
+
+    public long getMemoryBytes() {
+        return patients.getMemoryBytes() + caregivers.getMemoryBytes();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "UsernameFilterStorage{lookups=%d, definiteMisses=%d, " +
+                             "falsePositives=%d, observedFpp=%.5f, bytes=%d, patients=%s, caregivers=%s}",
+                             getLookups(), getDefiniteMisses(), getFalsePositives(), getObservedFpp(),
+                             getMemoryBytes(), patients, caregivers);
+    }
+
+    private boolean exists(BloomFilter filter, String username) {
+        lookups.incrementAndGet();
+        if (!filter.mightContain(key(username))) {
+            definiteMisses.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean confirm(boolean stored) {
+        if (!stored) {
+            falsePositives.incrementAndGet();
+        }
+        return stored;
+    }
+
+    // usernames compare case-insensitively in the database
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
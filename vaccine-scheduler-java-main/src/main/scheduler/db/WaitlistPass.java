@@ -0,0 +1,36 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+
+import java.util.Collections;
+import java.util.List;
+
+// Outcome of Storage.matchWaitlist over one page of the waitlist: the appointments booked and how far the
+// page reached, so the next page can start after it
+public class WaitlistPass {
+
+    private final List<Appointment> booked;
+    private final int examined;
+    private final int lastEntryId;
+
+    public WaitlistPass(List<Appointment> booked, int examined, int lastEntryId) {
+        this.booked = Collections.unmodifiableList(booked);
+        this.examined = examined;
+        this.lastEntryId = lastEntryId;
+    }
+
+    // booked in waitlist order; each one's entry has left the waitlist
+    public List<Appointment> getBooked() {
+        return booked;
+    }
+
+    // entries looked at, booked or not; fewer than asked for means the end of the waitlist was reached
+    public int getExamined() {
+        return examined;
+    }
+
+    // id of the last entry looked at, or the id the page started after if there were none
+    public int getLastEntryId() {
+        return lastEntryId;
+    }
+}
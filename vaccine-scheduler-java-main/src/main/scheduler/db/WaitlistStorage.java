@@ -0,0 +1,181 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Availability;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Books waitlisted patients as soon as there is room for them. Every change that can free a dose or a
+// caregiver slot (doses added, availability uploaded or imported, an appointment cancelled) and every new
+// waitlist entry wakes a matcher thread, which walks the whole waitlist oldest first, one transaction of
+// batchSize entries at a time (see Storage.matchWaitlist). Wake-ups that arrive during a walk are folded into
+// one more walk, so a burst of cancels costs a pass or two instead of every waiting patient polling
+// search_caregiver_schedule and reserve.
+public class WaitlistStorage extends ForwardingStorage implements AutoCloseable {
+
+    private final int batchSize;
+    private final ExecutorService matcher;
+    // a walk has been asked for and has not started yet
+    private final AtomicBoolean walkQueued = new AtomicBoolean();
+    private final AtomicLong walks = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong examined = new AtomicLong();
+    private final AtomicLong booked = new AtomicLong();
+    private final AtomicLong failedWalks = new AtomicLong();
+
+    public WaitlistStorage(Storage delegate, int batchSize) {
+        super(delegate);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Waitlist batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.matcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "waitlist-matcher");
+            t.setDaemon(true);
+            return t;
+        });
+        // entries left from before a restart may already fit
+        wake();
+    }
+
+    @Override
+    public void addAvailability(Date date, String caregiver) throws SQLException {
+        delegate.addAvailability(date, caregiver);
+        wake();
+    }
+
+    @Override
+    public List<Availability> addAvailabilities(List<Availability> availabilities) throws SQLException {
+        List<Availability> inserted = delegate.addAvailabilities(availabilities);
+        if (!inserted.isEmpty()) {
+            wake();
+        }
+        return inserted;
+    }
+
+    @Override
+    public void addVaccine(String vaccineName, int doses) throws SQLException {
+        delegate.addVaccine(vaccineName, doses);
+        wake();
+    }
+
+    @Override
+    public void updateVaccineDoses(String vaccineName, int doses) throws SQLException {
+        delegate.updateVaccineDoses(vaccineName, doses);
+        wake();
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> doses) throws SQLException {
+        delegate.addDoses(doses);
+        wake();
+    }
+
+    @Override
+    public List<Availability> importBatch(String importName, long lastLine, List<Availability> availabilities,
+                                          Map<String, Integer> doses) throws SQLException {
+        List<Availability> inserted = delegate.importBatch(importName, lastLine, availabilities, doses);
+        wake();
+        return inserted;
+    }
+
+    @Override
+    public Appointment cancelAppointment(int appointmentId, String owner, boolean byCaregiver)
+            throws SQLException {
+        Appointment cancelled = delegate.cancelAppointment(appointmentId, owner, byCaregiver);
+        if (cancelled != null) {
+            wake();
+        }
+        return cancelled;
+    }
+
+    @Override
+    public int addWaitlistEntry(String patient, String vaccineName, Date start, Date end) throws SQLException {
+        int entryId = delegate.addWaitlistEntry(patient, vaccineName, start, end);
+        if (entryId != 0) {
+            wake();
+        }
+        return entryId;
+    }
+
+    // Ask for a walk of the waitlist; returns at once
+    public void wake() {
+        if (walkQueued.compareAndSet(false, true)) {
+            try {
+                matcher.execute(this::walk);
+            } catch (RuntimeException e) {
+                // shutting down
+                walkQueued.set(false);
+            }
+        }
+    }
+
+    // Stop the matcher, letting a walk in progress finish
+    @Override
+    public void close() {
+        matcher.shutdown();
+        try {
+            matcher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Metrics
+    public long getWalkCount() {
+        return walks.get();
+    }
+
+    public long getPassCount() {
+        return passes.get();
+    }
+
+    public long getExaminedCount() {
+        return examined.get();
+    }
+
+    public long getBookedCount() {
+        return booked.get();
+    }
+
+    public long getFailedWalks() {
+        return failedWalks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WaitlistMatcher{batchSize=" + batchSize + ", walks=" + getWalkCount() + ", passes=" + getPassCount() +
+                ", examined=" + getExaminedCount() + ", booked=" + getBookedCount() +
+                ", failedWalks=" + getFailedWalks() + '}';
+    }
+
+    private void walk() {
+        // changes from here on need another walk
+        walkQueued.set(false);
+        walks.incrementAndGet();
+        try {
+            int after = 0;
+            WaitlistPass pass;
+            do {
+                pass = delegate.matchWaitlist(after, batchSize);
+                passes.incrementAndGet();
+                examined.addAndGet(pass.getExamined());
+                booked.addAndGet(pass.getBooked().size());
+                after = pass.getLastEntryId();
+            } while (pass.getExamined() == batchSize);
+        } catch (SQLException | RuntimeException e) {
+            // the entries stay queued for the next change to pick up
+            failedWalks.incrementAndGet();
+            System.out.println("Unable to match the waitlist");
+            e.printStackTrace();
+        }
+    }
+}
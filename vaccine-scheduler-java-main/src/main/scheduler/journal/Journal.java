@@ -0,0 +1,410 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only log of every change to appointments, availabilities and doses, kept in memory-mapped segment
+// files in one directory so it can be read back (see JournalReader) without touching the database.
+//
+// append only queues the record; a single writer thread numbers the records, copies them into the mapped
+// segment and forces it to disk every syncMillis, so callers never wait on the disk unless the queue is full.
+// Records still queued or written but not forced when the process dies are lost.
+//
+// A segment is named after the sequence of its first record (00000000000000000001.journal) and starts with
+//     int magic, int version, long first sequence
+// followed by records of
+//     int body length, int CRC32C of the body, body
+// The length is written last, so a reader stops at the first length of 0 or record whose CRC does not match.
+// When a record does not fit in the rest of a segment a new one is started. On open the tail of the last
+// segment after its last valid record is zeroed, so a write torn by a crash is dropped.
+public class Journal implements AutoCloseable {
+
+    static final int MAGIC = 0x4A524E4C;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 8;
+    static final String SUFFIX = ".journal";
+
+    // sequence, time, type, appointment id, epoch day, amount and three string lengths
+    private static final int FIXED_BODY_BYTES = 8 + 8 + 1 + 4 + 4 + 4 + 3 * 2;
+    private static final int MAX_STRING_BYTES = Short.MAX_VALUE;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long syncMillis;
+    private final BlockingQueue<JournalRecord> queue;
+    private final Thread writer;
+    private final CRC32C crc = new CRC32C();
+    private final ByteBuffer body;
+
+    private volatile boolean closed = false;
+
+    // only touched by the writer thread once it has started
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long nextSequence;
+    private long lastForceNanos = System.nanoTime();
+    private boolean dirty = false;
+
+    private volatile long lastWrittenSequence;
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private final LongAdder segmentsStarted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public Journal(Path directory, long segmentBytes, int queueSize, long syncMillis) throws IOException {
+        if (segmentBytes < HEADER_BYTES + RECORD_HEADER_BYTES + FIXED_BODY_BYTES + 3 * MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Journal segments must hold at least one record: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncMillis = syncMillis;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.body = ByteBuffer.allocate(FIXED_BODY_BYTES + 3 * MAX_STRING_BYTES);
+        Files.createDirectories(directory);
+        recover();
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queue the record to be written; blocks only while the queue is full
+    public void append(JournalRecord record) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        appended.increment();
+        if (queue.offer(record)) {
+            return;
+        }
+        stalls.increment();
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.increment();
+        }
+    }
+
+    // Count a record that could not be made, so the journal is not taken as complete (see Snapshotter.close)
+    public void recordDropped() {
+        dropped.increment();
+    }
+
+    // Write and force everything queued so far, then stop the writer
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Metrics
+    public long getLastWrittenSequence() {
+        return lastWrittenSequence;
+    }
+
+    public long getAppendedCount() {
+        return appended.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    // appends that had to wait for room in the queue
+    public long getStallCount() {
+        return stalls.sum();
+    }
+
+    public long getForceCount() {
+        return forces.sum();
+    }
+
+    public long getSegmentsStarted() {
+        return segmentsStarted.sum();
+    }
+
+    // records appended after close or by an interrupted thread, lost by the writer or never made
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Journal{directory=" + directory + ", lastSequence=" + getLastWrittenSequence() +
+                ", appended=" + getAppendedCount() + ", written=" + getWrittenCount() +
+                ", bytes=" + getBytesWritten() + ", queued=" + getQueueDepth() + ", stalls=" + getStallCount() +
+                ", forces=" + getForceCount() + ", segments=" + getSegmentsStarted() +
+                ", dropped=" + getDroppedCount() + '}';
+    }
+
+    // Segment files in the directory, oldest first
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+
+    static String segmentName(long firstSequence) {
+        return String.format("%020d%s", firstSequence, SUFFIX);
+    }
+
+    // Reads the record at the buffer's position, leaving the position after it; returns null and leaves the
+    // position alone at the end of the segment or at a record that is torn or corrupt
+    static JournalRecord read(ByteBuffer segment, CRC32C crc) {
+        int start = segment.position();
+        if (segment.remaining() < RECORD_HEADER_BYTES) {
+            return null;
+        }
+        int length = segment.getInt(start);
+        if (length < FIXED_BODY_BYTES || length > segment.remaining() - RECORD_HEADER_BYTES) {
+            return null;
+        }
+        int checksum = segment.getInt(start + 4);
+        ByteBuffer record = segment.duplicate();
+        record.position(start + RECORD_HEADER_BYTES).limit(start + RECORD_HEADER_BYTES + length);
+        crc.reset();
+        crc.update(record.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        JournalRecord decoded;
+        try {
+            decoded = decode(record);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        segment.position(start + RECORD_HEADER_BYTES + length);
+        return decoded;
+    }
+
+    private void writeLoop() {
+        List<JournalRecord> batch = new ArrayList<>();
+        while (true) {
+            boolean closing = closed;
+            try {
+                JournalRecord first = queue.poll(syncMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (JournalRecord record : batch) {
+                        write(record);
+                    }
+                    batch.clear();
+                }
+                if (dirty && (closing || System.nanoTime() - lastForceNanos >= syncMillis * 1_000_000)) {
+                    force();
+                }
+            } catch (InterruptedException e) {
+                // only close stops the writer
+            } catch (IOException | RuntimeException e) {
+                // the rest of the batch is lost; later records go to a new segment
+                System.out.println("Unable to write to the journal in " + directory);
+                e.printStackTrace();
+                dropped.add(batch.size());
+                batch.clear();
+                closeSegment();
+            }
+            if (closing && queue.isEmpty()) {
+                break;
+            }
+        }
+        closeSegment();
+    }
+
+    private void write(JournalRecord record) throws IOException {
+        long sequence = nextSequence;
+        body.clear();
+        encode(record.withSequence(sequence), body);
+        body.flip();
+        int length = body.remaining();
+        if (segment == null || segment.remaining() < RECORD_HEADER_BYTES + length) {
+            startSegment(sequence);
+        }
+        int start = segment.position();
+        crc.reset();
+        crc.update(body.duplicate());
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.position(start + RECORD_HEADER_BYTES);
+        segment.put(body);
+        // publish the record
+        segment.putInt(start, length);
+        nextSequence++;
+        dirty = true;
+        lastWrittenSequence = sequence;
+        written.increment();
+        bytesWritten.add(RECORD_HEADER_BYTES + length);
+    }
+
+    private void force() {
+        segment.force();
+        lastForceNanos = System.nanoTime();
+        dirty = false;
+        forces.increment();
+    }
+
+    private void closeSegment() {
+        try {
+            if (segment != null && dirty) {
+                force();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to close journal segment in " + directory);
+            e.printStackTrace();
+        }
+        segment = null;
+        channel = null;
+        dirty = false;
+    }
+
+    private void startSegment(long firstSequence) throws IOException {
+        closeSegment();
+        Path file = directory.resolve(segmentName(firstSequence));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(MAGIC).putInt(VERSION).putLong(firstSequence);
+        segmentsStarted.increment();
+    }
+
+    // Find where the last segment ends and carry on writing there
+    private void recover() throws IOException {
+        List<Path> segments = segments(directory);
+        nextSequence = 1;
+        if (segments.isEmpty()) {
+            return;
+        }
+        Path last = segments.get(segments.size() - 1);
+        FileChannel lastChannel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = lastChannel.size();
+        if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+            lastChannel.close();
+            throw new IOException("Not a journal segment: " + last);
+        }
+        MappedByteBuffer mapped = lastChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (mapped.getInt(0) == 0 && mapped.getInt(4) == 0) {
+            // created by a writer that died before writing the header; its name says where it starts
+            String name = last.getFileName().toString();
+            long firstSequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            mapped.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, firstSequence);
+        }
+        if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+            lastChannel.close();
+            throw new IOException("Not a journal segment: " + last);
+        }
+        nextSequence = mapped.getLong();
+        JournalRecord record;
+        int end = mapped.position();
+        while ((record = read(mapped, crc)) != null && record.getSequence() == nextSequence) {
+            nextSequence++;
+            end = mapped.position();
+        }
+        lastWrittenSequence = nextSequence - 1;
+        // drop whatever a crash left half written, so no stale record shows up after the next one written
+        boolean torn = false;
+        for (int i = end; i < mapped.limit(); i++) {
+            if (mapped.get(i) != 0) {
+                mapped.put(i, (byte) 0);
+                torn = true;
+            }
+        }
+        if (torn) {
+            mapped.force();
+        }
+        mapped.position(end);
+        channel = lastChannel;
+        segment = mapped;
+    }
+
+    private static void encode(JournalRecord record, ByteBuffer out) {
+        out.putLong(record.getSequence());
+        out.putLong(record.getTimeMillis());
+        out.put(record.getType().getCode());
+        out.putInt(record.getAppointmentId());
+        out.putInt(record.getEpochDay());
+        out.putInt(record.getAmount());
+        putString(out, record.getPatient());
+        putString(out, record.getCaregiver());
+        putString(out, record.getVaccine());
+    }
+
+    private static JournalRecord decode(ByteBuffer in) {
+        long sequence = in.getLong();
+        long timeMillis = in.getLong();
+        JournalRecord.Type type = JournalRecord.Type.fromCode(in.get());
+        int appointmentId = in.getInt();
+        int epochDay = in.getInt();
+        int amount = in.getInt();
+        String patient = getString(in);
+        String caregiver = getString(in);
+        String vaccine = getString(in);
+        return new JournalRecord(sequence, timeMillis, type, appointmentId, epochDay, amount, patient, caregiver,
+                                 vaccine);
+    }
+
+    // a short length, -1 for null, then the UTF-8 bytes
+    private static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Journal strings are limited to " + MAX_STRING_BYTES + " bytes");
+        }
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
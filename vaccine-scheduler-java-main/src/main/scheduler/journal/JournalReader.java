@@ -0,0 +1,90 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+// Reads the records of a Journal directory back in sequence order, straight from the segment files. Safe to use
+// while a Journal is writing to the directory: it stops at the last record written so far.
+public class JournalReader {
+
+    private final Path directory;
+
+    private long corruptSegments = 0;
+
+    public JournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    // Streams every record with a sequence above afterSequence; returns the last sequence read, or
+    // afterSequence if there was none. Segments wholly before afterSequence are not opened.
+    public long forEach(long afterSequence, Consumer<JournalRecord> action) throws IOException {
+        List<Path> segments = Journal.segments(directory);
+        CRC32C crc = new CRC32C();
+        long last = afterSequence;
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && firstSequence(segments.get(i + 1)) <= afterSequence + 1) {
+                continue;
+            }
+            last = readSegment(segments.get(i), afterSequence, last, crc, action);
+        }
+        return last;
+    }
+
+    // The sequence of the last record in the journal, 0 if it is empty. Only the last segment is read.
+    public long lastSequence() throws IOException {
+        List<Path> segments = Journal.segments(directory);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Path last = segments.get(segments.size() - 1);
+        return readSegment(last, 0, firstSequence(last) - 1, new CRC32C(), record -> {
+        });
+    }
+
+    // segments whose header was not recognised and were skipped
+    public long getCorruptSegments() {
+        return corruptSegments;
+    }
+
+    private long readSegment(Path file, long afterSequence, long last, CRC32C crc, Consumer<JournalRecord> action)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            if (size < Journal.HEADER_BYTES) {
+                corruptSegments++;
+                return last;
+            }
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (segment.getInt() != Journal.MAGIC || segment.getInt() != Journal.VERSION) {
+                corruptSegments++;
+                return last;
+            }
+            long expected = segment.getLong();
+            JournalRecord record;
+            // a record out of sequence is left over from before a crash, like a torn one
+            while ((record = Journal.read(segment, crc)) != null && record.getSequence() == expected) {
+                expected++;
+                if (record.getSequence() > afterSequence) {
+                    action.accept(record);
+                    last = record.getSequence();
+                }
+            }
+        }
+        return last;
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - Journal.SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
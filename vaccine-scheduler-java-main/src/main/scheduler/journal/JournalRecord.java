@@ -0,0 +1,170 @@
+package scheduler.journal;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+
+// One change to the scheduler's data as written to the Journal. Fields a type does not use are 0 or null.
+public class JournalRecord {
+
+    public enum Type {
+        // an appointment was booked; amount is the doses it took (always 1)
+        RESERVE(1),
+        // an appointment was deleted; amount is the doses it gave back (1), along with its caregiver's day
+        CANCEL(2),
+        AVAILABILITY_ADDED(3),
+        AVAILABILITY_REMOVED(4),
+        // a vaccine was created with amount doses
+        VACCINE_ADDED(5),
+        // a vaccine's dose count was set to amount
+        DOSES_SET(6),
+        // amount doses were added to a vaccine, negative to take them away
+        DOSES_ADDED(7),
+        // a caregiver account was created; only the username is kept
+        CAREGIVER_ADDED(8);
+
+        private final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        public static Type fromCode(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown journal record type " + code);
+        }
+    }
+
+    // assigned by the journal when the record is written; 0 until then
+    private final long sequence;
+    private final long timeMillis;
+    private final Type type;
+    private final int appointmentId;
+    // days since 1970-01-01, or Integer.MIN_VALUE for no date
+    private final int epochDay;
+    private final int amount;
+    private final String patient;
+    private final String caregiver;
+    private final String vaccine;
+
+    JournalRecord(long sequence, long timeMillis, Type type, int appointmentId, int epochDay, int amount,
+                  String patient, String caregiver, String vaccine) {
+        this.sequence = sequence;
+        this.timeMillis = timeMillis;
+        this.type = type;
+        this.appointmentId = appointmentId;
+        this.epochDay = epochDay;
+        this.amount = amount;
+        this.patient = patient;
+        this.caregiver = caregiver;
+        this.vaccine = vaccine;
+    }
+
+    public static JournalRecord reserve(int appointmentId, Date date, String patient, String caregiver,
+                                        String vaccine) {
+        return now(Type.RESERVE, appointmentId, date, 1, patient, caregiver, vaccine);
+    }
+
+    public static JournalRecord cancel(int appointmentId, Date date, String patient, String caregiver,
+                                       String vaccine) {
+        return now(Type.CANCEL, appointmentId, date, 1, patient, caregiver, vaccine);
+    }
+
+    public static JournalRecord availabilityAdded(Date date, String caregiver) {
+        return now(Type.AVAILABILITY_ADDED, 0, date, 0, null, caregiver, null);
+    }
+
+    public static JournalRecord availabilityRemoved(Date date, String caregiver) {
+        return now(Type.AVAILABILITY_REMOVED, 0, date, 0, null, caregiver, null);
+    }
+
+    public static JournalRecord caregiverAdded(String caregiver) {
+        return now(Type.CAREGIVER_ADDED, 0, null, 0, null, caregiver, null);
+    }
+
+    public static JournalRecord vaccineAdded(String vaccine, int doses) {
+        return now(Type.VACCINE_ADDED, 0, null, doses, null, null, vaccine);
+    }
+
+    public static JournalRecord dosesSet(String vaccine, int doses) {
+        return now(Type.DOSES_SET, 0, null, doses, null, null, vaccine);
+    }
+
+    public static JournalRecord dosesAdded(String vaccine, int doses) {
+        return now(Type.DOSES_ADDED, 0, null, doses, null, null, vaccine);
+    }
+
+    private static JournalRecord now(Type type, int appointmentId, Date date, int amount, String patient,
+                                     String caregiver, String vaccine) {
+        int epochDay = date == null ? Integer.MIN_VALUE : (int) date.toLocalDate().toEpochDay();
+        return new JournalRecord(0, System.currentTimeMillis(), type, appointmentId, epochDay, amount, patient,
+                                 caregiver, vaccine);
+    }
+
+    JournalRecord withSequence(long sequence) {
+        return new JournalRecord(sequence, timeMillis, type, appointmentId, epochDay, amount, patient, caregiver,
+                                 vaccine);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    int getEpochDay() {
+        return epochDay;
+    }
+
+    // null if the record has no date
+    public Date getDate() {
+        return epochDay == Integer.MIN_VALUE ? null : Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    // sequence, time, type, appointment id, date, patient, caregiver, vaccine and amount, tab-separated
+    @Override
+    public String toString() {
+        Date date = getDate();
+        return sequence + "\t" + Instant.ofEpochMilli(timeMillis) + "\t" + type + "\t" + appointmentId + "\t" +
+               (date == null ? "" : date) + "\t" + nullToEmpty(patient) + "\t" + nullToEmpty(caregiver) + "\t" +
+               nullToEmpty(vaccine) + "\t" + amount;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
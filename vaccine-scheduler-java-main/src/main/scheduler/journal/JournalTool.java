@@ -0,0 +1,119 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// Prints the records of a journal as tab-separated lines without going near the database:
+//     java scheduler.journal.JournalTool [directory] [filters] [--count]
+// The directory defaults to the Journal environment variable. Filters, all of which must match:
+//     --type <type>[,<type>...]   e.g. reserve,cancel
+//     --patient <username>  --caregiver <username>  --vaccine <name>   (case-insensitive)
+//     --from <yyyy-mm-dd>  --to <yyyy-mm-dd>   appointment or availability date, inclusive
+//     --after <sequence>   only records after this sequence number
+// --count prints how many records match instead of the records.
+public class JournalTool {
+
+    public static void main(String[] args) {
+        String directory = System.getenv("Journal");
+        Predicate<JournalRecord> filter = r -> true;
+        long after = 0;
+        boolean count = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--count")) {
+                    count = true;
+                } else if (!arg.startsWith("--")) {
+                    directory = arg;
+                } else if (i + 1 >= args.length) {
+                    usage("Missing value for " + arg);
+                    return;
+                } else {
+                    String value = args[++i];
+                    switch (arg) {
+                        case "--type":
+                            Set<JournalRecord.Type> types = EnumSet.noneOf(JournalRecord.Type.class);
+                            for (String type : value.split(",")) {
+                                types.add(JournalRecord.Type.valueOf(type.trim().toUpperCase(Locale.ROOT)));
+                            }
+                            filter = filter.and(r -> types.contains(r.getType()));
+                            break;
+                        case "--patient":
+                            filter = filter.and(r -> value.equalsIgnoreCase(r.getPatient()));
+                            break;
+                        case "--caregiver":
+                            filter = filter.and(r -> value.equalsIgnoreCase(r.getCaregiver()));
+                            break;
+                        case "--vaccine":
+                            filter = filter.and(r -> value.equalsIgnoreCase(r.getVaccine()));
+                            break;
+                        case "--from":
+                            Date from = Date.valueOf(value);
+                            filter = filter.and(r -> r.getDate() != null && !r.getDate().before(from));
+                            break;
+                        case "--to":
+                            Date to = Date.valueOf(value);
+                            filter = filter.and(r -> r.getDate() != null && !r.getDate().after(to));
+                            break;
+                        case "--after":
+                            after = Long.parseLong(value);
+                            break;
+                        default:
+                            usage("Unknown option " + arg);
+                            return;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+            return;
+        }
+        if (directory == null || directory.isEmpty()) {
+            usage("No journal directory given");
+            return;
+        }
+        try {
+            long matched = print(Paths.get(directory), after, filter, count ? null : System.out);
+            if (count) {
+                System.out.println(matched);
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to read the journal in " + directory);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // Prints the matching records to out, unless it is null; returns how many matched
+    public static long print(Path directory, long after, Predicate<JournalRecord> filter, PrintStream out)
+            throws IOException {
+        long[] matched = {0};
+        new JournalReader(directory).forEach(after, record -> {
+            if (filter.test(record)) {
+                matched[0]++;
+                if (out != null) {
+                    out.println(record);
+                }
+            }
+        });
+        if (out != null) {
+            out.flush();
+        }
+        return matched[0];
+    }
+
+    private static void usage(String problem) {
+        System.out.println(problem);
+        System.out.println("Usage: JournalTool [directory] [--type <types>] [--patient <username>] " +
+                           "[--caregiver <username>] [--vaccine <name>] [--from <date>] [--to <date>] " +
+                           "[--after <sequence>] [--count]");
+        System.exit(2);
+    }
+}
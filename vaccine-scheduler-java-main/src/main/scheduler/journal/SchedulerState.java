@@ -0,0 +1,220 @@
+package scheduler.journal;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+// The reference data the in-process caches are warmed with: vaccine inventory, caregiver roster, availability
+// calendar and appointments per caregiver and day, as of one journal sequence. It is brought forward by
+// applying the journal records that follow, and saved and loaded by SnapshotFile.
+// Names are compared case-insensitively, like the database does. Not thread-safe.
+public class SchedulerState {
+
+    private long sequence;
+    private boolean cleanShutdown = false;
+    private final Map<String, Integer> vaccines = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final TreeSet<String> caregivers = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    // epoch day to the caregivers available that day
+    private final TreeMap<Integer, TreeSet<String>> availability = new TreeMap<>();
+    // caregiver to epoch day to appointments booked
+    private final Map<String, TreeMap<Integer, Integer>> bookings = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public SchedulerState(long sequence) {
+        this.sequence = sequence;
+    }
+
+    // Bring the state up to the record. Records at or before the state's sequence are ignored.
+    public void apply(JournalRecord record) {
+        if (record.getSequence() <= sequence) {
+            return;
+        }
+        sequence = record.getSequence();
+        int day = record.getEpochDay();
+        switch (record.getType()) {
+            case RESERVE:
+                addDoses(record.getVaccine(), -record.getAmount());
+                removeAvailability(day, record.getCaregiver());
+                book(record.getCaregiver(), day, 1);
+                break;
+            case CANCEL:
+                book(record.getCaregiver(), day, -1);
+                addDoses(record.getVaccine(), record.getAmount());
+                addAvailability(day, record.getCaregiver());
+                break;
+            case AVAILABILITY_ADDED:
+                addAvailability(day, record.getCaregiver());
+                break;
+            case AVAILABILITY_REMOVED:
+                removeAvailability(day, record.getCaregiver());
+                break;
+            case VACCINE_ADDED:
+            case DOSES_SET:
+                vaccines.put(record.getVaccine(), record.getAmount());
+                break;
+            case DOSES_ADDED:
+                addDoses(record.getVaccine(), record.getAmount());
+                break;
+            case CAREGIVER_ADDED:
+                caregivers.add(record.getCaregiver());
+                break;
+        }
+    }
+
+    // Loading the state from the tables
+
+    public void putVaccine(String vaccineName, int doses) {
+        vaccines.put(vaccineName, doses);
+    }
+
+    // Replace the whole inventory, e.g. with what the table holds when the journal may have lost records
+    public void replaceVaccines(Map<String, Integer> doses) {
+        vaccines.clear();
+        vaccines.putAll(doses);
+    }
+
+    public void addCaregiver(String username) {
+        caregivers.add(username);
+    }
+
+    public void addAvailability(Date date, String caregiver) {
+        caregivers.add(caregiver);
+        availability.computeIfAbsent((int) date.toLocalDate().toEpochDay(),
+                                     d -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(caregiver);
+    }
+
+    public void addBookings(Date date, String caregiver, int appointments) {
+        book(caregiver, (int) date.toLocalDate().toEpochDay(), appointments);
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    void setCleanShutdown(boolean cleanShutdown) {
+        this.cleanShutdown = cleanShutdown;
+    }
+
+    // Reading the state
+
+    // the last journal record the state includes
+    public long getSequence() {
+        return sequence;
+    }
+
+    // whether the snapshot this was loaded from was written as the scheduler shut down
+    public boolean isCleanShutdown() {
+        return cleanShutdown;
+    }
+
+    // vaccine name to available doses
+    public Map<String, Integer> getVaccines() {
+        return vaccines;
+    }
+
+    public List<String> getCaregivers() {
+        return new ArrayList<>(caregivers);
+    }
+
+    public void forEachAvailability(BiConsumer<Date, String> action) {
+        for (Map.Entry<Integer, TreeSet<String>> day : availability.entrySet()) {
+            Date date = toDate(day.getKey());
+            for (String caregiver : day.getValue()) {
+                action.accept(date, caregiver);
+            }
+        }
+    }
+
+    public void forEachBooking(BookingConsumer action) {
+        for (Map.Entry<String, TreeMap<Integer, Integer>> caregiver : bookings.entrySet()) {
+            for (Map.Entry<Integer, Integer> day : caregiver.getValue().entrySet()) {
+                action.accept(toDate(day.getKey()), caregiver.getKey(), day.getValue());
+            }
+        }
+    }
+
+    public int getAvailabilityCount() {
+        int count = 0;
+        for (TreeSet<String> day : availability.values()) {
+            count += day.size();
+        }
+        return count;
+    }
+
+    public int getBookingCount() {
+        int count = 0;
+        for (TreeMap<Integer, Integer> days : bookings.values()) {
+            for (int booked : days.values()) {
+                count += booked;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerState{sequence=" + sequence + ", vaccines=" + vaccines.size() +
+                ", caregivers=" + caregivers.size() + ", days=" + availability.size() +
+                ", availabilities=" + getAvailabilityCount() + ", appointments=" + getBookingCount() + '}';
+    }
+
+    public interface BookingConsumer {
+        void accept(Date date, String caregiver, int appointments);
+    }
+
+    // Raw access for SnapshotFile
+    TreeSet<String> caregiverSet() {
+        return caregivers;
+    }
+
+    TreeMap<Integer, TreeSet<String>> availabilityByDay() {
+        return availability;
+    }
+
+    Map<String, TreeMap<Integer, Integer>> bookingsByCaregiver() {
+        return bookings;
+    }
+
+    private void addDoses(String vaccineName, int doses) {
+        if (vaccineName != null) {
+            vaccines.merge(vaccineName, doses, Integer::sum);
+        }
+    }
+
+    private void addAvailability(int day, String caregiver) {
+        if (caregiver != null) {
+            availability.computeIfAbsent(day, d -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(caregiver);
+        }
+    }
+
+    private void removeAvailability(int day, String caregiver) {
+        TreeSet<String> available = availability.get(day);
+        if (available != null && caregiver != null) {
+            available.remove(caregiver);
+            if (available.isEmpty()) {
+                availability.remove(day);
+            }
+        }
+    }
+
+    private void book(String caregiver, int day, int appointments) {
+        TreeMap<Integer, Integer> days = bookings.computeIfAbsent(caregiver, c -> new TreeMap<>());
+        int booked = days.getOrDefault(day, 0) + appointments;
+        if (booked > 0) {
+            days.put(day, booked);
+        } else {
+            days.remove(day);
+            if (days.isEmpty()) {
+                bookings.remove(caregiver);
+            }
+        }
+    }
+
+    private static Date toDate(int epochDay) {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+}
@@ -0,0 +1,173 @@
+package scheduler.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32C;
+
+// Saves a SchedulerState to one binary file and memory-maps it back:
+//     int magic, int version, long sequence, long time written, byte clean shutdown
+//     int vaccines,  then per vaccine: string name, int doses
+//     int caregivers, then per caregiver: string username
+//     int days, then per day: int epoch day, int caregivers, then their int positions in the caregiver list
+//     int booked caregivers, then per caregiver: int position, int days, then per day: int epoch day, int count
+//     int CRC32C of everything before it
+// Strings are a short length followed by UTF-8 bytes. The file is written next to the old one and moved over
+// it, so a reader sees either snapshot whole.
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 1;
+
+    public static void write(Path file, SchedulerState state, boolean cleanShutdown) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32C crc = new CRC32C();
+        try (FileOutputStream stream = new FileOutputStream(temporary.toFile())) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(stream,
+                                                                                                      1 << 16),
+                                                                                 crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(state.getSequence());
+            out.writeLong(System.currentTimeMillis());
+            out.writeBoolean(cleanShutdown);
+
+            out.writeInt(state.getVaccines().size());
+            for (Map.Entry<String, Integer> vaccine : state.getVaccines().entrySet()) {
+                writeString(out, vaccine.getKey());
+                out.writeInt(vaccine.getValue());
+            }
+
+            // caregivers are written once and referred to by position
+            TreeSet<String> caregivers = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            caregivers.addAll(state.caregiverSet());
+            caregivers.addAll(state.bookingsByCaregiver().keySet());
+            Map<String, Integer> positions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            out.writeInt(caregivers.size());
+            for (String caregiver : caregivers) {
+                positions.put(caregiver, positions.size());
+                writeString(out, caregiver);
+            }
+
+            out.writeInt(state.availabilityByDay().size());
+            for (Map.Entry<Integer, TreeSet<String>> day : state.availabilityByDay().entrySet()) {
+                out.writeInt(day.getKey());
+                out.writeInt(day.getValue().size());
+                for (String caregiver : day.getValue()) {
+                    out.writeInt(positions.get(caregiver));
+                }
+            }
+
+            out.writeInt(state.bookingsByCaregiver().size());
+            for (Map.Entry<String, TreeMap<Integer, Integer>> caregiver : state.bookingsByCaregiver().entrySet()) {
+                out.writeInt(positions.get(caregiver.getKey()));
+                out.writeInt(caregiver.getValue().size());
+                for (Map.Entry<Integer, Integer> day : caregiver.getValue().entrySet()) {
+                    out.writeInt(day.getKey());
+                    out.writeInt(day.getValue());
+                }
+            }
+
+            out.flush();
+            // the checksum goes around the CheckedOutputStream so it does not include itself
+            new DataOutputStream(stream).writeInt((int) crc.getValue());
+            stream.getChannel().force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns null if there is no snapshot; throws if there is one that cannot be used
+    public static SchedulerState read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 29 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer body = in.duplicate();
+            body.limit((int) size - 4);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            if ((int) crc.getValue() != in.getInt((int) size - 4)) {
+                throw new IOException("Snapshot checksum does not match: " + file);
+            }
+            in.limit((int) size - 4);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            SchedulerState state = new SchedulerState(in.getLong());
+            in.getLong();
+            state.setCleanShutdown(in.get() != 0);
+
+            int vaccines = in.getInt();
+            for (int i = 0; i < vaccines; i++) {
+                state.putVaccine(readString(in), in.getInt());
+            }
+
+            List<String> caregivers = new ArrayList<>();
+            int caregiverCount = in.getInt();
+            for (int i = 0; i < caregiverCount; i++) {
+                caregivers.add(readString(in));
+            }
+            state.caregiverSet().addAll(caregivers);
+
+            int days = in.getInt();
+            for (int i = 0; i < days; i++) {
+                int day = in.getInt();
+                TreeSet<String> available = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                int count = in.getInt();
+                for (int j = 0; j < count; j++) {
+                    available.add(caregivers.get(in.getInt()));
+                }
+                state.availabilityByDay().put(day, available);
+            }
+
+            int booked = in.getInt();
+            for (int i = 0; i < booked; i++) {
+                String caregiver = caregivers.get(in.getInt());
+                TreeMap<Integer, Integer> byDay = new TreeMap<>();
+                int count = in.getInt();
+                for (int j = 0; j < count; j++) {
+                    byDay.put(in.getInt(), in.getInt());
+                }
+                state.bookingsByCaregiver().put(caregiver, byDay);
+            }
+            return state;
+        } catch (RuntimeException e) {
+            throw new IOException("Unable to read snapshot " + file, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Snapshot strings are limited to " + Short.MAX_VALUE + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
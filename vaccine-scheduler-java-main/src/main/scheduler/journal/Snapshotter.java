@@ -0,0 +1,93 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps a snapshot next to a journal up to date: every intervalMillis it loads the snapshot, applies the
+// journal records written since, and saves the result, so a restart only has to replay what came after.
+// Works from the files alone, off the request path; the snapshot it starts from must already exist.
+public class Snapshotter {
+
+    private final Path file;
+    private final JournalReader reader;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong replayedRecords = new AtomicLong();
+    private volatile long lastSequence = -1;
+    private volatile long lastMillis = 0;
+
+    public Snapshotter(Path file, Path journalDirectory, long intervalMillis) {
+        this.file = file;
+        this.reader = new JournalReader(journalDirectory);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshotter");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, intervalMillis, intervalMillis,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    // Bring the snapshot up to the last record in the journal; returns the sequence it now covers
+    public synchronized long snapshot(boolean cleanShutdown) throws IOException {
+        long start = System.nanoTime();
+        SchedulerState state = SnapshotFile.read(file);
+        if (state == null) {
+            throw new IOException("No snapshot to start from: " + file);
+        }
+        long before = state.getSequence();
+        reader.forEach(before, state::apply);
+        SnapshotFile.write(file, state, cleanShutdown);
+        replayedRecords.addAndGet(state.getSequence() - before);
+        snapshots.incrementAndGet();
+        lastSequence = state.getSequence();
+        lastMillis = (System.nanoTime() - start) / 1_000_000;
+        return lastSequence;
+    }
+
+    // Stop the timer and take a last snapshot. It is marked as a clean shutdown only if the journal, which must be
+    // closed first, holds every change: null if it could not be opened, or any record it dropped, means the
+    // next start rebuilds from the tables.
+    public void close(Journal journal) throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot(journal != null && journal.getDroppedCount() == 0);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Metrics
+    public long getSnapshotCount() {
+        return snapshots.get();
+    }
+
+    public long getReplayedRecords() {
+        return replayedRecords.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshotter{file=" + file + ", snapshots=" + getSnapshotCount() + ", lastSequence=" + lastSequence +
+                ", lastMillis=" + lastMillis + ", replayedRecords=" + getReplayedRecords() + '}';
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot(false);
+        } catch (IOException | RuntimeException e) {
+            // the old snapshot stays in place and is retried on the next tick
+            System.out.println("Unable to write the snapshot " + file + ", retrying later");
+            e.printStackTrace();
+        }
+    }
+}
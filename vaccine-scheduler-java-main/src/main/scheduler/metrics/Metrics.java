@@ -0,0 +1,111 @@
+package scheduler.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Process-wide registry of OperationMetrics, one per console command, Storage call and SQL statement, each
+// also published over JMX under the scheduler domain.
+//
+// Round trips and errors are counted per thread: the database code calls roundTrip() and error(), and
+// whoever times an operation reads the counters before and after it. A connection is leased to one
+// thread at a time, so these add up to what that thread's operation cost.
+public class Metrics {
+
+    private static final String DOMAIN = "scheduler";
+    private static final int ROUND_TRIPS = 0;
+    private static final int ERRORS = 1;
+
+    private static final Map<String, OperationMetrics> commands = new ConcurrentHashMap<>();
+    private static final Map<String, OperationMetrics> storage = new ConcurrentHashMap<>();
+    private static final Map<String, OperationMetrics> statements = new ConcurrentHashMap<>();
+    // a counter array per thread so counting neither boxes nor allocates
+    private static final ThreadLocal<long[]> counters = ThreadLocal.withInitial(() -> new long[2]);
+
+    public static OperationMetrics command(String name) {
+        return commands.computeIfAbsent(name, n -> register("Command", new OperationMetrics(n)));
+    }
+
+    public static OperationMetrics storage(String name) {
+        return storage.computeIfAbsent(name, n -> register("Storage", new OperationMetrics(n)));
+    }
+
+    public static OperationMetrics statement(String name) {
+        return statements.computeIfAbsent(name, n -> register("Statement", new OperationMetrics(n)));
+    }
+
+    // Called once per statement sent to the database
+    public static void roundTrip() {
+        counters.get()[ROUND_TRIPS]++;
+    }
+
+    // Called once per database call that failed
+    public static void error() {
+        counters.get()[ERRORS]++;
+    }
+
+    // Round trips made on this thread so far
+    public static long roundTrips() {
+        return counters.get()[ROUND_TRIPS];
+    }
+
+    // Failed database calls on this thread so far
+    public static long errors() {
+        return counters.get()[ERRORS];
+    }
+
+    // Publish an MXBean as scheduler:type=<type>,name=<name>; a bean already registered under the name
+    // (e.g. by an earlier pool) is replaced
+    public static void register(String type, String name, Object bean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            try {
+                server.registerMBean(bean, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(bean, objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Unable to publish " + type + " " + name + " over JMX");
+            e.printStackTrace();
+        }
+    }
+
+    public static void report(PrintStream out) {
+        String header = String.format("%-26s %8s %7s %9s %9s %9s %9s %7s", "", "count", "errors",
+                                      "p50 ms", "p99 ms", "p99.9 ms", "max ms", "trips");
+        print(out, "Commands", header, commands);
+        print(out, "Storage calls", header, storage);
+        if (!statements.isEmpty()) {
+            print(out, "SQL statements", header, statements);
+        }
+    }
+
+    public static void reset() {
+        commands.values().forEach(OperationMetrics::reset);
+        storage.values().forEach(OperationMetrics::reset);
+        statements.values().forEach(OperationMetrics::reset);
+    }
+
+    private static void print(PrintStream out, String title, String header, Map<String, OperationMetrics> metrics) {
+        out.println(title + ":");
+        out.println(header);
+        for (OperationMetrics m : new TreeMap<>(metrics).values()) {
+            if (m.getCount() > 0) {
+                out.println(m);
+            }
+        }
+    }
+
+    private static OperationMetrics register(String type, OperationMetrics metrics) {
+        register(type, metrics.getName(), metrics);
+        return metrics;
+    }
+}
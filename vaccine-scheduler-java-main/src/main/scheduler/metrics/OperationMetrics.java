@@ -0,0 +1,96 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency, errors and database round trips of one kind of operation, e.g. the reserve command
+public class OperationMetrics implements OperationMetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    // Record one call that started at startNanos (from System.nanoTime) and has just finished
+    public void record(long startNanos, long roundTripCount, boolean failed) {
+        recordElapsed(System.nanoTime() - startNanos, roundTripCount, failed);
+    }
+
+    // Record one call that took nanos
+    public void recordElapsed(long nanos, long roundTripCount, boolean failed) {
+        latency.record(nanos);
+        roundTrips.add(roundTripCount);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getRoundTripsPerCall() {
+        long count = latency.getCount();
+        return count == 0 ? 0.0 : (double) roundTrips.sum() / count;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentileNanos(0.50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentileNanos(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getPercentileNanos(0.999) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        errors.reset();
+        roundTrips.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-26s %8d %7d %9.3f %9.3f %9.3f %9.3f %7.2f", name, getCount(), getErrorCount(),
+                             getP50Millis(), getP99Millis(), getP999Millis(), getMaxMillis(),
+                             getRoundTripsPerCall());
+    }
+}
@@ -0,0 +1,25 @@
+package scheduler.metrics;
+
+// JMX view of one OperationMetrics, registered as scheduler:type=<Command|Storage|Statement>,name=<operation>
+public interface OperationMetricsMXBean {
+
+    String getName();
+
+    long getCount();
+
+    long getErrorCount();
+
+    double getRoundTripsPerCall();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    void reset();
+}
@@ -0,0 +1,72 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Appointment {
+    private final int appointmentId;
+    private final Date date;
+    private final String patientName;
+    private final String caregiverName;
+    private final String vaccineName;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.appointmentId = builder.appointmentId;
+        this.date = builder.date;
+        this.patientName = builder.patientName;
+        this.caregiverName = builder.caregiverName;
+        this.vaccineName = builder.vaccineName;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "appointmentId=" + appointmentId +
+                ", date=" + date +
+                ", patientName='" + patientName + '\'' +
+                ", caregiverName='" + caregiverName + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
+                '}';
+    }
+
+    public static class AppointmentBuilder {
+        private final int appointmentId;
+        private final Date date;
+        private final String patientName;
+        private final String caregiverName;
+        private final String vaccineName;
+
+        public AppointmentBuilder(int appointmentId, Date date, String patientName, String caregiverName,
+                                  String vaccineName) {
+            this.appointmentId = appointmentId;
+            this.date = date;
+            this.patientName = patientName;
+            this.caregiverName = caregiverName;
+            this.vaccineName = vaccineName;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Availability {
+    private final Date date;
+    private final String caregiverName;
+
+    private Availability(AvailabilityBuilder builder) {
+        this.date = builder.date;
+        this.caregiverName = builder.caregiverName;
+    }
+
+    // Getters
+    public Date getDate() {
+        return date;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    @Override
+    public String toString() {
+        return "Availability{" +
+                "date=" + date +
+                ", caregiverName='" + caregiverName + '\'' +
+                '}';
+    }
+
+    public static class AvailabilityBuilder {
+        private final Date date;
+        private final String caregiverName;
+
+        public AvailabilityBuilder(Date date, String caregiverName) {
+            this.date = date;
+            this.caregiverName = caregiverName;
+        }
+
+        public Availability build() {
+            return new Availability(this);
+        }
+    }
+}
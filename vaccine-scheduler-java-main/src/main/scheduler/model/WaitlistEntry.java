@@ -0,0 +1,73 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class WaitlistEntry {
+    private final int entryId;
+    private final String patientName;
+    private final String vaccineName;
+    private final Date start;
+    private final Date end;
+
+    private WaitlistEntry(WaitlistEntryBuilder builder) {
+        this.entryId = builder.entryId;
+        this.patientName = builder.patientName;
+        this.vaccineName = builder.vaccineName;
+        this.start = builder.start;
+        this.end = builder.end;
+    }
+
+    // Getters
+    public int getEntryId() {
+        return entryId;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    // first day the patient can come
+    public Date getStart() {
+        return start;
+    }
+
+    // last day the patient can come
+    public Date getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return "WaitlistEntry{" +
+                "entryId=" + entryId +
+                ", patientName='" + patientName + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", start=" + start +
+                ", end=" + end +
+                '}';
+    }
+
+    public static class WaitlistEntryBuilder {
+        private final int entryId;
+        private final String patientName;
+        private final String vaccineName;
+        private final Date start;
+        private final Date end;
+
+        public WaitlistEntryBuilder(int entryId, String patientName, String vaccineName, Date start, Date end) {
+            this.entryId = entryId;
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.start = start;
+            this.end = end;
+        }
+
+        public WaitlistEntry build() {
+            return new WaitlistEntry(this);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package scheduler.util;
+
+import java.util.Arrays;
+
+// Directed graph with integer edge capacities and Dinic's maximum flow.
+// Nodes are numbered from 0; edges live in flat arrays, each forward edge at an even index with its residual
+// edge right after it, so a graph of a few million edges costs a few int arrays rather than an object per edge.
+// The search is iterative, so long augmenting paths cannot overflow the stack. Not safe for concurrent use.
+public class FlowNetwork {
+
+    private final int nodeCount;
+    // first edge out of each node, -1 if none
+    private final int[] head;
+    private int[] to;
+    private int[] next;
+    private int[] capacity;
+    private int edgeCount = 0;
+
+    private final int[] level;
+    private final int[] queue;
+    // per node, the next edge the search has not ruled out in this phase
+    private final int[] current;
+    private int[] path;
+
+    public FlowNetwork(int nodeCount, int expectedEdges) {
+        this.nodeCount = nodeCount;
+        this.head = new int[nodeCount];
+        Arrays.fill(head, -1);
+        int slots = Math.max(2, 2 * expectedEdges);
+        this.to = new int[slots];
+        this.next = new int[slots];
+        this.capacity = new int[slots];
+        this.level = new int[nodeCount];
+        this.queue = new int[nodeCount];
+        this.current = new int[nodeCount];
+        this.path = new int[Math.min(nodeCount, 64)];
+    }
+
+    // Returns the edge's id, for reading its flow once the maximum flow is found
+    public int addEdge(int from, int toNode, int edgeCapacity) {
+        if (edgeCapacity < 0) {
+            throw new IllegalArgumentException("Negative capacity " + edgeCapacity);
+        }
+        if (edgeCount + 2 > to.length) {
+            int grown = to.length * 2;
+            to = Arrays.copyOf(to, grown);
+            next = Arrays.copyOf(next, grown);
+            capacity = Arrays.copyOf(capacity, grown);
+        }
+        int edge = edgeCount;
+        link(edge, from, toNode, edgeCapacity);
+        link(edge + 1, toNode, from, 0);
+        edgeCount += 2;
+        return edge;
+    }
+
+    // Flow sent over the edge so far
+    public int getFlow(int edge) {
+        return capacity[edge + 1];
+    }
+
+    // Capacity the edge still has left
+    public int getResidual(int edge) {
+        return capacity[edge];
+    }
+
+    // Send units of flow over the edge, e.g. to start maxFlow from a flow found on part of the graph; the caller
+    // keeps it a flow by pushing along whole paths
+    public void push(int edge, int units) {
+        if (units < 0 || getResidual(edge) < units) {
+            throw new IllegalStateException("Cannot push " + units + " over an edge with " + getResidual(edge) +
+                                            " left");
+        }
+        capacity[edge] -= units;
+        capacity[edge + 1] += units;
+    }
+
+    // Move one unit of flow off an edge and onto another, for callers that swap between equivalent edges
+    // without changing the total
+    public void shift(int fromEdge, int toEdge) {
+        if (getFlow(fromEdge) < 1 || getResidual(toEdge) < 1) {
+            throw new IllegalStateException("No unit of flow to shift");
+        }
+        capacity[fromEdge]++;
+        capacity[fromEdge + 1]--;
+        capacity[toEdge]--;
+        capacity[toEdge + 1]++;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount / 2;
+    }
+
+    // Push as much flow as possible from source to sink, on top of what was pushed before; returns the total added
+    public long maxFlow(int source, int sink) {
+        long total = 0;
+        while (buildLevels(source, sink)) {
+            System.arraycopy(head, 0, current, 0, nodeCount);
+            int pushed;
+            while ((pushed = augment(source, sink)) > 0) {
+                total += pushed;
+            }
+        }
+        return total;
+    }
+
+    private void link(int edge, int from, int toNode, int edgeCapacity) {
+        to[edge] = toNode;
+        capacity[edge] = edgeCapacity;
+        next[edge] = head[from];
+        head[from] = edge;
+    }
+
+    // Breadth-first distances from the source over edges with capacity left; false once the sink is unreachable
+    private boolean buildLevels(int source, int sink) {
+        Arrays.fill(level, -1);
+        level[source] = 0;
+        int read = 0;
+        int write = 0;
+        queue[write++] = source;
+        while (read < write) {
+            int node = queue[read++];
+            for (int edge = head[node]; edge != -1; edge = next[edge]) {
+                if (capacity[edge] > 0 && level[to[edge]] < 0) {
+                    level[to[edge]] = level[node] + 1;
+                    queue[write++] = to[edge];
+                }
+            }
+        }
+        return level[sink] >= 0;
+    }
+
+    // Find one path along increasing levels and push its bottleneck over it; 0 once the phase is blocked.
+    // Nodes found to lead nowhere drop out of the level graph so no later search walks into them again.
+    private int augment(int source, int sink) {
+        int node = source;
+        int depth = 0;
+        while (true) {
+            if (node == sink) {
+                int bottleneck = Integer.MAX_VALUE;
+                for (int i = 0; i < depth; i++) {
+                    bottleneck = Math.min(bottleneck, capacity[path[i]]);
+                }
+                for (int i = 0; i < depth; i++) {
+                    capacity[path[i]] -= bottleneck;
+                    capacity[path[i] ^ 1] += bottleneck;
+                }
+                return bottleneck;
+            }
+            int edge = current[node];
+            while (edge != -1 && (capacity[edge] == 0 || level[to[edge]] != level[node] + 1)) {
+                edge = next[edge];
+            }
+            current[node] = edge;
+            if (edge != -1) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, Math.min(nodeCount, path.length * 2));
+                }
+                path[depth++] = edge;
+                node = to[edge];
+            } else {
+                if (node == source) {
+                    return 0;
+                }
+                level[node] = -1;
+                int back = path[--depth];
+                node = to[back ^ 1];
+                current[node] = next[current[node]];
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package scheduler.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Password hashing shared by the whole process. Key factories are reused from a small pool and salts come
+// from one shared SecureRandom, so threads created per task or per client pay for neither; verifications can
+// run on a bounded pool of workers so a login burst cannot take every core, and hashes are compared in
+// constant time.
+public class PasswordHasher {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    // constants for handling password
+    private static final int HASH_STRENGTH = 10;
+    private static final int KEY_LENGTH = 16;
+    private static final int SALT_LENGTH = 16;
+    // verifications waiting for a worker; once full, callers hash on their own thread
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static final PasswordHasher INSTANCE = new PasswordHasher(workersFromEnv());
+
+    // thread-safe, and seeded once rather than per thread
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ThreadPoolExecutor workers;
+    // factories not in use, at most one per worker; a SecretKeyFactory is not thread-safe, so each hash takes
+    // one out, or makes one if none is left, and puts it back unless the pool is full
+    private final BlockingQueue<SecretKeyFactory> factories;
+    private final LongAdder hashCount = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    public PasswordHasher(int workerCount) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                                              new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+            Thread t = new Thread(r, "password-hasher-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.factories = new ArrayBlockingQueue<>(workerCount);
+    }
+
+    public static PasswordHasher getInstance() {
+        return INSTANCE;
+    }
+
+    public byte[] generateSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    public byte[] hash(String password, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        SecretKeyFactory factory = factories.poll();
+        try {
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(ALGORITHM);
+            }
+            byte[] hash = factory.generateSecret(spec).getEncoded();
+            hashCount.increment();
+            return hash;
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+            if (factory != null) {
+                factories.offer(factory);
+            }
+        }
+    }
+
+    // Check a password against a stored hash. The stored hash may carry trailing zero padding
+    // from the BINARY(16) column, which is compared as if the computed hash were padded the same way.
+    public boolean verify(String password, byte[] salt, byte[] storedHash) {
+        return constantTimeEquals(storedHash, hash(password, salt));
+    }
+
+    // Same as verify, run on the worker pool
+    public CompletableFuture<Boolean> verifyAsync(String password, byte[] salt, byte[] storedHash) {
+        return CompletableFuture.supplyAsync(() -> verify(password, salt, storedHash), workers);
+    }
+
+    // verifyAsync for callers that need the answer before going on
+    public boolean verifyOnWorker(String password, byte[] salt, byte[] storedHash) {
+        try {
+            return verifyAsync(password, salt, storedHash).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Compares every byte whatever the contents, treating missing bytes in the shorter array as zero
+    static boolean constantTimeEquals(byte[] stored, byte[] computed) {
+        int length = Math.max(stored.length, computed.length);
+        int diff = 0;
+        for (int i = 0; i < length; i++) {
+            byte a = i < stored.length ? stored[i] : 0;
+            byte b = i < computed.length ? computed[i] : 0;
+            diff |= a ^ b;
+        }
+        return diff == 0;
+    }
+
+    // Metrics
+    public long getHashCount() {
+        return hashCount.sum();
+    }
+
+    public double getHashesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return seconds <= 0 ? 0.0 : hashCount.sum() / seconds;
+    }
+
+    public int getQueuedVerifications() {
+        return workers.getQueue().size();
+    }
+
+    public int getWorkerCount() {
+        return workers.getMaximumPoolSize();
+    }
+
+    private static int workersFromEnv() {
+        String value = System.getenv("HashThreads");
+        if (value != null && !value.isEmpty()) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring invalid value for HashThreads: " + value);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
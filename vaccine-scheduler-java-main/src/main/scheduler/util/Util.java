@@ -1,51 +1,55 @@
 package scheduler.util;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
-import java.util.Arrays;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
+    // weekday mask that keeps every day, flags run Monday to Sunday
+    public static final String ALL_WEEKDAYS = "1111111";
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16];
-        random.nextBytes(salt);
-        return salt;
+        return PasswordHasher.getInstance().generateSalt();
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
-        // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        return PasswordHasher.getInstance().hash(password, salt);
+    }
 
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
-        try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
-        }
-        return hash;
+    public static boolean isWeekdayMask(String mask) {
+        return mask.matches("[01]{7}");
     }
 
-    public static byte[] trim(byte[] bytes)
-    {
-        int i = bytes.length - 1;
-        while (i >= 0 && bytes[i] == 0)
-        {
-            --i;
+    // Every date from start to end (both included) whose weekday is set in the mask
+    public static List<Date> expandDates(Date start, Date end, String mask) {
+        if (!isWeekdayMask(mask)) {
+            throw new IllegalArgumentException("Invalid weekday mask: " + mask);
+        }
+        LocalDate first = start.toLocalDate();
+        LocalDate last = end.toLocalDate();
+        if (first.isAfter(last)) {
+            throw new IllegalArgumentException("Start date " + start + " is after end date " + end);
         }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+            if (mask.charAt(day.getDayOfWeek().getValue() - 1) == '1') {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        return dates;
+    }
 
-        return Arrays.copyOf(bytes, i + 1);
+    // One virtual thread per task when the JVM has them (Java 21+), otherwise a cached pool of platform threads
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
     }
 }